@@ -2,6 +2,8 @@ plugins {
     alias(libs.plugins.hivemq.extension)
     alias(libs.plugins.defaults)
     alias(libs.plugins.license)
+    alias(libs.plugins.jmh)
+    `java-test-fixtures`
 }
 
 group = "com.hivemq.extensions"
@@ -23,6 +25,10 @@ hivemqExtension {
 dependencies {
     implementation("com.google.code.gson:gson:${property("gson.version")}")
     implementation("com.squareup.okhttp3:okhttp:${property("okhttp.version")}")
+
+    // the stand-in for the REST API shared by the unit and the load tests
+    testFixturesCompileOnly(libs.jetbrains.annotations)
+    testFixturesApi("com.squareup.okhttp3:mockwebserver:${property("okhttp.version")}")
 }
 
 @Suppress("UnstableApiUsage")
@@ -33,7 +39,10 @@ testing {
         }
         "test"(JvmTestSuite::class) {
             dependencies {
+                compileOnly(libs.jetbrains.annotations)
                 implementation(libs.mockito)
+                implementation(libs.prometheus.simpleclient.dropwizard)
+                implementation("com.squareup.okhttp3:mockwebserver:${property("okhttp.version")}")
             }
         }
         "integrationTest"(JvmTestSuite::class) {
@@ -46,9 +55,43 @@ testing {
                 runtimeOnly(libs.logback.classic)
             }
         }
+        register<JvmTestSuite>("loadTest") {
+            dependencies {
+                compileOnly(libs.jetbrains.annotations)
+                implementation(project())
+                implementation(testFixtures(project()))
+                implementation("com.hivemq:hivemq-extension-sdk:$version")
+            }
+            targets.all {
+                testTask.configure {
+                    maxHeapSize = "2g"
+                    outputs.upToDateWhen { false }
+                    testLogging.showStandardStreams = true
+                    systemProperty(
+                        "loadTest.reportFile",
+                        layout.buildDirectory.file("reports/loadTest/poll.csv").get().asFile.absolutePath,
+                    )
+                }
+            }
+        }
     }
 }
 
+/* ******************** benchmarks ******************** */
+
+jmh {
+    jmhVersion = libs.versions.jmh
+    profilers.add("gc")
+}
+
+dependencies {
+    jmh("com.hivemq:hivemq-extension-sdk:$version")
+    jmh(libs.prometheus.simpleclient.common)
+    jmh(libs.prometheus.simpleclient.dropwizard)
+}
+
+/* ******************** checks ******************** */
+
 license {
     header = rootDir.resolve("HEADER")
     mapping("java", "SLASHSTAR_STYLE")
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.MetricRegistry;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.dropwizard.DropwizardExports;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Measures what per-client metrics cost at scrape time, for 1 000 up to 1 000 000 gauges registered the way
+ * {@link ClientQueueSizeMetrics} registers them:
+ * <ul>
+ *     <li>{@code register}: registering all gauges in a new registry, {@code gc.alloc.rate.norm} shows the memory
+ *     the registry and the store need for all gauges,</li>
+ *     <li>{@code scrape}: serializing all gauges to the Prometheus text format, like the HiveMQ Prometheus extension
+ *     does for every scrape,</li>
+ *     <li>{@code parse}: parsing the scraped text on the consumer side, like {@code MetricPresentIT} does.</li>
+ * </ul>
+ * Run with {@code ./gradlew jmh}, the gc profiler is enabled in the build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ScrapeCostBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int gauges;
+
+	private String[] clientIds;
+	private CollectorRegistry collectorRegistry;
+	private String scraped;
+
+	@Setup
+	public void setup() throws IOException {
+		clientIds = new String[gauges];
+		for (int i = 0; i < gauges; i++) {
+			clientIds[i] = "client-" + i;
+		}
+		final MetricRegistry metricRegistry = register();
+		collectorRegistry = new CollectorRegistry();
+		collectorRegistry.register(new DropwizardExports(metricRegistry));
+		final StringWriter writer = new StringWriter();
+		TextFormat.write004(writer, collectorRegistry.metricFamilySamples());
+		scraped = writer.toString();
+	}
+
+	@Benchmark
+	public MetricRegistry register() {
+		final MetricRegistry metricRegistry = new MetricRegistry();
+		final ClientQueueSizeMetrics metrics = new ClientQueueSizeMetrics(metricRegistry, Set.of(), gauges, false);
+		for (int i = 0; i < clientIds.length; i++) {
+			metrics.register(clientIds[i]);
+			metrics.update(clientIds[i], i % 1000);
+		}
+		return metricRegistry;
+	}
+
+	@Benchmark
+	public long scrape() throws IOException {
+		final CountingWriter writer = new CountingWriter();
+		TextFormat.write004(writer, collectorRegistry.metricFamilySamples());
+		return writer.count;
+	}
+
+	@Benchmark
+	public Map<String, Float> parse() {
+		return scraped.lines()
+				.filter(s -> !s.startsWith("#"))
+				.map(s -> s.split(" "))
+				.map(splits -> Map.entry(splits[0], Float.parseFloat(splits[1])))
+				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, Float::max));
+	}
+
+	/**
+	 * Counts the written characters instead of keeping them, like a response stream that is sent right away.
+	 */
+	private static final class CountingWriter extends Writer {
+
+		private long count;
+
+		@Override
+		public void write(final char[] buffer, final int offset, final int length) {
+			count += length;
+		}
+
+		@Override
+		public void write(final String string, final int offset, final int length) {
+			count += length;
+		}
+
+		@Override
+		public void write(final int c) {
+			count++;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
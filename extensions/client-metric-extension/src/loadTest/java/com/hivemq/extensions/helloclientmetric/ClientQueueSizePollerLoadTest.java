@@ -0,0 +1,317 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Polls synthetic fleets from a local stand-in for the HiveMQ REST API and reports the duration, the allocated bytes
+ * and the retained heap of every poll cycle.
+ * <p>
+ * The results are printed and appended to the file given by the system property {@code loadTest.reportFile},
+ * so they can be compared between builds. The allocated bytes are the heap allocated by the whole JVM, derived from
+ * the heap usage and the bytes every garbage collection reclaimed, so they include the threads of the HTTP client
+ * that ended during the cycle and also the mock server generating the responses. The limits checked per cycle are
+ * therefore generous, they catch a poll cycle that allocates or retains something per client it should not, not a
+ * few percent more.
+ */
+class ClientQueueSizePollerLoadTest {
+
+	private static final int SELECTED_EVERY = 100;
+	private static final int MEASURED_CYCLES = 3;
+	private static final long MAX_ALLOCATED_BYTES = 64L << 20;
+	private static final long MAX_ALLOCATED_BYTES_PER_CLIENT = 4096;
+	private static final long MAX_RETAINED_HEAP_GROWTH_BYTES = 16L << 20;
+
+	private final @NotNull MockWebServer server = new MockWebServer();
+	private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+	private final @NotNull AllocatedHeap allocatedHeap = new AllocatedHeap();
+	private @Nullable OkHttpClient httpClient;
+
+	@AfterEach
+	void tearDown() throws IOException {
+		allocatedHeap.close();
+		if (httpClient != null) {
+			httpClient.dispatcher().executorService().shutdown();
+			httpClient.connectionPool().evictAll();
+		}
+		server.shutdown();
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = {1_000, 100_000, 1_000_000})
+	void poll_syntheticFleet(final int clients) throws Exception {
+		final FleetDispatcher fleet = FleetDispatcher.synthetic(clients, SELECTED_EVERY);
+		final ClientQueueSizePoller poller = start(fleet);
+
+		measure("fleet", clients, poller, true);
+
+		assertEquals(fleet.getSelectedClients(), countQueueSizeGauges());
+		assertEquals(FleetDispatcher.queueSize(SELECTED_EVERY),
+				gaugeValue(ClientQueueSizeMetrics.metricName(FleetDispatcher.SELECTED_PREFIX + SELECTED_EVERY)));
+	}
+
+	@Test
+	void poll_slowApi() throws Exception {
+		final int clients = 100_000;
+		final FleetDispatcher fleet = FleetDispatcher.synthetic(clients, SELECTED_EVERY);
+		fleet.setLatencyMillis(20);
+		final ClientQueueSizePoller poller = start(fleet);
+
+		measure("slow-api", clients, poller, true);
+
+		assertEquals(fleet.getSelectedClients(), countQueueSizeGauges());
+	}
+
+	@Test
+	void poll_failingApi_metricsAreKept() throws Exception {
+		final int clients = 100_000;
+		final FleetDispatcher fleet = FleetDispatcher.synthetic(clients, SELECTED_EVERY);
+		final ClientQueueSizePoller poller = start(fleet);
+		assertTrue(poller.poll().get(5, TimeUnit.MINUTES));
+
+		fleet.setFailEvery(50);
+		measure("failing-api", clients, poller, false);
+
+		assertEquals(fleet.getSelectedClients(), countQueueSizeGauges());
+	}
+
+	private @NotNull ClientQueueSizePoller start(final @NotNull FleetDispatcher fleet) throws IOException {
+		server.setDispatcher(fleet);
+		server.start();
+		final Properties properties = new Properties();
+		properties.setProperty("api.urls", server.url(FleetDispatcher.CLIENTS_PATH).toString());
+		properties.setProperty("api.timeout-seconds", "60");
+		properties.setProperty("clients.ids", "");
+		properties.setProperty("clients.prefixes", FleetDispatcher.SELECTED_PREFIX);
+		properties.setProperty("clients.max", String.valueOf(fleet.getSelectedClients()));
+		properties.setProperty("nodes.failure-threshold", String.valueOf(Integer.MAX_VALUE));
+		final ClientMetricConfiguration configuration = new ClientMetricConfiguration(properties);
+		httpClient = HelloClientMetricMain.createHttpClient(configuration);
+		final ClientQueueSizeMetrics metrics = new ClientQueueSizeMetrics(
+				metricRegistry, configuration.getClientIds(), configuration.getMaxClients(), false);
+		return new ClientQueueSizePoller(configuration,
+				metrics,
+				new TopQueueSizes(configuration.getTopSize(), metricRegistry),
+				new QueueSizeDistribution(metricRegistry),
+				httpClient,
+				metricRegistry);
+	}
+
+	/**
+	 * Runs a warm-up poll and the measured poll cycles, each followed by a garbage collection to read the retained heap.
+	 */
+	private void measure(
+			final @NotNull String scenario,
+			final int clients,
+			final @NotNull ClientQueueSizePoller poller,
+			final boolean expectedSuccess) throws Exception {
+
+		assertEquals(expectedSuccess, poller.poll().get(5, TimeUnit.MINUTES));
+		long firstRetainedHeap = 0;
+		long lastRetainedHeap = 0;
+		for (int cycle = 1; cycle <= MEASURED_CYCLES; cycle++) {
+			final long allocatedBefore = allocatedHeap.bytes();
+			final long start = System.nanoTime();
+			final boolean success = poller.poll().get(5, TimeUnit.MINUTES);
+			final long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			final long allocated = allocatedHeap.bytes() - allocatedBefore;
+			final long retainedHeap = retainedHeapBytes();
+			report(scenario, clients, cycle, durationMillis, allocated, retainedHeap);
+			assertEquals(expectedSuccess, success);
+			final long maxAllocated = MAX_ALLOCATED_BYTES + MAX_ALLOCATED_BYTES_PER_CLIENT * clients;
+			assertTrue(allocated <= maxAllocated,
+					scenario + " cycle " + cycle + " allocated " + allocated + " bytes, at most " + maxAllocated);
+			if (cycle == 1) {
+				firstRetainedHeap = retainedHeap;
+			}
+			lastRetainedHeap = retainedHeap;
+		}
+		final long growth = lastRetainedHeap - firstRetainedHeap;
+		assertTrue(growth <= MAX_RETAINED_HEAP_GROWTH_BYTES,
+				scenario + " retained heap grew by " + growth + " bytes, at most " + MAX_RETAINED_HEAP_GROWTH_BYTES);
+	}
+
+	private static void report(
+			final @NotNull String scenario,
+			final int clients,
+			final int cycle,
+			final long durationMillis,
+			final long allocatedBytes,
+			final long retainedHeapBytes) throws IOException {
+
+		final String line = String.join(",",
+				scenario,
+				String.valueOf(clients),
+				String.valueOf(cycle),
+				String.valueOf(durationMillis),
+				String.valueOf(allocatedBytes),
+				String.valueOf(retainedHeapBytes));
+		System.out.printf("%s: %d clients, cycle %d: %d ms, %.1f MiB allocated, %.1f MiB retained heap%n",
+				scenario,
+				clients,
+				cycle,
+				durationMillis,
+				allocatedBytes / (1024.0 * 1024),
+				retainedHeapBytes / (1024.0 * 1024));
+		final String reportFile = System.getProperty("loadTest.reportFile");
+		if (reportFile == null) {
+			return;
+		}
+		final Path path = Paths.get(reportFile);
+		Files.createDirectories(path.toAbsolutePath().getParent());
+		final boolean header = !Files.exists(path);
+		try (final Writer writer = Files.newBufferedWriter(path,
+				StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND)) {
+			if (header) {
+				writer.write("scenario,clients,cycle,duration_millis,allocated_bytes,retained_heap_bytes\n");
+			}
+			writer.write(line);
+			writer.write('\n');
+		}
+	}
+
+	private static long retainedHeapBytes() {
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		memory.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	private int countQueueSizeGauges() {
+		return metricRegistry.getGauges((name, metric) -> name.endsWith(".message-queue-size") &&
+				!name.startsWith(TopQueueSizes.METRIC_PREFIX)).size();
+	}
+
+	private @Nullable Object gaugeValue(final @NotNull String name) {
+		final Gauge<?> gauge = metricRegistry.getGauges().get(name);
+		return gauge == null ? null : gauge.getValue();
+	}
+
+	/**
+	 * Sums the heap allocated by all threads, including the threads that ended, as the heap in use plus the bytes
+	 * every garbage collection since the start reclaimed.
+	 */
+	private static final class AllocatedHeap implements NotificationListener, AutoCloseable {
+
+		private final @NotNull List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		private final @NotNull Set<String> heapPools = new HashSet<>();
+		private final @NotNull AtomicLong reclaimedBytes = new AtomicLong();
+		private final @NotNull AtomicLong notifiedCollections = new AtomicLong();
+		private final long startCollections;
+
+		AllocatedHeap() {
+			for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					heapPools.add(pool.getName());
+				}
+			}
+			for (final GarbageCollectorMXBean collector : collectors) {
+				((NotificationEmitter) collector).addNotificationListener(this, null, null);
+			}
+			startCollections = collections();
+		}
+
+		@Override
+		public void handleNotification(final @NotNull Notification notification, final @Nullable Object handback) {
+			if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+				return;
+			}
+			final GcInfo gcInfo = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData())
+					.getGcInfo();
+			long reclaimed = 0;
+			final Map<String, MemoryUsage> after = gcInfo.getMemoryUsageAfterGc();
+			for (final Map.Entry<String, MemoryUsage> before : gcInfo.getMemoryUsageBeforeGc().entrySet()) {
+				if (heapPools.contains(before.getKey())) {
+					reclaimed += before.getValue().getUsed() - after.get(before.getKey()).getUsed();
+				}
+			}
+			reclaimedBytes.addAndGet(reclaimed);
+			notifiedCollections.incrementAndGet();
+		}
+
+		/**
+		 * @return the bytes allocated on the heap since this instance was created.
+		 */
+		long bytes() throws InterruptedException {
+			// the notifications are sent asynchronously, so wait until the collections up to now are counted
+			final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (notifiedCollections.get() < collections() - startCollections && System.nanoTime() - deadline < 0) {
+				Thread.sleep(10);
+			}
+			return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() + reclaimedBytes.get();
+		}
+
+		private long collections() {
+			long collections = 0;
+			for (final GarbageCollectorMXBean collector : collectors) {
+				collections += Math.max(0, collector.getCollectionCount());
+			}
+			return collections;
+		}
+
+		@Override
+		public void close() {
+			for (final GarbageCollectorMXBean collector : collectors) {
+				try {
+					((NotificationEmitter) collector).removeNotificationListener(this);
+				} catch (final ListenerNotFoundException ignored) {
+				}
+			}
+		}
+	}
+}
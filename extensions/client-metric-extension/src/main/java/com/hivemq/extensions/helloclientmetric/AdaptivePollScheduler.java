@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Schedules the polls of a {@link QueueSizePoller} with an interval that adapts to the REST API and the
+ * message queue sizes.
+ * <p>
+ * The next poll is only scheduled when the previous poll completed:
+ * <ul>
+ *     <li>after a failed or slow poll the interval is doubled, up to the maximum interval,</li>
+ *     <li>after a poll that changed message queue sizes the interval is halved, down to the minimum interval,</li>
+ *     <li>otherwise the interval returns to the configured poll interval.</li>
+ * </ul>
+ * With event tracking the metrics already follow the clients between polls, so the interval is not shortened.
+ * Every delay is randomized by up to 20 percent, so the nodes of a cluster do not poll in lockstep.
+ * <p>
+ * The first poll can be given a time budget. If it takes longer, the regular schedule continues as after a slow
+ * poll, while the poll itself still completes and updates the metrics.
+ * <p>
+ * A poller that throws instead of returning a future counts as a failed poll, the next poll is scheduled in any case.
+ *
+ * @since 4.46.0
+ */
+public class AdaptivePollScheduler {
+
+	static final @NotNull String METRIC_PREFIX = "com.hivemq.extensions.client-metric.poll";
+
+	private static final @NotNull Logger log = LoggerFactory.getLogger(AdaptivePollScheduler.class);
+	private static final double JITTER = 0.2;
+
+	private final @NotNull QueueSizePoller poller;
+	private final @NotNull ClientQueueSizeMetrics queueSizeMetrics;
+	private final @NotNull ScheduledExecutorService executorService;
+	private final long baseIntervalMillis;
+	private final long minIntervalMillis;
+	private final long maxIntervalMillis;
+	private final long slowPollMillis;
+	private final boolean shortenOnChange;
+	private final @NotNull Timer latency;
+	private final @NotNull Counter failures;
+
+	private volatile long intervalMillis;
+	private volatile long firstPollBudgetMillis;
+	private volatile boolean stopped;
+	private @Nullable ScheduledFuture<?> scheduledPoll;
+
+	public AdaptivePollScheduler(
+			final @NotNull QueueSizePoller poller,
+			final @NotNull ClientQueueSizeMetrics queueSizeMetrics,
+			final @NotNull ClientMetricConfiguration configuration,
+			final @NotNull ScheduledExecutorService executorService,
+			final @NotNull MetricRegistry metricRegistry) {
+
+		this.poller = poller;
+		this.queueSizeMetrics = queueSizeMetrics;
+		this.executorService = executorService;
+		minIntervalMillis = TimeUnit.SECONDS.toMillis(configuration.getMinPollIntervalSeconds());
+		maxIntervalMillis = Math.max(minIntervalMillis,
+				TimeUnit.SECONDS.toMillis(configuration.getMaxPollIntervalSeconds()));
+		baseIntervalMillis = Math.min(maxIntervalMillis,
+				Math.max(minIntervalMillis, TimeUnit.SECONDS.toMillis(configuration.getPollIntervalSeconds())));
+		slowPollMillis = configuration.getSlowPollMillis();
+		shortenOnChange = !configuration.isEventTracking();
+		intervalMillis = baseIntervalMillis;
+		latency = metricRegistry.timer(METRIC_PREFIX + ".latency");
+		failures = metricRegistry.counter(METRIC_PREFIX + ".failures");
+		metricRegistry.gauge(METRIC_PREFIX + ".interval-millis", () -> () -> intervalMillis);
+	}
+
+	public static void removeMetrics(final @NotNull MetricRegistry metricRegistry) {
+		metricRegistry.removeMatching((name, metric) -> name.startsWith(METRIC_PREFIX + "."));
+	}
+
+	public synchronized void start(final long initialDelayMillis) {
+		schedule(initialDelayMillis);
+	}
+
+	/**
+	 * Starts with a first poll that completes as failed if it takes longer than the budget.
+	 */
+	public synchronized void start(final long initialDelayMillis, final long firstPollBudgetMillis) {
+		this.firstPollBudgetMillis = firstPollBudgetMillis;
+		schedule(initialDelayMillis);
+	}
+
+	public synchronized void stop() {
+		stopped = true;
+		if (scheduledPoll != null) {
+			scheduledPoll.cancel(false);
+		}
+	}
+
+	private synchronized void schedule(final long delayMillis) {
+		if (stopped) {
+			return;
+		}
+		scheduledPoll = executorService.schedule(this::poll, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void poll() {
+		queueSizeMetrics.takeChangedCount();
+		final long start = System.nanoTime();
+		final long budgetMillis = firstPollBudgetMillis;
+		CompletableFuture<Boolean> result;
+		try {
+			result = poller.poll();
+		} catch (final RuntimeException e) {
+			result = CompletableFuture.failedFuture(e);
+		}
+		if (budgetMillis > 0) {
+			firstPollBudgetMillis = 0;
+			result = result.copy().orTimeout(budgetMillis, TimeUnit.MILLISECONDS);
+		}
+		result.whenComplete((success, throwable) -> {
+			try {
+				completed(start, budgetMillis, success, throwable);
+			} finally {
+				schedule(jitter(intervalMillis));
+			}
+		});
+	}
+
+	private void completed(
+			final long start,
+			final long budgetMillis,
+			final @Nullable Boolean success,
+			final @Nullable Throwable throwable) {
+
+		final long durationNanos = System.nanoTime() - start;
+		latency.update(durationNanos, TimeUnit.NANOSECONDS);
+		final boolean failed = throwable != null || !Boolean.TRUE.equals(success);
+		if (failed) {
+			failures.inc();
+		}
+		if (throwable instanceof TimeoutException) {
+			log.warn("The first poll did not complete within {} ms, continuing with the regular schedule.",
+					budgetMillis);
+		} else if (throwable != null) {
+			log.error("The poll failed, trying again after the next interval.", throwable);
+		}
+		final long next = nextInterval(
+				intervalMillis,
+				failed || TimeUnit.NANOSECONDS.toMillis(durationNanos) > slowPollMillis,
+				queueSizeMetrics.takeChangedCount() > 0);
+		if (next != intervalMillis) {
+			log.debug("Changing the poll interval from {} ms to {} ms", intervalMillis, next);
+		}
+		intervalMillis = next;
+	}
+
+	private long nextInterval(final long interval, final boolean backOff, final boolean changing) {
+		if (backOff) {
+			return Math.min(maxIntervalMillis, interval * 2);
+		}
+		if (changing && shortenOnChange) {
+			return Math.max(minIntervalMillis, interval / 2);
+		}
+		return baseIntervalMillis;
+	}
+
+	private static long jitter(final long intervalMillis) {
+		final double factor = 1 + ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+		return Math.max(1, (long) (intervalMillis * factor));
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+/**
+ * A circuit breaker for the polls of one node.
+ * <p>
+ * After the configured number of consecutive failed polls the circuit opens and the node is skipped.
+ * When the open time has passed, a single trial poll is allowed: if it succeeds the circuit closes,
+ * if it fails the circuit opens again. The polls of a node never overlap, so the state is only read concurrently.
+ *
+ * @since 4.46.0
+ */
+public class CircuitBreaker {
+
+	private final int failureThreshold;
+	private final long openNanos;
+	private volatile int consecutiveFailures;
+	private volatile boolean open;
+	private volatile long openUntilNanos;
+
+	public CircuitBreaker(final int failureThreshold, final long openNanos) {
+		this.failureThreshold = failureThreshold;
+		this.openNanos = openNanos;
+	}
+
+	/**
+	 * @return whether the node may be polled, {@code true} for the trial poll after the open time.
+	 */
+	public boolean allowRequest(final long nowNanos) {
+		return !open || nowNanos - openUntilNanos >= 0;
+	}
+
+	public boolean isOpen(final long nowNanos) {
+		return !allowRequest(nowNanos);
+	}
+
+	public void onSuccess() {
+		consecutiveFailures = 0;
+		open = false;
+	}
+
+	public void onFailure(final long nowNanos) {
+		final int failures = consecutiveFailures + 1;
+		consecutiveFailures = failures;
+		if (open || failures >= failureThreshold) {
+			openUntilNanos = nowNanos + openNanos;
+			open = true;
+		}
+	}
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The configuration of the extension, read from the file {@code client-metric.properties} in the extension folder.
+ * <p>
+ * Every property is optional, a missing file or an invalid value falls back to the default value.
+ *
+ * @since 4.46.0
+ */
+public class ClientMetricConfiguration {
+
+	static final @NotNull String CONFIGURATION_FILE_NAME = "client-metric.properties";
+	static final @NotNull String SOURCE_REST_API = "rest-api";
+	static final @NotNull String SOURCE_CLIENT_SERVICE = "client-service";
+
+	private static final @NotNull Logger log = LoggerFactory.getLogger(ClientMetricConfiguration.class);
+	private static final @NotNull String DEFAULT_API_URL = "http://localhost:8888/api/v1/mqtt/clients";
+	private static final int DEFAULT_PAGE_SIZE = 2500;
+	private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+	private static final int DEFAULT_MAX_DETAIL_REQUESTS = 1000;
+	private static final int DEFAULT_NODE_FAILURE_THRESHOLD = 3;
+	private static final long DEFAULT_NODE_OPEN_SECONDS = 60;
+	private static final @NotNull String MERGE_MAX = "max";
+	private static final @NotNull String MERGE_SUM = "sum";
+	private static final long DEFAULT_TIMEOUT_SECONDS = 10;
+	private static final long DEFAULT_INITIAL_DELAY_SECONDS = 120;
+	private static final long DEFAULT_POLL_INTERVAL_SECONDS = 15;
+	private static final long DEFAULT_RECONCILE_INTERVAL_SECONDS = 300;
+	private static final long DEFAULT_MIN_POLL_INTERVAL_SECONDS = 5;
+	private static final long DEFAULT_MAX_POLL_INTERVAL_SECONDS = 900;
+	private static final long DEFAULT_SLOW_POLL_MILLIS = 5000;
+	private static final int DEFAULT_MAX_CLIENTS = 1000;
+	private static final @NotNull String DEFAULT_CLIENT_IDS = "client1";
+	private static final int DEFAULT_TOP_SIZE = 10;
+	private static final int DEFAULT_SWEEP_REQUESTS_PER_POLL = 1000;
+	private static final int DEFAULT_CLIENT_SERVICE_BATCH_SIZE = 1000;
+	private static final long DEFAULT_CLIENT_SERVICE_PAUSE_MILLIS = 10;
+	private static final int DEFAULT_HISTORY_RECORDS = 1 << 20;
+	private static final long DEFAULT_SNAPSHOT_MAX_AGE_SECONDS = 600;
+	private static final long DEFAULT_WARM_START_BUDGET_MILLIS = 5000;
+
+	private final @NotNull String source;
+	private final @NotNull List<String> apiUrls;
+	private final int pageSize;
+	private final int maxConcurrentRequests;
+	private final int maxDetailRequests;
+	private final long timeoutSeconds;
+	private final boolean nodeMergeSum;
+	private final int nodeFailureThreshold;
+	private final long nodeOpenSeconds;
+	private final long initialDelaySeconds;
+	private final long pollIntervalSeconds;
+	private final long reconcileIntervalSeconds;
+	private final long minPollIntervalSeconds;
+	private final long maxPollIntervalSeconds;
+	private final long slowPollMillis;
+	private final boolean eventTracking;
+	private final int clientServiceBatchSize;
+	private final long clientServicePauseMillis;
+	private final int maxClients;
+	private final int topSize;
+	private final boolean sweep;
+	private final int sweepRequestsPerPoll;
+	private final boolean offHeap;
+	private final boolean history;
+	private final int historyRecords;
+	private final boolean snapshot;
+	private final long snapshotMaxAgeSeconds;
+	private final long warmStartBudgetMillis;
+	private final @NotNull Set<String> clientIds;
+	private final @NotNull List<String> clientIdPrefixes;
+
+	ClientMetricConfiguration(final @NotNull Properties properties) {
+		final String configuredSource = properties.getProperty("source", SOURCE_REST_API).trim();
+		if (SOURCE_REST_API.equals(configuredSource) || SOURCE_CLIENT_SERVICE.equals(configuredSource)) {
+			source = configuredSource;
+		} else {
+			log.warn("Ignoring invalid value '{}' of property source, using the default value {}.",
+					configuredSource, SOURCE_REST_API);
+			source = SOURCE_REST_API;
+		}
+		final List<String> configuredApiUrls = readList(
+				properties.getProperty("api.urls", properties.getProperty("api.url", DEFAULT_API_URL)));
+		apiUrls = Collections.unmodifiableList(
+				configuredApiUrls.isEmpty() ? List.of(DEFAULT_API_URL) : configuredApiUrls);
+		final String merge = properties.getProperty("nodes.merge", MERGE_MAX).trim();
+		if (!MERGE_MAX.equals(merge) && !MERGE_SUM.equals(merge)) {
+			log.warn("Ignoring invalid value '{}' of property nodes.merge, using the default value {}.",
+					merge, MERGE_MAX);
+		}
+		nodeMergeSum = MERGE_SUM.equals(merge);
+		nodeFailureThreshold =
+				(int) readPositiveLong(properties, "nodes.failure-threshold", DEFAULT_NODE_FAILURE_THRESHOLD);
+		nodeOpenSeconds = readPositiveLong(properties, "nodes.open-seconds", DEFAULT_NODE_OPEN_SECONDS);
+		pageSize = (int) readPositiveLong(properties, "api.page-size", DEFAULT_PAGE_SIZE);
+		maxConcurrentRequests =
+				(int) readPositiveLong(properties, "api.max-concurrent-requests", DEFAULT_MAX_CONCURRENT_REQUESTS);
+		maxDetailRequests =
+				(int) readPositiveLong(properties, "api.max-detail-requests", DEFAULT_MAX_DETAIL_REQUESTS);
+		timeoutSeconds = readPositiveLong(properties, "api.timeout-seconds", DEFAULT_TIMEOUT_SECONDS);
+		initialDelaySeconds = readNonNegativeLong(properties, "poll.initial-delay-seconds", DEFAULT_INITIAL_DELAY_SECONDS);
+		pollIntervalSeconds = readPositiveLong(properties, "poll.interval-seconds", DEFAULT_POLL_INTERVAL_SECONDS);
+		reconcileIntervalSeconds =
+				readPositiveLong(properties, "poll.reconcile-interval-seconds", DEFAULT_RECONCILE_INTERVAL_SECONDS);
+		minPollIntervalSeconds =
+				readPositiveLong(properties, "poll.min-interval-seconds", DEFAULT_MIN_POLL_INTERVAL_SECONDS);
+		maxPollIntervalSeconds =
+				readPositiveLong(properties, "poll.max-interval-seconds", DEFAULT_MAX_POLL_INTERVAL_SECONDS);
+		slowPollMillis = readPositiveLong(properties, "poll.slow-millis", DEFAULT_SLOW_POLL_MILLIS);
+		final boolean eventsEnabled = Boolean.parseBoolean(properties.getProperty("events.enabled", "false").trim());
+		if (!eventsEnabled && SOURCE_CLIENT_SERVICE.equals(source)) {
+			log.warn("The source {} has no message queue sizes, events.enabled=false is ignored.", source);
+		}
+		eventTracking = eventsEnabled || SOURCE_CLIENT_SERVICE.equals(source);
+		clientServiceBatchSize = (int) readPositiveLong(
+				properties, "client-service.batch-size", DEFAULT_CLIENT_SERVICE_BATCH_SIZE);
+		clientServicePauseMillis =
+				readPositiveLong(properties, "client-service.pause-millis", DEFAULT_CLIENT_SERVICE_PAUSE_MILLIS);
+		maxClients = (int) readPositiveLong(properties, "clients.max", DEFAULT_MAX_CLIENTS);
+		offHeap = Boolean.parseBoolean(properties.getProperty("clients.off-heap", "false").trim());
+		topSize = (int) readPositiveLong(properties, "top.size", DEFAULT_TOP_SIZE);
+		sweep = Boolean.parseBoolean(properties.getProperty("sweep.enabled", "false").trim());
+		sweepRequestsPerPoll =
+				(int) readPositiveLong(properties, "sweep.requests-per-poll", DEFAULT_SWEEP_REQUESTS_PER_POLL);
+		history = Boolean.parseBoolean(properties.getProperty("history.enabled", "false").trim());
+		final long configuredHistoryRecords = readPositiveLong(properties, "history.records", DEFAULT_HISTORY_RECORDS);
+		if (configuredHistoryRecords > QueueSizeHistory.MAX_RECORDS) {
+			log.warn("Limiting property history.records to {}.", QueueSizeHistory.MAX_RECORDS);
+		}
+		historyRecords = (int) Math.min(configuredHistoryRecords, QueueSizeHistory.MAX_RECORDS);
+		snapshot = Boolean.parseBoolean(properties.getProperty("snapshot.enabled", "true").trim());
+		snapshotMaxAgeSeconds =
+				readPositiveLong(properties, "snapshot.max-age-seconds", DEFAULT_SNAPSHOT_MAX_AGE_SECONDS);
+		warmStartBudgetMillis =
+				readPositiveLong(properties, "poll.warm-start-budget-millis", DEFAULT_WARM_START_BUDGET_MILLIS);
+		clientIds = Collections.unmodifiableSet(
+				new LinkedHashSet<>(readList(properties.getProperty("clients.ids", DEFAULT_CLIENT_IDS))));
+		clientIdPrefixes = Collections.unmodifiableList(readList(properties.getProperty("clients.prefixes", "")));
+	}
+
+	public static @NotNull ClientMetricConfiguration read(final @NotNull File extensionHomeFolder) {
+		final File configurationFile = new File(extensionHomeFolder, CONFIGURATION_FILE_NAME);
+		final Properties properties = new Properties();
+		if (!configurationFile.isFile()) {
+			log.info("Configuration file {} not found, using the default configuration.",
+					configurationFile.getAbsolutePath());
+			return new ClientMetricConfiguration(properties);
+		}
+		try (final Reader reader = Files.newBufferedReader(configurationFile.toPath(), StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		} catch (final IOException e) {
+			log.error("Could not read configuration file {}, using the default configuration.",
+					configurationFile.getAbsolutePath(), e);
+			properties.clear();
+		}
+		return new ClientMetricConfiguration(properties);
+	}
+
+	private static long readPositiveLong(
+			final @NotNull Properties properties,
+			final @NotNull String key,
+			final long defaultValue) {
+
+		return readLong(properties, key, defaultValue, 1);
+	}
+
+	private static long readNonNegativeLong(
+			final @NotNull Properties properties,
+			final @NotNull String key,
+			final long defaultValue) {
+
+		return readLong(properties, key, defaultValue, 0);
+	}
+
+	private static long readLong(
+			final @NotNull Properties properties,
+			final @NotNull String key,
+			final long defaultValue,
+			final long minimum) {
+
+		final String value = properties.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			final long parsed = Long.parseLong(value.trim());
+			if (parsed >= minimum && parsed <= Integer.MAX_VALUE) {
+				return parsed;
+			}
+		} catch (final NumberFormatException ignored) {
+		}
+		log.warn("Ignoring invalid value '{}' of property {}, using the default value {}.", value, key, defaultValue);
+		return defaultValue;
+	}
+
+	private static @NotNull List<String> readList(final @NotNull String value) {
+		final List<String> list = new ArrayList<>();
+		for (final String element : value.split(",")) {
+			final String trimmed = element.trim();
+			if (!trimmed.isEmpty()) {
+				list.add(trimmed);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * @return whether the clients are learned from the HiveMQ REST API or by iterating all clients in process.
+	 */
+	public boolean isClientServiceSource() {
+		return SOURCE_CLIENT_SERVICE.equals(source);
+	}
+
+	/**
+	 * @return the number of clients handled at once while iterating all clients in process.
+	 */
+	public int getClientServiceBatchSize() {
+		return clientServiceBatchSize;
+	}
+
+	/**
+	 * @return the pause between two batches of clients while iterating all clients in process.
+	 */
+	public long getClientServicePauseMillis() {
+		return clientServicePauseMillis;
+	}
+
+	/**
+	 * @return the URLs of the client listing of the HiveMQ REST API of every node that is polled.
+	 */
+	public @NotNull List<String> getApiUrls() {
+		return apiUrls;
+	}
+
+	/**
+	 * @return whether the message queue sizes of a client on several nodes are summed up instead of taking the
+	 * maximum.
+	 */
+	public boolean isNodeMergeSum() {
+		return nodeMergeSum;
+	}
+
+	/**
+	 * @return the number of consecutive failed polls after which a node is skipped.
+	 */
+	public int getNodeFailureThreshold() {
+		return nodeFailureThreshold;
+	}
+
+	/**
+	 * @return the time a node is skipped after consecutive failed polls.
+	 */
+	public long getNodeOpenSeconds() {
+		return nodeOpenSeconds;
+	}
+
+	/**
+	 * @return the number of clients requested per page of the client listing.
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @return the maximum number of requests to the REST API of a node in flight at the same time.
+	 */
+	public int getMaxConcurrentRequests() {
+		return maxConcurrentRequests;
+	}
+
+	/**
+	 * @return the maximum number of message queue sizes of selected clients requested from a node per poll.
+	 */
+	public int getMaxDetailRequests() {
+		return maxDetailRequests;
+	}
+
+	/**
+	 * @return the time a single request to the REST API may take, including connecting and reading the response.
+	 */
+	public long getTimeoutSeconds() {
+		return timeoutSeconds;
+	}
+
+	public long getInitialDelaySeconds() {
+		return initialDelaySeconds;
+	}
+
+	/**
+	 * @return the interval between polls, {@link #getReconcileIntervalSeconds()} if event tracking is enabled.
+	 */
+	public long getPollIntervalSeconds() {
+		return eventTracking ? reconcileIntervalSeconds : pollIntervalSeconds;
+	}
+
+	public long getReconcileIntervalSeconds() {
+		return reconcileIntervalSeconds;
+	}
+
+	/**
+	 * @return the shortest interval between polls while message queue sizes change.
+	 */
+	public long getMinPollIntervalSeconds() {
+		return minPollIntervalSeconds;
+	}
+
+	/**
+	 * @return the longest interval between polls while the REST API fails or responds slowly.
+	 */
+	public long getMaxPollIntervalSeconds() {
+		return maxPollIntervalSeconds;
+	}
+
+	/**
+	 * @return the duration after which a poll counts as slow.
+	 */
+	public long getSlowPollMillis() {
+		return slowPollMillis;
+	}
+
+	/**
+	 * @return whether the message queue sizes are estimated from the PUBLISH, PUBACK and PUBCOMP packets
+	 * between polls. The estimates only count the QoS 1 and QoS 2 PUBLISHes in flight, not the queued messages the
+	 * REST API reports, so this is off by default unless the source is the ClientService.
+	 */
+	public boolean isEventTracking() {
+		return eventTracking;
+	}
+
+	/**
+	 * @return the maximum number of clients a metric is registered for.
+	 */
+	public int getMaxClients() {
+		return maxClients;
+	}
+
+	/**
+	 * @return whether the message queue sizes are stored in a direct buffer outside of the heap.
+	 */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * @return the number of clients with the largest message queue sizes that are exposed as metrics.
+	 */
+	public int getTopSize() {
+		return topSize;
+	}
+
+	/**
+	 * @return whether the clients that are not selected are swept for the rank and distribution metrics.
+	 */
+	public boolean isSweep() {
+		return sweep;
+	}
+
+	/**
+	 * @return the maximum number of clients that are not selected whose message queue sizes are requested from a
+	 * node per poll, approximately.
+	 */
+	public int getSweepRequestsPerPoll() {
+		return sweepRequestsPerPoll;
+	}
+
+	/**
+	 * @return whether the message queue sizes of every poll are appended to the history file.
+	 */
+	public boolean isHistory() {
+		return history;
+	}
+
+	/**
+	 * @return the number of records the history file holds before the oldest records are overwritten.
+	 */
+	public int getHistoryRecords() {
+		return historyRecords;
+	}
+
+	/**
+	 * @return whether the message queue sizes are written to a snapshot when the extension stops
+	 * and restored from it when the extension starts.
+	 */
+	public boolean isSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @return the maximum age of a snapshot that is restored.
+	 */
+	public long getSnapshotMaxAgeSeconds() {
+		return snapshotMaxAgeSeconds;
+	}
+
+	/**
+	 * @return the time the immediate first poll after restoring a snapshot may take before the regular schedule
+	 * continues.
+	 */
+	public long getWarmStartBudgetMillis() {
+		return warmStartBudgetMillis;
+	}
+
+	/**
+	 * @return the Client IDs a metric is always registered for.
+	 */
+	public @NotNull Set<String> getClientIds() {
+		return clientIds;
+	}
+
+	/**
+	 * @return the Client ID prefixes, a metric is registered for every listed client with one of the prefixes.
+	 */
+	public @NotNull List<String> getClientIdPrefixes() {
+		return clientIdPrefixes;
+	}
+
+	public boolean isSelected(final @NotNull String clientId) {
+		if (clientIds.contains(clientId)) {
+			return true;
+		}
+		for (int i = 0; i < clientIdPrefixes.size(); i++) {
+			if (clientId.startsWith(clientIdPrefixes.get(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The message queue sizes of the selected clients, each exposed as a metric named
+ * {@code com.hivemq.<Client ID>.message-queue-size}.
+ * <p>
+ * If the values are not message queue sizes, but the PUBLISHes in flight to the clients, the metrics are named
+ * {@code com.hivemq.<Client ID>.inflight} instead, so they are not mistaken for message queue sizes.
+ * <p>
+ * The metrics of the configured Client IDs are registered up front, the metrics of clients selected by prefix are
+ * registered when the client shows up and removed when it disappears from the client listing.
+ * At most the configured maximum number of metrics is registered.
+ * <p>
+ * The values are kept in a {@link ClientQueueSizeStore}, the metric of a client reads the slot of the client.
+ * Updates only write the slot while it still belongs to the client, so an update racing with the removal of the
+ * client never changes the metric of the client that gets the slot next.
+ *
+ * @since 4.46.0
+ */
+public class ClientQueueSizeMetrics {
+
+	static final @NotNull String MESSAGE_QUEUE_SIZE = "message-queue-size";
+	static final @NotNull String INFLIGHT = "inflight";
+
+	private final @NotNull MetricRegistry metricRegistry;
+	private final @NotNull String metricSuffix;
+	private final @NotNull Set<String> permanentClientIds;
+	private final int maxClients;
+	private final @NotNull ClientQueueSizeStore store;
+	private final @NotNull LongAdder changedCount = new LongAdder();
+
+	public ClientQueueSizeMetrics(
+			final @NotNull MetricRegistry metricRegistry,
+			final @NotNull Set<String> permanentClientIds,
+			final int maxClients,
+			final boolean offHeap) {
+
+		this(metricRegistry, permanentClientIds, maxClients, offHeap, MESSAGE_QUEUE_SIZE);
+	}
+
+	/**
+	 * @param metricSuffix the last part of the metric names, {@link #MESSAGE_QUEUE_SIZE} or {@link #INFLIGHT}.
+	 */
+	public ClientQueueSizeMetrics(
+			final @NotNull MetricRegistry metricRegistry,
+			final @NotNull Set<String> permanentClientIds,
+			final int maxClients,
+			final boolean offHeap,
+			final @NotNull String metricSuffix) {
+
+		this.metricRegistry = metricRegistry;
+		this.metricSuffix = metricSuffix;
+		this.permanentClientIds = permanentClientIds;
+		this.maxClients = maxClients;
+		store = new ClientQueueSizeStore(maxClients + permanentClientIds.size(), offHeap);
+		for (final String clientId : permanentClientIds) {
+			register(clientId);
+		}
+	}
+
+	public static @NotNull String metricName(final @NotNull String clientId) {
+		return metricName(clientId, MESSAGE_QUEUE_SIZE);
+	}
+
+	public static @NotNull String metricName(final @NotNull String clientId, final @NotNull String metricSuffix) {
+		return "com.hivemq." + clientId + "." + metricSuffix;
+	}
+
+	/**
+	 * Registers the metric of the client if it is not registered yet.
+	 *
+	 * @return {@code false} if the metric is not registered because the maximum number of metrics is reached.
+	 */
+	public boolean register(final @NotNull String clientId) {
+		return registerSlot(clientId) >= 0;
+	}
+
+	private synchronized int registerSlot(final @NotNull String clientId) {
+		int slot = store.slot(clientId);
+		if (slot >= 0) {
+			return slot;
+		}
+		if (store.size() >= maxClients && !permanentClientIds.contains(clientId)) {
+			return -1;
+		}
+		slot = store.allocate(clientId);
+		if (slot >= 0) {
+			final int registeredSlot = slot;
+			metricRegistry.gauge(metricName(clientId, metricSuffix), () -> () -> store.get(registeredSlot));
+		}
+		return slot;
+	}
+
+	private synchronized void unregister(final @NotNull String clientId) {
+		metricRegistry.remove(metricName(clientId, metricSuffix));
+		store.release(clientId);
+	}
+
+	public void update(final @NotNull String clientId, final long queueSize) {
+		final int slot = store.slot(clientId);
+		if (slot < 0) {
+			return;
+		}
+		final long previous = store.getAndSet(slot, clientId, queueSize);
+		if (previous >= 0 && previous != queueSize) {
+			changedCount.increment();
+		}
+	}
+
+	/**
+	 * @return the number of updates that changed a message queue size since the last call.
+	 */
+	public long takeChangedCount() {
+		return changedCount.sumThenReset();
+	}
+
+	/**
+	 * Adds the delta to the message queue size of the client, registering its metric if necessary.
+	 * The message queue size does not drop below 0.
+	 */
+	public void add(final @NotNull String clientId, final long delta) {
+		while (true) {
+			int slot = store.slot(clientId);
+			if (slot < 0 && (slot = registerSlot(clientId)) < 0) {
+				return;
+			}
+			// the slot was released in the meantime, so the client is registered again
+			if (store.addNonNegative(slot, clientId, delta)) {
+				return;
+			}
+		}
+	}
+
+	public long get(final @NotNull String clientId) {
+		final int slot = store.slot(clientId);
+		return slot < 0 ? 0 : store.get(slot);
+	}
+
+	public boolean isRegistered(final @NotNull String clientId) {
+		return store.slot(clientId) >= 0;
+	}
+
+	public int size() {
+		return store.size();
+	}
+
+	/**
+	 * @return the store of the message queue sizes, to read all registered clients by slot.
+	 */
+	public @NotNull ClientQueueSizeStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Removes the metrics of all clients that are not listed anymore.
+	 * The metrics of the configured Client IDs are kept and reset to 0.
+	 */
+	public void retainListed(final @NotNull Collection<String> listedClientIds) {
+		for (int slot = 0; slot < store.capacity(); slot++) {
+			final String clientId = store.clientId(slot);
+			if (clientId == null || listedClientIds.contains(clientId)) {
+				continue;
+			}
+			if (permanentClientIds.contains(clientId)) {
+				update(clientId, 0);
+			} else {
+				unregister(clientId);
+			}
+		}
+	}
+
+	public void removeAll() {
+		for (int slot = 0; slot < store.capacity(); slot++) {
+			final String clientId = store.clientId(slot);
+			if (clientId != null) {
+				unregister(clientId);
+			}
+		}
+	}
+}
@@ -0,0 +1,707 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Polls the message queue sizes of the selected clients from the HiveMQ REST API of one or more nodes.
+ * <p>
+ * A poll pages through the client listing of every node and keeps only the selected clients.
+ * If the listing already contains the message queue size of a client, it is taken from there,
+ * otherwise the details are requested for the selected clients only, so the number of requests per poll
+ * and the memory used by a poll depend on the number of selected clients and not on the number of all clients.
+ * The HiveMQ REST API has no request for the message queue sizes of many clients at once, so at most the configured
+ * number of details is requested per node and poll. If more selected clients need their details, the polls take
+ * turns in the order of the Client IDs, and a client keeps its previous message queue size until it is requested
+ * again. All nodes request the same clients in a poll, so the message queue sizes can be summed.
+ * The results of the nodes are merged per client, with the maximum or the sum of the message queue sizes.
+ * <p>
+ * All requests are asynchronous, the responses are handled by the threads of the HTTP client,
+ * so a slow REST API never blocks the thread that starts the poll. The nodes are polled in parallel,
+ * the number of concurrent requests is limited by the dispatcher of the HTTP client.
+ * Every node has a circuit breaker: after consecutive failed polls the node is skipped for a while,
+ * and while any node is skipped or failed, no metrics are removed.
+ * <p>
+ * The responses are parsed while they are streamed, only the Client IDs and message queue sizes are kept,
+ * so the memory used by a poll does not grow with the size of the pages.
+ * <p>
+ * If the sweep is enabled, the rank and distribution metrics cover all clients, not only the selected ones.
+ * As it adds requests to every poll, it is disabled by default. For the clients that are not
+ * selected, the poller sweeps the fleet: their Client IDs are hashed into as many partitions as needed to request
+ * at most about the configured number of message queue sizes per node and poll, and every poll requests the
+ * message queue sizes of the next partition. Only the largest message queue sizes and the buckets of the
+ * distribution of the sweep are kept. Once all partitions are swept, the sweep replaces the previous sweep and the
+ * next sweep starts. A partition is only counted if every node was listed and polled completely, otherwise it is
+ * swept again with the next poll. The metrics combine the selected clients of the last poll with the last complete
+ * sweep, or with the partitions swept so far until the first sweep is complete.
+ *
+ * @since 4.46.0
+ */
+public class ClientQueueSizePoller implements QueueSizePoller {
+
+	static final @NotNull String METRIC_PREFIX = "com.hivemq.extensions.client-metric.nodes";
+
+	private static final @NotNull Logger log = LoggerFactory.getLogger(ClientQueueSizePoller.class);
+	private static final long NO_QUEUE_SIZE = -1;
+	private static final int NOT_FOUND = 404;
+
+	private final @NotNull ClientMetricConfiguration configuration;
+	private final @NotNull ClientQueueSizeMetrics metrics;
+	private final @NotNull TopQueueSizes topQueueSizes;
+	private final @NotNull QueueSizeDistribution queueSizeDistribution;
+	private final @NotNull OkHttpClient httpClient;
+	private final @NotNull List<Node> nodes = new ArrayList<>();
+	private final @NotNull AtomicBoolean polling = new AtomicBoolean();
+	// only accessed by one poll at a time
+	private @Nullable Sweep sweep;
+	private @Nullable Sweep completedSweep;
+	private @Nullable String lastRequestedClientId;
+
+	public ClientQueueSizePoller(
+			final @NotNull ClientMetricConfiguration configuration,
+			final @NotNull ClientQueueSizeMetrics metrics,
+			final @NotNull TopQueueSizes topQueueSizes,
+			final @NotNull QueueSizeDistribution queueSizeDistribution,
+			final @NotNull OkHttpClient httpClient,
+			final @NotNull MetricRegistry metricRegistry) {
+
+		this.configuration = configuration;
+		this.metrics = metrics;
+		this.topQueueSizes = topQueueSizes;
+		this.queueSizeDistribution = queueSizeDistribution;
+		this.httpClient = httpClient;
+		final long openNanos = TimeUnit.SECONDS.toNanos(configuration.getNodeOpenSeconds());
+		for (final String apiUrl : configuration.getApiUrls()) {
+			nodes.add(new Node(HttpUrl.get(apiUrl), configuration.getNodeFailureThreshold(), openNanos));
+		}
+		metricRegistry.gauge(METRIC_PREFIX + ".count", () -> nodes::size);
+		metricRegistry.gauge(METRIC_PREFIX + ".open-circuits", () -> () -> {
+			final long now = System.nanoTime();
+			int open = 0;
+			for (final Node node : nodes) {
+				if (node.circuitBreaker.isOpen(now)) {
+					open++;
+				}
+			}
+			return open;
+		});
+	}
+
+	public static void removeMetrics(final @NotNull MetricRegistry metricRegistry) {
+		metricRegistry.removeMatching((name, metric) -> name.startsWith(METRIC_PREFIX + "."));
+	}
+
+	@Override
+	public @NotNull CompletableFuture<Boolean> poll() {
+		if (!polling.compareAndSet(false, true)) {
+			log.debug("Skipping poll, the previous poll is still running");
+			return CompletableFuture.completedFuture(false);
+		}
+		final long now = System.nanoTime();
+		final Sweep sweep = this.sweep;
+		final Listing[] listings = new Listing[nodes.size()];
+		final List<CompletableFuture<Void>> listingFutures = new ArrayList<>(nodes.size());
+		for (int i = 0; i < nodes.size(); i++) {
+			final Node node = nodes.get(i);
+			if (!node.circuitBreaker.allowRequest(now)) {
+				log.debug("Skipping node {}, its circuit is open", node.listUrl);
+				continue;
+			}
+			final Listing listing = sweep == null ?
+					new Listing(0, 0) :
+					new Listing(sweep.partitions, sweep.partition);
+			final int index = i;
+			final HttpUrl firstPage = node.listUrl.newBuilder()
+					.setQueryParameter("limit", String.valueOf(configuration.getPageSize()))
+					.build();
+			listingFutures.add(pollListing(firstPage, listing).handle((ignored, throwable) -> {
+				if (throwable == null) {
+					listings[index] = listing;
+				} else {
+					node.circuitBreaker.onFailure(System.nanoTime());
+					logUnexpected(throwable);
+				}
+				return null;
+			}));
+		}
+		return CompletableFuture.allOf(listingFutures.toArray(new CompletableFuture<?>[0]))
+				.thenCompose(ignored -> updateListed(listings))
+				.handle((success, throwable) -> {
+					polling.set(false);
+					if (throwable != null) {
+						logUnexpected(throwable);
+						return false;
+					}
+					log.debug("Updated message queue sizes of {} clients", metrics.size());
+					return success;
+				});
+	}
+
+	/**
+	 * Collects the selected clients of the listing and the clients of the swept partition.
+	 * The pages are requested one after the other, as every page links to the next one.
+	 */
+	private @NotNull CompletableFuture<Void> pollListing(
+			final @NotNull HttpUrl url,
+			final @NotNull Listing listing) {
+
+		return fetch(url, reader -> readPage(reader, listing)).thenCompose(next -> {
+			if (next == null) {
+				return CompletableFuture.completedFuture(null);
+			}
+			return pollListing(url.resolve(next), listing);
+		});
+	}
+
+	/**
+	 * Registers the metrics of the selected clients of all listings, requests the missing message queue sizes
+	 * from the nodes that listed the clients, and updates the metrics with the merged message queue sizes.
+	 * The metrics of clients that are not listed anymore are only removed if every node was listed completely.
+	 */
+	private @NotNull CompletableFuture<Boolean> updateListed(final @NotNull Listing[] listings) {
+		boolean complete = true;
+		final Map<String, Boolean> selectedClientIds = new HashMap<>();
+		for (final Listing listing : listings) {
+			if (listing == null) {
+				complete = false;
+				continue;
+			}
+			final ListedClients listed = listing.selected;
+			for (int i = 0; i < listed.size; i++) {
+				final String clientId = listed.clientIds[i];
+				selectedClientIds.putIfAbsent(clientId, Boolean.TRUE);
+			}
+		}
+		if (complete) {
+			metrics.retainListed(selectedClientIds.keySet());
+		}
+		boolean limitReached = false;
+		for (final Map.Entry<String, Boolean> entry : selectedClientIds.entrySet()) {
+			if (!metrics.register(entry.getKey())) {
+				entry.setValue(Boolean.FALSE);
+				limitReached = true;
+			}
+		}
+		if (limitReached) {
+			log.warn("More than {} clients are selected, no metrics are registered for the remaining clients.",
+					configuration.getMaxClients());
+		}
+
+		final Set<String> requestedClientIds = requestedClientIds(listings, selectedClientIds);
+		final List<CompletableFuture<Boolean>> nodeFutures = new ArrayList<>(listings.length);
+		for (int i = 0; i < listings.length; i++) {
+			if (listings[i] != null) {
+				nodeFutures.add(pollDetails(nodes.get(i), listings[i], requestedClientIds, complete));
+			}
+		}
+		final boolean listingsComplete = complete;
+		return CompletableFuture.allOf(nodeFutures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+			boolean success = listingsComplete;
+			for (final CompletableFuture<Boolean> nodeFuture : nodeFutures) {
+				success &= nodeFuture.join();
+			}
+			merge(listings, selectedClientIds, success);
+			return success;
+		});
+	}
+
+	/**
+	 * Chooses the registered clients whose message queue sizes are requested in this poll, at most the configured
+	 * number. The clients that did not get their turn in the last poll come first.
+	 */
+	private @NotNull Set<String> requestedClientIds(
+			final @NotNull Listing[] listings,
+			final @NotNull Map<String, Boolean> selectedClientIds) {
+
+		final Set<String> pendingClientIds = new HashSet<>();
+		for (final Listing listing : listings) {
+			if (listing == null) {
+				continue;
+			}
+			final ListedClients listed = listing.selected;
+			for (int i = 0; i < listed.size; i++) {
+				if (listed.queueSizes[i] == NO_QUEUE_SIZE &&
+						Boolean.TRUE.equals(selectedClientIds.get(listed.clientIds[i]))) {
+					pendingClientIds.add(listed.clientIds[i]);
+				}
+			}
+		}
+		final int maxDetailRequests = configuration.getMaxDetailRequests();
+		if (pendingClientIds.size() <= maxDetailRequests) {
+			lastRequestedClientId = null;
+			return pendingClientIds;
+		}
+		final List<String> sortedClientIds = new ArrayList<>(pendingClientIds);
+		Collections.sort(sortedClientIds);
+		int start = 0;
+		if (lastRequestedClientId != null) {
+			final int index = Collections.binarySearch(sortedClientIds, lastRequestedClientId);
+			start = index >= 0 ? index + 1 : -index - 1;
+		}
+		final Set<String> requestedClientIds = new HashSet<>();
+		for (int i = 0; i < maxDetailRequests; i++) {
+			final String clientId = sortedClientIds.get((start + i) % sortedClientIds.size());
+			requestedClientIds.add(clientId);
+			lastRequestedClientId = clientId;
+		}
+		log.debug("Requesting the message queue sizes of {} of {} selected clients",
+				maxDetailRequests,
+				sortedClientIds.size());
+		return requestedClientIds;
+	}
+
+	/**
+	 * Requests the message queue sizes of the requested clients that the listing of the node does not contain,
+	 * and of the clients of the swept partition if every node was listed.
+	 *
+	 * @return a future that completes with {@code false} if any request to the node failed.
+	 */
+	private @NotNull CompletableFuture<Boolean> pollDetails(
+			final @NotNull Node node,
+			final @NotNull Listing listing,
+			final @NotNull Set<String> requestedClientIds,
+			final boolean listingsComplete) {
+
+		final List<CompletableFuture<Boolean>> details = new ArrayList<>();
+		final ListedClients listed = listing.selected;
+		for (int i = 0; i < listed.size; i++) {
+			if (listed.queueSizes[i] == NO_QUEUE_SIZE && requestedClientIds.contains(listed.clientIds[i])) {
+				details.add(pollDetails(node, listed, i));
+			}
+		}
+		// a partition is swept again if a listing is missing, so its requests would be in vain
+		if (listingsComplete) {
+			final ListedClients swept = listing.swept;
+			for (int i = 0; i < swept.size; i++) {
+				if (swept.queueSizes[i] == NO_QUEUE_SIZE) {
+					details.add(pollDetails(node, swept, i));
+				}
+			}
+		}
+		return CompletableFuture.allOf(details.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+			for (final CompletableFuture<Boolean> detail : details) {
+				if (!detail.join()) {
+					node.circuitBreaker.onFailure(System.nanoTime());
+					return false;
+				}
+			}
+			node.circuitBreaker.onSuccess();
+			return true;
+		});
+	}
+
+	private @NotNull CompletableFuture<Boolean> pollDetails(
+			final @NotNull Node node,
+			final @NotNull ListedClients listed,
+			final int index) {
+
+		final HttpUrl url = node.listUrl.newBuilder().addPathSegment(listed.clientIds[index]).build();
+		return fetch(url, ClientQueueSizePoller::readDetails).handle((queueSize, throwable) -> {
+			if (throwable != null) {
+				// a client that disconnected since the listing is no failure of the node
+				final Throwable cause = unwrap(throwable);
+				return cause instanceof UnexpectedResponseException &&
+						((UnexpectedResponseException) cause).code == NOT_FOUND;
+			}
+			if (queueSize == NO_QUEUE_SIZE) {
+				log.warn("JSON response did not contain 'client.messageQueueSize'. URL: {}", url);
+				return true;
+			}
+			listed.queueSizes[index] = queueSize;
+			return true;
+		});
+	}
+
+	/**
+	 * Merges the message queue sizes of all listings per client, updates the metrics of the registered clients,
+	 * adds the swept partition to the sweep, and replaces the ranking and the distribution.
+	 */
+	private void merge(
+			final @NotNull Listing[] listings,
+			final @NotNull Map<String, Boolean> selectedClientIds,
+			final boolean success) {
+
+		final TopQueueSizes.Collector top = topQueueSizes.newCollector();
+		final QueueSizeDistribution.Recorder distribution = queueSizeDistribution.newRecorder();
+		final ListedClients selected = merge(listings, false);
+		for (int i = 0; i < selected.size; i++) {
+			final String clientId = selected.clientIds[i];
+			final long queueSize = selected.queueSizes[i];
+			if (Boolean.TRUE.equals(selectedClientIds.get(clientId))) {
+				metrics.update(clientId, queueSize);
+			} else {
+				top.offer(clientId, queueSize);
+				distribution.record(queueSize);
+			}
+		}
+		// the registered clients that were not requested in this poll are ranked with their previous size
+		for (final Map.Entry<String, Boolean> entry : selectedClientIds.entrySet()) {
+			if (entry.getValue()) {
+				final long queueSize = metrics.get(entry.getKey());
+				top.offer(entry.getKey(), queueSize);
+				distribution.record(queueSize);
+			}
+		}
+
+		if (success) {
+			updateSweep(listings);
+		}
+		final Sweep sweep = completedSweep != null ? completedSweep : this.sweep;
+		if (sweep != null) {
+			top.offerAll(sweep.top);
+			distribution.recordAll(sweep.distribution);
+		}
+		top.publish();
+		distribution.publish();
+	}
+
+	private void updateSweep(final @NotNull Listing[] listings) {
+		final Sweep sweep = this.sweep;
+		if (sweep != null) {
+			final ListedClients swept = merge(listings, true);
+			for (int i = 0; i < swept.size; i++) {
+				sweep.top.offer(swept.clientIds[i], swept.queueSizes[i]);
+				sweep.distribution.record(swept.queueSizes[i]);
+			}
+			sweep.partition++;
+			if (sweep.partition < sweep.partitions) {
+				return;
+			}
+			log.debug("Swept the message queue sizes of the clients in {} partitions", sweep.partitions);
+			completedSweep = sweep;
+			this.sweep = null;
+		}
+		if (!configuration.isSweep()) {
+			return;
+		}
+		long unselected = 0;
+		for (final Listing listing : listings) {
+			unselected = Math.max(unselected, listing.unselected);
+		}
+		final long requestsPerPoll = configuration.getSweepRequestsPerPoll();
+		final int partitions = (int) Math.max(1, (unselected + requestsPerPoll - 1) / requestsPerPoll);
+		this.sweep = new Sweep(partitions);
+	}
+
+	/**
+	 * @return the selected clients or the clients of the swept partition of all listings with a message queue size,
+	 * each client once with the merged message queue size.
+	 */
+	private @NotNull ListedClients merge(final @NotNull Listing[] listings, final boolean swept) {
+		final boolean sum = configuration.isNodeMergeSum();
+		final Map<String, Integer> indices = new HashMap<>();
+		final ListedClients merged = new ListedClients();
+		for (final Listing listing : listings) {
+			if (listing == null) {
+				continue;
+			}
+			final ListedClients listed = swept ? listing.swept : listing.selected;
+			for (int i = 0; i < listed.size; i++) {
+				final long queueSize = listed.queueSizes[i];
+				if (queueSize == NO_QUEUE_SIZE) {
+					continue;
+				}
+				final String clientId = listed.clientIds[i];
+				final Integer index = indices.putIfAbsent(clientId, merged.size);
+				if (index == null) {
+					merged.add(clientId, queueSize);
+				} else if (sum) {
+					merged.queueSizes[index] += queueSize;
+				} else {
+					merged.queueSizes[index] = Math.max(merged.queueSizes[index], queueSize);
+				}
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Reads a page of the client listing: {@code {"items":[{"id":"client1"},...],"_links":{"next":"..."}}}.
+	 *
+	 * @return the link to the next page, or {@code null} if this is the last page.
+	 */
+	private @Nullable String readPage(final @NotNull JsonReader reader, final @NotNull Listing listing)
+			throws IOException {
+
+		String next = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			final String name = reader.nextName();
+			if ("items".equals(name)) {
+				readItems(reader, listing);
+			} else if ("_links".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+				next = readNextLink(reader);
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return next;
+	}
+
+	private void readItems(final @NotNull JsonReader reader, final @NotNull Listing listing)
+			throws IOException {
+
+		reader.beginArray();
+		while (reader.hasNext()) {
+			String clientId = null;
+			long queueSize = NO_QUEUE_SIZE;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				final String name = reader.nextName();
+				if ("id".equals(name)) {
+					clientId = reader.nextString();
+				} else if ("messageQueueSize".equals(name) && reader.peek() == JsonToken.NUMBER) {
+					queueSize = reader.nextLong();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			if (clientId == null) {
+				continue;
+			}
+			// the other clients are dropped right away, so a listing of the whole fleet is never held in memory
+			if (configuration.isSelected(clientId)) {
+				listing.selected.add(clientId, queueSize);
+			} else {
+				listing.unselected++;
+				if (listing.isSwept(clientId)) {
+					listing.swept.add(clientId, queueSize);
+				}
+			}
+		}
+		reader.endArray();
+	}
+
+	private static @Nullable String readNextLink(final @NotNull JsonReader reader) throws IOException {
+		String next = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if ("next".equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+				next = reader.nextString();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return next;
+	}
+
+	/**
+	 * Reads the details of a client: {@code {"client":{"id":"client1","messageQueueSize":0,...}}}.
+	 */
+	private static long readDetails(final @NotNull JsonReader reader) throws IOException {
+		long queueSize = NO_QUEUE_SIZE;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if ("client".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+				reader.beginObject();
+				while (reader.hasNext()) {
+					if ("messageQueueSize".equals(reader.nextName()) && reader.peek() == JsonToken.NUMBER) {
+						queueSize = reader.nextLong();
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return queueSize;
+	}
+
+	/**
+	 * @return a future that completes with the result of reading the response, or exceptionally with an
+	 * {@link IOException} if the request failed, the failure is already logged.
+	 */
+	private @NotNull <T> CompletableFuture<T> fetch(
+			final @NotNull HttpUrl url,
+			final @NotNull ResponseReader<T> responseReader) {
+
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		final Request request = new Request.Builder().url(url).get().build();
+		httpClient.newCall(request).enqueue(new Callback() {
+			@Override
+			public void onFailure(final @NotNull Call call, final @NotNull IOException e) {
+				log.error("Error while fetching client data from API. URL: {}", url, e);
+				future.completeExceptionally(e);
+			}
+
+			@Override
+			public void onResponse(final @NotNull Call call, final @NotNull Response response) {
+				try (response) {
+					if (!response.isSuccessful()) {
+						if (response.code() != NOT_FOUND) {
+							log.warn("Failed to fetch client data from API. URL: {}, Response: {}", url, response);
+						}
+						future.completeExceptionally(new UnexpectedResponseException(response.code()));
+						return;
+					}
+					final ResponseBody body = response.body();
+					if (body == null) {
+						log.warn("Response body from API was null. URL: {}", url);
+						future.completeExceptionally(new IOException("Empty response"));
+						return;
+					}
+					try (final JsonReader reader = new JsonReader(body.charStream())) {
+						future.complete(responseReader.read(reader));
+					}
+				} catch (final IOException | RuntimeException e) {
+					log.error("Error while reading client data from API. URL: {}", url, e);
+					future.completeExceptionally(e instanceof IOException ? e : new IOException(e));
+				}
+			}
+		});
+		return future;
+	}
+
+	private static void logUnexpected(final @NotNull Throwable throwable) {
+		if (!(unwrap(throwable) instanceof IOException)) {
+			log.error("An unexpected error occurred while polling the message queue sizes", throwable);
+		}
+	}
+
+	private static @NotNull Throwable unwrap(final @NotNull Throwable throwable) {
+		return throwable instanceof CompletionException && throwable.getCause() != null ?
+				throwable.getCause() :
+				throwable;
+	}
+
+	@FunctionalInterface
+	private interface ResponseReader<T> {
+
+		@Nullable T read(@NotNull JsonReader reader) throws IOException;
+	}
+
+	private static final class UnexpectedResponseException extends IOException {
+
+		private final int code;
+
+		private UnexpectedResponseException(final int code) {
+			super("Unexpected response " + code);
+			this.code = code;
+		}
+	}
+
+	private static final class Node {
+
+		private final @NotNull HttpUrl listUrl;
+		private final @NotNull CircuitBreaker circuitBreaker;
+
+		private Node(final @NotNull HttpUrl listUrl, final int failureThreshold, final long openNanos) {
+			this.listUrl = listUrl;
+			circuitBreaker = new CircuitBreaker(failureThreshold, openNanos);
+		}
+	}
+
+	/**
+	 * The clients of a listing the poll needs: the selected clients and the clients of the swept partition.
+	 */
+	private static final class Listing {
+
+		private final @NotNull ListedClients selected = new ListedClients();
+		private final @NotNull ListedClients swept = new ListedClients();
+		private final int partitions;
+		private final int partition;
+		private long unselected;
+
+		/**
+		 * @param partitions the number of partitions of the sweep, 0 if no partition is swept.
+		 */
+		private Listing(final int partitions, final int partition) {
+			this.partitions = partitions;
+			this.partition = partition;
+		}
+
+		private boolean isSwept(final @NotNull String clientId) {
+			if (partitions == 0) {
+				return false;
+			}
+			int h = clientId.hashCode();
+			h ^= h >>> 16;
+			h *= 0x85ebca6b;
+			h ^= h >>> 13;
+			return Math.floorMod(h, partitions) == partition;
+		}
+	}
+
+	/**
+	 * The largest message queue sizes and the distribution of the clients that are not selected, collected over
+	 * the polls that sweep the partitions one after the other.
+	 */
+	private final class Sweep {
+
+		private final int partitions;
+		private final @NotNull TopQueueSizes.Collector top = topQueueSizes.newCollector();
+		private final @NotNull QueueSizeDistribution.Recorder distribution = queueSizeDistribution.newRecorder();
+		private int partition;
+
+		private Sweep(final int partitions) {
+			this.partitions = partitions;
+		}
+	}
+
+	/**
+	 * Clients with their message queue sizes, kept in plain arrays instead of a list of boxed values.
+	 */
+	private static final class ListedClients {
+
+		private @NotNull String[] clientIds = new String[16];
+		private @NotNull long[] queueSizes = new long[16];
+		private int size;
+
+		private void add(final @NotNull String clientId, final long queueSize) {
+			if (size == clientIds.length) {
+				clientIds = Arrays.copyOf(clientIds, size * 2);
+				queueSizes = Arrays.copyOf(queueSizes, size * 2);
+			}
+			clientIds[size] = clientId;
+			queueSizes[size] = queueSize;
+			size++;
+		}
+	}
+}
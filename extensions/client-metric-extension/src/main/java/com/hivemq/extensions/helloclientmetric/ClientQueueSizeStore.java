@@ -0,0 +1,297 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed capacity store of one {@code long} per client, without an object per client.
+ * <p>
+ * Every client gets a slot between 0 and the capacity. The values are kept in a {@code long[]} or, off heap,
+ * in a direct buffer, both indexed by slot. The Client IDs are kept in an array indexed by slot, and an open
+ * addressing hash table of slots, probed linearly and compared with the Client ID of the slot, finds the slot of
+ * a Client ID. Lookups and value updates are lock free, only allocating and releasing slots is synchronized.
+ * <p>
+ * Per client this costs 8 bytes for the value, a reference to the Client ID and 8 to 16 bytes of hash table,
+ * compared to a map entry, an {@code AtomicLong} and their headers of more than 80 bytes.
+ * <p>
+ * A slot found without a lock can be released and allocated to another client before the value is written.
+ * The upper 16 bits of every value therefore hold a generation that changes whenever the slot is allocated, the
+ * lower 48 bits hold the value. The writes that take the Client ID only compare and set the value while the
+ * generation is the one they read together with the Client ID of the slot, so they never change the value of the
+ * client the slot was allocated to in the meantime.
+ *
+ * @since 4.46.0
+ */
+public class ClientQueueSizeStore {
+
+	private static final @NotNull VarHandle HEAP_VALUES = MethodHandles.arrayElementVarHandle(long[].class);
+	private static final @NotNull VarHandle OFF_HEAP_VALUES =
+			MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final int GENERATION_SHIFT = 48;
+	private static final long VALUE_MASK = (1L << GENERATION_SHIFT) - 1;
+	private static final int EMPTY = -1;
+	private static final int REMOVED = -2;
+
+	private final int capacity;
+	private final @Nullable long[] heapValues;
+	private final @Nullable ByteBuffer offHeapValues;
+	private final @NotNull AtomicReferenceArray<String> clientIds;
+	private final @NotNull int[] freeSlots;
+	private int freeSlotCount;
+	private int removedEntries;
+	private volatile int size;
+	private volatile @NotNull AtomicIntegerArray table;
+
+	public ClientQueueSizeStore(final int capacity, final boolean offHeap) {
+		this.capacity = capacity;
+		if (offHeap) {
+			heapValues = null;
+			offHeapValues = ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder());
+		} else {
+			heapValues = new long[capacity];
+			offHeapValues = null;
+		}
+		clientIds = new AtomicReferenceArray<>(capacity);
+		freeSlots = new int[capacity];
+		for (int i = 0; i < capacity; i++) {
+			freeSlots[i] = capacity - 1 - i;
+		}
+		freeSlotCount = capacity;
+		table = newTable();
+	}
+
+	private @NotNull AtomicIntegerArray newTable() {
+		// more than twice the capacity, so the live entries take at most half of the table, and as the table is
+		// rebuilt once the removed entries take more than a quarter, the load factor stays at or below 0.75
+		final AtomicIntegerArray table = new AtomicIntegerArray(Integer.highestOneBit(Math.max(1, capacity) * 2) << 1);
+		for (int i = 0; i < table.length(); i++) {
+			table.set(i, EMPTY);
+		}
+		return table;
+	}
+
+	private static int hash(final @NotNull String clientId) {
+		final int h = clientId.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the slot of the client, or {@code -1} if the client has no slot.
+	 */
+	public int slot(final @NotNull String clientId) {
+		final AtomicIntegerArray table = this.table;
+		final int mask = table.length() - 1;
+		int i = hash(clientId) & mask;
+		while (true) {
+			final int slot = table.get(i);
+			if (slot == EMPTY) {
+				return -1;
+			}
+			if (slot != REMOVED && clientId.equals(clientIds.get(slot))) {
+				return slot;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * @return the Client ID of the slot, or {@code null} if the slot is free.
+	 */
+	public @Nullable String clientId(final int slot) {
+		return clientIds.get(slot);
+	}
+
+	/**
+	 * Allocates a slot for the client with the value 0, or returns the slot the client already has.
+	 *
+	 * @return the slot of the client, or {@code -1} if all slots are allocated.
+	 */
+	public synchronized int allocate(final @NotNull String clientId) {
+		final int existing = slot(clientId);
+		if (existing >= 0) {
+			return existing;
+		}
+		if (freeSlotCount == 0) {
+			return -1;
+		}
+		final int slot = freeSlots[--freeSlotCount];
+		// the new generation makes the writes fail that found the slot before it was released
+		final long generation = (raw(slot) >>> GENERATION_SHIFT) + 1;
+		setRaw(slot, generation << GENERATION_SHIFT);
+		clientIds.set(slot, clientId);
+		insert(table, clientId, slot);
+		size++;
+		return slot;
+	}
+
+	/**
+	 * Releases the slot of the client.
+	 *
+	 * @return the released slot, or {@code -1} if the client had no slot.
+	 */
+	public synchronized int release(final @NotNull String clientId) {
+		final AtomicIntegerArray table = this.table;
+		final int mask = table.length() - 1;
+		int i = hash(clientId) & mask;
+		while (true) {
+			final int slot = table.get(i);
+			if (slot == EMPTY) {
+				return -1;
+			}
+			if (slot != REMOVED && clientId.equals(clientIds.get(slot))) {
+				table.set(i, REMOVED);
+				clientIds.set(slot, null);
+				freeSlots[freeSlotCount++] = slot;
+				size--;
+				if (++removedEntries > table.length() / 4) {
+					rebuildTable();
+				}
+				return slot;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * Replaces the table to drop the removed entries, which would otherwise make probing longer and longer.
+	 * A concurrent lookup on the old table may miss a client that was added since, but never finds a wrong slot.
+	 */
+	private void rebuildTable() {
+		final AtomicIntegerArray rebuilt = newTable();
+		for (int slot = 0; slot < capacity; slot++) {
+			final String clientId = clientIds.get(slot);
+			if (clientId != null) {
+				insert(rebuilt, clientId, slot);
+			}
+		}
+		table = rebuilt;
+		removedEntries = 0;
+	}
+
+	private static void insert(final @NotNull AtomicIntegerArray table, final @NotNull String clientId, final int slot) {
+		final int mask = table.length() - 1;
+		int i = hash(clientId) & mask;
+		while (table.get(i) >= 0) {
+			i = (i + 1) & mask;
+		}
+		table.set(i, slot);
+	}
+
+	public long get(final int slot) {
+		return raw(slot) & VALUE_MASK;
+	}
+
+	public void set(final int slot, final long value) {
+		getAndSet(slot, value);
+	}
+
+	/**
+	 * @return the previous value.
+	 */
+	public long getAndSet(final int slot, final long value) {
+		long current;
+		do {
+			current = raw(slot);
+		} while (!compareAndSetRaw(slot, current, withValue(current, value)));
+		return current & VALUE_MASK;
+	}
+
+	/**
+	 * Sets the value of the slot, unless the slot does not belong to the client anymore.
+	 *
+	 * @return the previous value, or {@code -1} if the slot does not belong to the client.
+	 */
+	public long getAndSet(final int slot, final @NotNull String clientId, final long value) {
+		long current;
+		do {
+			current = raw(slot);
+			if (!clientId.equals(clientIds.get(slot))) {
+				return -1;
+			}
+		} while (!compareAndSetRaw(slot, current, withValue(current, value)));
+		return current & VALUE_MASK;
+	}
+
+	/**
+	 * Adds the delta to the value of the slot, the value does not drop below 0.
+	 */
+	public void addNonNegative(final int slot, final long delta) {
+		long current;
+		do {
+			current = raw(slot);
+		} while (!compareAndSetRaw(slot, current, withValue(current, (current & VALUE_MASK) + delta)));
+	}
+
+	/**
+	 * Adds the delta to the value of the slot, unless the slot does not belong to the client anymore.
+	 * The value does not drop below 0.
+	 *
+	 * @return {@code false} if the slot does not belong to the client.
+	 */
+	public boolean addNonNegative(final int slot, final @NotNull String clientId, final long delta) {
+		long current;
+		do {
+			current = raw(slot);
+			if (!clientId.equals(clientIds.get(slot))) {
+				return false;
+			}
+		} while (!compareAndSetRaw(slot, current, withValue(current, (current & VALUE_MASK) + delta)));
+		return true;
+	}
+
+	private static long withValue(final long current, final long value) {
+		return (current & ~VALUE_MASK) | Math.min(Math.max(0, value), VALUE_MASK);
+	}
+
+	private long raw(final int slot) {
+		if (heapValues != null) {
+			return (long) HEAP_VALUES.getVolatile(heapValues, slot);
+		}
+		return (long) OFF_HEAP_VALUES.getVolatile(offHeapValues, slot * Long.BYTES);
+	}
+
+	private void setRaw(final int slot, final long raw) {
+		if (heapValues != null) {
+			HEAP_VALUES.setVolatile(heapValues, slot, raw);
+		} else {
+			OFF_HEAP_VALUES.setVolatile(offHeapValues, slot * Long.BYTES, raw);
+		}
+	}
+
+	private boolean compareAndSetRaw(final int slot, final long expected, final long raw) {
+		if (heapValues != null) {
+			return HEAP_VALUES.compareAndSet(heapValues, slot, expected, raw);
+		}
+		return OFF_HEAP_VALUES.compareAndSet(offHeapValues, slot * Long.BYTES, expected, raw);
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.services.session.ClientService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Learns the selected clients by iterating all sessions of the broker with the {@link ClientService},
+ * without the REST API.
+ * <p>
+ * The sessions do not contain message queue sizes, so this poller only registers the metrics of clients that
+ * appeared and removes the metrics of clients that disappeared. The values come from the
+ * {@link QueueDepthInterceptor}s, which count the PUBLISHes in flight to a client, so the metrics are named
+ * {@code com.hivemq.<Client ID>.inflight}. A client that is not connected has no PUBLISH in flight, the broker sends
+ * the unacknowledged PUBLISHes again when it reconnects. So the count of every client that is not connected is reset
+ * to 0 on every poll, which corrects the counts of connections that ended with PUBLISHes in flight.
+ * The callbacks of the iteration run on a {@link PacedSerialExecutor}, so a sweep over all clients is spread over
+ * time.
+ *
+ * @since 4.46.0
+ */
+public class ClientServicePoller implements QueueSizePoller {
+
+	private static final @NotNull Logger log = LoggerFactory.getLogger(ClientServicePoller.class);
+
+	private final @NotNull ClientMetricConfiguration configuration;
+	private final @NotNull ClientQueueSizeMetrics metrics;
+	private final @NotNull TopQueueSizes topQueueSizes;
+	private final @NotNull QueueSizeDistribution queueSizeDistribution;
+	private final @NotNull ClientService clientService;
+	private final @NotNull Executor callbackExecutor;
+	private final @NotNull AtomicBoolean polling = new AtomicBoolean();
+
+	public ClientServicePoller(
+			final @NotNull ClientMetricConfiguration configuration,
+			final @NotNull ClientQueueSizeMetrics metrics,
+			final @NotNull TopQueueSizes topQueueSizes,
+			final @NotNull QueueSizeDistribution queueSizeDistribution,
+			final @NotNull ClientService clientService,
+			final @NotNull Executor callbackExecutor) {
+
+		this.configuration = configuration;
+		this.metrics = metrics;
+		this.topQueueSizes = topQueueSizes;
+		this.queueSizeDistribution = queueSizeDistribution;
+		this.clientService = clientService;
+		this.callbackExecutor = callbackExecutor;
+	}
+
+	@Override
+	public @NotNull CompletableFuture<Boolean> poll() {
+		if (!polling.compareAndSet(false, true)) {
+			log.debug("Skipping poll, the previous poll is still running");
+			return CompletableFuture.completedFuture(false);
+		}
+		// only touched by the callbacks, which the paced executor runs one after the other
+		final Set<String> selectedClientIds = new HashSet<>();
+		final Set<String> disconnectedClientIds = new HashSet<>();
+		return clientService.iterateAllClients((context, sessionInformation) -> {
+			final String clientId = sessionInformation.getClientIdentifier();
+			if (configuration.isSelected(clientId)) {
+				selectedClientIds.add(clientId);
+				if (!sessionInformation.isConnected()) {
+					disconnectedClientIds.add(clientId);
+				}
+			}
+		}, callbackExecutor).handle((ignored, throwable) -> {
+			polling.set(false);
+			if (throwable != null) {
+				log.warn("Iterating all clients failed, the metrics are not updated: {}", throwable.getMessage());
+				return false;
+			}
+			update(selectedClientIds, disconnectedClientIds);
+			return true;
+		});
+	}
+
+	private void update(
+			final @NotNull Set<String> selectedClientIds,
+			final @NotNull Set<String> disconnectedClientIds) {
+
+		metrics.retainListed(selectedClientIds);
+		for (final String clientId : disconnectedClientIds) {
+			metrics.update(clientId, 0);
+		}
+		final TopQueueSizes.Collector top = topQueueSizes.newCollector();
+		final QueueSizeDistribution.Recorder distribution = queueSizeDistribution.newRecorder();
+		boolean limitReached = false;
+		for (final String clientId : selectedClientIds) {
+			if (!metrics.register(clientId)) {
+				limitReached = true;
+				continue;
+			}
+			final long queueSize = metrics.get(clientId);
+			top.offer(clientId, queueSize);
+			distribution.record(queueSize);
+		}
+		top.publish();
+		distribution.publish();
+		if (limitReached) {
+			log.warn("More than {} clients are selected, no metrics are registered for the remaining clients.",
+					configuration.getMaxClients());
+		}
+		log.debug("Updated the metrics of {} clients", metrics.size());
+	}
+}
@@ -17,31 +17,32 @@ package com.hivemq.extensions.helloclientmetric;
 
 import com.hivemq.extension.sdk.api.ExtensionMain;
 import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
 import com.hivemq.extension.sdk.api.parameter.*;
 import com.hivemq.extension.sdk.api.services.Services;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import com.hivemq.extension.sdk.api.parameter.ExtensionStartInput;
 import com.hivemq.extension.sdk.api.parameter.ExtensionStartOutput;
 import com.hivemq.extension.sdk.api.parameter.ExtensionStopInput;
 import com.hivemq.extension.sdk.api.parameter.ExtensionStopOutput;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
-import okhttp3.ResponseBody;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This is the main class of the extension.
  * <p>
- * It periodically fetches the message queue size for a specific client ({@code client1})
- * via the HiveMQ REST API and exposes it as a HiveMQ metric named
- * {@code com.hivemq.client1.message-queue-size}.
+ * It periodically fetches the message queue sizes of the selected clients via the HiveMQ REST API
+ * and exposes each as a HiveMQ metric named {@code com.hivemq.<Client ID>.message-queue-size}.
+ * Alternatively, the clients are learned in process from the {@code ClientService}.
+ * Between polls the message queue sizes are estimated from the outgoing PUBLISH and incoming PUBACK and PUBCOMP
+ * packets of the selected clients.
+ * By default only the client {@code client1} is selected, see {@link ClientMetricConfiguration}.
  *
  * @author Dasha Samkova
  * @since 4.46.0
@@ -49,13 +50,17 @@ import java.util.concurrent.atomic.AtomicLong;
 public class HelloClientMetricMain implements ExtensionMain {
 
     private static final @NotNull Logger log = LoggerFactory.getLogger(HelloClientMetricMain.class);
-	private static final @NotNull String CLIENT_ID = "client1";
-	private static final @NotNull String API_URL = "http://localhost:8888/api/v1/mqtt/clients/" + CLIENT_ID;
-	private static final @NotNull String METRIC_NAME = "com.hivemq." + CLIENT_ID + ".message-queue-size";
 
-	private final @NotNull OkHttpClient httpClient = new OkHttpClient();
-	private final @NotNull Gson gson = new Gson();
-	private final @NotNull AtomicLong messageQueueSize = new AtomicLong(0);
+	private static final long KEEP_ALIVE_MINUTES = 5;
+	private static final @NotNull String EXECUTOR_METRIC_PREFIX = "com.hivemq.extensions.client-metric.executor";
+	private static final long EXECUTOR_OVERDUE_MILLIS = 1000;
+
+	private @Nullable OkHttpClient httpClient;
+	private @Nullable ClientQueueSizeMetrics queueSizeMetrics;
+	private @Nullable AdaptivePollScheduler pollScheduler;
+	private @Nullable QueueSizeHistory history;
+	private @Nullable ClientMetricConfiguration configuration;
+	private @Nullable InstrumentedScheduledExecutorService executorService;
 
 
 	@Override
@@ -64,12 +69,99 @@ public class HelloClientMetricMain implements ExtensionMain {
             final @NotNull ExtensionStartOutput extensionStartOutput) {
 
         try {
-			Services.metricRegistry().gauge(METRIC_NAME, () -> messageQueueSize::get);
+			final ExtensionInformation extensionInformation = extensionStartInput.getExtensionInformation();
+			final ClientMetricConfiguration configuration =
+					ClientMetricConfiguration.read(extensionInformation.getExtensionHomeFolder());
+			this.configuration = configuration;
+			final InstrumentedScheduledExecutorService executorService = new InstrumentedScheduledExecutorService(
+					Services.extensionExecutorService(),
+					Services.metricRegistry(),
+					EXECUTOR_METRIC_PREFIX,
+					EXECUTOR_OVERDUE_MILLIS);
+			this.executorService = executorService;
+
+			// without the REST API only the PUBLISHes in flight are known, not the message queue sizes
+			final ClientQueueSizeMetrics queueSizeMetrics = new ClientQueueSizeMetrics(Services.metricRegistry(),
+					configuration.getClientIds(),
+					configuration.getMaxClients(),
+					configuration.isOffHeap(),
+					configuration.isClientServiceSource() ?
+							ClientQueueSizeMetrics.INFLIGHT :
+							ClientQueueSizeMetrics.MESSAGE_QUEUE_SIZE);
+			this.queueSizeMetrics = queueSizeMetrics;
+			final boolean warmStart = configuration.isSnapshot() &&
+					QueueSizeSnapshot.restore(extensionInformation.getExtensionHomeFolder(),
+							queueSizeMetrics,
+							configuration,
+							System.currentTimeMillis()) >= 0;
+			final TopQueueSizes topQueueSizes = new TopQueueSizes(configuration.getTopSize(), Services.metricRegistry());
+			final QueueSizeDistribution queueSizeDistribution = new QueueSizeDistribution(Services.metricRegistry());
+			final QueueSizePoller sourcePoller;
+			if (configuration.isClientServiceSource()) {
+				final PacedSerialExecutor callbackExecutor = new PacedSerialExecutor(executorService,
+						configuration.getClientServiceBatchSize(),
+						configuration.getClientServicePauseMillis());
+				sourcePoller = new ClientServicePoller(configuration,
+						queueSizeMetrics,
+						topQueueSizes,
+						queueSizeDistribution,
+						Services.clientService(),
+						callbackExecutor);
+			} else {
+				final OkHttpClient httpClient = createHttpClient(configuration);
+				this.httpClient = httpClient;
+				sourcePoller = new ClientQueueSizePoller(configuration,
+						queueSizeMetrics,
+						topQueueSizes,
+						queueSizeDistribution,
+						httpClient,
+						Services.metricRegistry());
+			}
+
+			final QueueSizePoller poller;
+			final QueueSizeHistory history = openHistory(configuration, extensionInformation.getExtensionHomeFolder());
+			this.history = history;
+			if (history != null) {
+				// a failed or skipped poll did not update the message queue sizes, so it would only repeat old values
+				poller = () -> sourcePoller.poll().whenComplete((success, throwable) -> {
+					if (Boolean.TRUE.equals(success) && throwable == null) {
+						history.append(queueSizeMetrics.getStore(), System.currentTimeMillis());
+					}
+				});
+			} else {
+				poller = sourcePoller;
+			}
 
-			Services.extensionExecutorService().scheduleAtFixedRate(this::fetchAndUpdateMetric, 120, 15, TimeUnit.SECONDS);
+			if (configuration.isEventTracking()) {
+				Services.initializerRegistry().setClientInitializer((initializerInput, clientContext) -> {
+					final String clientId = initializerInput.getClientInformation().getClientId();
+					if (configuration.isSelected(clientId)) {
+						if (configuration.isClientServiceSource()) {
+							// a new connection has no PUBLISH in flight yet, unacknowledged ones are sent again
+							queueSizeMetrics.update(clientId, 0);
+						}
+						final QueueDepthInterceptor interceptor = new QueueDepthInterceptor(queueSizeMetrics, clientId);
+						clientContext.addPublishOutboundInterceptor(interceptor);
+						clientContext.addPubackInboundInterceptor(interceptor);
+						clientContext.addPubcompInboundInterceptor(interceptor);
+					}
+				});
+			}
+
+			final AdaptivePollScheduler pollScheduler = new AdaptivePollScheduler(poller,
+					queueSizeMetrics,
+					configuration,
+					executorService,
+					Services.metricRegistry());
+			this.pollScheduler = pollScheduler;
+			// without an initial delay a cold start polls right away as well, the REST API may still be starting
+			if (warmStart || configuration.getInitialDelaySeconds() == 0) {
+				pollScheduler.start(0, configuration.getWarmStartBudgetMillis());
+			} else {
+				pollScheduler.start(TimeUnit.SECONDS.toMillis(configuration.getInitialDelaySeconds()));
+			}
 
 
-			final ExtensionInformation extensionInformation = extensionStartInput.getExtensionInformation();
             log.info("Started " + extensionInformation.getName() + ":" + extensionInformation.getVersion());
 
         } catch (final Exception e) {
@@ -82,38 +174,70 @@ public class HelloClientMetricMain implements ExtensionMain {
             final @NotNull ExtensionStopInput extensionStopInput,
             final @NotNull ExtensionStopOutput extensionStopOutput) {
 
+		if (pollScheduler != null) {
+			pollScheduler.stop();
+		}
+		if (history != null) {
+			history.close();
+		}
+		if (queueSizeMetrics != null && configuration != null && configuration.isSnapshot()) {
+			QueueSizeSnapshot.write(extensionStopInput.getExtensionInformation().getExtensionHomeFolder(),
+					queueSizeMetrics.getStore(),
+					System.currentTimeMillis());
+		}
+		AdaptivePollScheduler.removeMetrics(Services.metricRegistry());
+		TopQueueSizes.removeMetrics(Services.metricRegistry());
+		QueueSizeDistribution.removeMetrics(Services.metricRegistry());
+		ClientQueueSizePoller.removeMetrics(Services.metricRegistry());
+		if (httpClient != null) {
+			httpClient.dispatcher().cancelAll();
+			httpClient.dispatcher().executorService().shutdown();
+			httpClient.connectionPool().evictAll();
+		}
+		if (queueSizeMetrics != null) {
+			queueSizeMetrics.removeAll();
+		}
+		if (executorService != null) {
+			executorService.removeMetrics();
+		}
+
         final ExtensionInformation extensionInformation = extensionStopInput.getExtensionInformation();
         log.info("Stopped " + extensionInformation.getName() + ":" + extensionInformation.getVersion());
     }
 
-	private void fetchAndUpdateMetric() {
-		final Request request = new Request.Builder().url(API_URL).get().build();
-		try (final Response response = httpClient.newCall(request).execute()) {
-			if (!response.isSuccessful()) {
-				log.warn("Failed to fetch client data from API. URL: {}, Response: {}", API_URL, response);
-				return;
-			}
-
-			final ResponseBody body = response.body();
-			if (body == null) {
-				log.warn("Response body from API was null. URL: {}", API_URL);
-				return;
-			}
-
-			final JsonObject json = gson.fromJson(body.string(), JsonObject.class);
-			if (json.has("client") && json.getAsJsonObject("client").has("messageQueueSize")) {
-				final long queueSize = json.getAsJsonObject("client").get("messageQueueSize").getAsLong();
-				messageQueueSize.set(queueSize);
-				log.debug("Successfully updated message queue size for client '{}' to {}", CLIENT_ID, queueSize);
-			} else {
-				log.warn("JSON response did not contain 'client.messageQueueSize'. Response: {}", json);
-			}
+	private static @Nullable QueueSizeHistory openHistory(
+			final @NotNull ClientMetricConfiguration configuration,
+			final @NotNull File extensionHomeFolder) {
 
+		if (!configuration.isHistory()) {
+			return null;
+		}
+		try {
+			return QueueSizeHistory.open(extensionHomeFolder, configuration.getHistoryRecords());
 		} catch (final IOException e) {
-			log.error("Error while fetching client data from API for client '{}'", CLIENT_ID, e);
-		} catch (final Exception e) {
-			log.error("An unexpected error occurred while processing the API response for client '{}'", CLIENT_ID, e);
+			log.error("Could not open the message queue size history, no history is written.", e);
+			return null;
 		}
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Creates a HTTP client that keeps as many connections alive as it may use concurrently,
+	 * so consecutive polls reuse the connections instead of connecting again.
+	 */
+	static @NotNull OkHttpClient createHttpClient(final @NotNull ClientMetricConfiguration configuration) {
+		final int maxConcurrentRequests = configuration.getMaxConcurrentRequests();
+		final int maxConcurrentRequestsOfAllNodes = maxConcurrentRequests * configuration.getApiUrls().size();
+		final Dispatcher dispatcher = new Dispatcher();
+		dispatcher.setMaxRequests(maxConcurrentRequestsOfAllNodes);
+		dispatcher.setMaxRequestsPerHost(maxConcurrentRequests);
+		return new OkHttpClient.Builder()
+				.dispatcher(dispatcher)
+				.connectionPool(
+						new ConnectionPool(maxConcurrentRequestsOfAllNodes, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+				.connectTimeout(configuration.getTimeoutSeconds(), TimeUnit.SECONDS)
+				.readTimeout(configuration.getTimeoutSeconds(), TimeUnit.SECONDS)
+				.callTimeout(configuration.getTimeoutSeconds(), TimeUnit.SECONDS)
+				.build();
+	}
+
+}
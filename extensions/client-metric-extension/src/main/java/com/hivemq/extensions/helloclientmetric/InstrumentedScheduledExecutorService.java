@@ -0,0 +1,307 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wraps a scheduled executor, usually the extension executor that HiveMQ shares between all extensions,
+ * and exports how long the tasks of this extension wait and run:
+ * <ul>
+ *     <li>{@code <prefix>.queue-time}: the time from submitting a task, or from the due time of a scheduled run,
+ *     until the task starts,</li>
+ *     <li>{@code <prefix>.execution-time}: the time a task runs,</li>
+ *     <li>{@code <prefix>.overdue}: the number of scheduled runs that started later than the overdue threshold
+ *     after their due time,</li>
+ *     <li>{@code <prefix>.queued}: the number of submitted tasks that did not start yet, without scheduled tasks
+ *     that are not due yet.</li>
+ * </ul>
+ * A growing queue time of the tasks of this extension shows that the shared executor is saturated,
+ * the execution time shows how much of it this extension takes.
+ * <p>
+ * The prevent-publish and the client-metric extension contain the same copy of this class.
+ * Apart from the package, the indentation and the {@code @since} version the copies must be kept identical.
+ *
+ * @since 4.46.0
+ */
+public class InstrumentedScheduledExecutorService implements ScheduledExecutorService {
+
+	private final @NotNull ScheduledExecutorService delegate;
+	private final @NotNull MetricRegistry metricRegistry;
+	private final @NotNull String metricPrefix;
+	private final long overdueNanos;
+	private final @NotNull Timer queueTime;
+	private final @NotNull Timer executionTime;
+	private final @NotNull Counter overdue;
+	private final @NotNull AtomicInteger queued = new AtomicInteger();
+
+	public InstrumentedScheduledExecutorService(
+			final @NotNull ScheduledExecutorService delegate,
+			final @NotNull MetricRegistry metricRegistry,
+			final @NotNull String metricPrefix,
+			final long overdueMillis) {
+
+		this.delegate = delegate;
+		this.metricRegistry = metricRegistry;
+		this.metricPrefix = metricPrefix;
+		overdueNanos = TimeUnit.MILLISECONDS.toNanos(overdueMillis);
+		queueTime = metricRegistry.timer(metricPrefix + ".queue-time");
+		executionTime = metricRegistry.timer(metricPrefix + ".execution-time");
+		overdue = metricRegistry.counter(metricPrefix + ".overdue");
+		metricRegistry.gauge(metricPrefix + ".queued", () -> queued::get);
+	}
+
+	public void removeMetrics() {
+		metricRegistry.removeMatching((name, metric) -> name.startsWith(metricPrefix + "."));
+	}
+
+	@Override
+	public void execute(final @NotNull Runnable command) {
+		final long submittedNanos = System.nanoTime();
+		queued.incrementAndGet();
+		try {
+			delegate.execute(() -> {
+				queued.decrementAndGet();
+				run(command, submittedNanos, false);
+			});
+		} catch (final RejectedExecutionException e) {
+			queued.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * Submits the task via {@link #execute(Runnable)}, so the wrapped task always runs and leaves the queue,
+	 * even if the future is cancelled before.
+	 */
+	@Override
+	public @NotNull <T> Future<T> submit(final @NotNull Callable<T> task) {
+		final FutureTask<T> future = new FutureTask<>(task);
+		execute(future);
+		return future;
+	}
+
+	@Override
+	public @NotNull <T> Future<T> submit(final @NotNull Runnable task, final T result) {
+		final FutureTask<T> future = new FutureTask<>(task, result);
+		execute(future);
+		return future;
+	}
+
+	@Override
+	public @NotNull Future<?> submit(final @NotNull Runnable task) {
+		final FutureTask<Void> future = new FutureTask<>(task, null);
+		execute(future);
+		return future;
+	}
+
+	@Override
+	public @NotNull ScheduledFuture<?> schedule(
+			final @NotNull Runnable command,
+			final long delay,
+			final @NotNull TimeUnit unit) {
+
+		final long dueNanos = System.nanoTime() + unit.toNanos(delay);
+		return delegate.schedule(() -> run(command, dueNanos, true), delay, unit);
+	}
+
+	@Override
+	public @NotNull <V> ScheduledFuture<V> schedule(
+			final @NotNull Callable<V> callable,
+			final long delay,
+			final @NotNull TimeUnit unit) {
+
+		final long dueNanos = System.nanoTime() + unit.toNanos(delay);
+		return delegate.schedule(() -> call(callable, dueNanos, true), delay, unit);
+	}
+
+	@Override
+	public @NotNull ScheduledFuture<?> scheduleAtFixedRate(
+			final @NotNull Runnable command,
+			final long initialDelay,
+			final long period,
+			final @NotNull TimeUnit unit) {
+
+		final PeriodicTask task = new PeriodicTask(command,
+				System.nanoTime() + unit.toNanos(initialDelay),
+				unit.toNanos(period),
+				true);
+		return delegate.scheduleAtFixedRate(task, initialDelay, period, unit);
+	}
+
+	@Override
+	public @NotNull ScheduledFuture<?> scheduleWithFixedDelay(
+			final @NotNull Runnable command,
+			final long initialDelay,
+			final long delay,
+			final @NotNull TimeUnit unit) {
+
+		final PeriodicTask task = new PeriodicTask(command,
+				System.nanoTime() + unit.toNanos(initialDelay),
+				unit.toNanos(delay),
+				false);
+		return delegate.scheduleWithFixedDelay(task, initialDelay, delay, unit);
+	}
+
+	@Override
+	public @NotNull <T> List<Future<T>> invokeAll(final @NotNull Collection<? extends Callable<T>> tasks)
+			throws InterruptedException {
+
+		return delegate.invokeAll(instrument(tasks));
+	}
+
+	@Override
+	public @NotNull <T> List<Future<T>> invokeAll(
+			final @NotNull Collection<? extends Callable<T>> tasks,
+			final long timeout,
+			final @NotNull TimeUnit unit) throws InterruptedException {
+
+		return delegate.invokeAll(instrument(tasks), timeout, unit);
+	}
+
+	@Override
+	public <T> T invokeAny(final @NotNull Collection<? extends Callable<T>> tasks)
+			throws InterruptedException, ExecutionException {
+
+		return delegate.invokeAny(instrument(tasks));
+	}
+
+	@Override
+	public <T> T invokeAny(
+			final @NotNull Collection<? extends Callable<T>> tasks,
+			final long timeout,
+			final @NotNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+
+		return delegate.invokeAny(instrument(tasks), timeout, unit);
+	}
+
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	@Override
+	public @NotNull List<Runnable> shutdownNow() {
+		return delegate.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(final long timeout, final @NotNull TimeUnit unit) throws InterruptedException {
+		return delegate.awaitTermination(timeout, unit);
+	}
+
+	private @NotNull <T> List<Callable<T>> instrument(final @NotNull Collection<? extends Callable<T>> tasks) {
+		final long submittedNanos = System.nanoTime();
+		final List<Callable<T>> instrumented = new ArrayList<>(tasks.size());
+		for (final Callable<T> task : tasks) {
+			instrumented.add(() -> call(task, submittedNanos, false));
+		}
+		return instrumented;
+	}
+
+	/**
+	 * @param readyNanos the time the task was submitted, or the due time of a scheduled run.
+	 */
+	private void run(final @NotNull Runnable task, final long readyNanos, final boolean scheduled) {
+		final long startNanos = started(readyNanos, scheduled);
+		try {
+			task.run();
+		} finally {
+			executionTime.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private <T> T call(final @NotNull Callable<T> task, final long readyNanos, final boolean scheduled)
+			throws Exception {
+
+		final long startNanos = started(readyNanos, scheduled);
+		try {
+			return task.call();
+		} finally {
+			executionTime.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private long started(final long readyNanos, final boolean scheduled) {
+		final long startNanos = System.nanoTime();
+		final long waitedNanos = Math.max(0, startNanos - readyNanos);
+		queueTime.update(waitedNanos, TimeUnit.NANOSECONDS);
+		if (scheduled && waitedNanos > overdueNanos) {
+			overdue.inc();
+		}
+		return startNanos;
+	}
+
+	/**
+	 * A periodic task that keeps the due time of its next run. The runs of a periodic task never overlap.
+	 */
+	private final class PeriodicTask implements Runnable {
+
+		private final @NotNull Runnable task;
+		private final long periodNanos;
+		private final boolean fixedRate;
+		private long dueNanos;
+
+		private PeriodicTask(
+				final @NotNull Runnable task,
+				final long dueNanos,
+				final long periodNanos,
+				final boolean fixedRate) {
+
+			this.task = task;
+			this.dueNanos = dueNanos;
+			this.periodNanos = periodNanos;
+			this.fixedRate = fixedRate;
+		}
+
+		@Override
+		public void run() {
+			final long due = dueNanos;
+			try {
+				InstrumentedScheduledExecutorService.this.run(task, due, true);
+			} finally {
+				dueNanos = fixedRate ? due + periodNanos : System.nanoTime() + periodNanos;
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An executor that runs its tasks one after the other on a scheduled executor, in batches with a pause in between.
+ * <p>
+ * Used as the callback executor of an iteration over all clients, it spreads the iteration over time: HiveMQ only
+ * fetches the next chunk of clients when the callbacks of the previous chunk ran, so the pauses slow down the
+ * iteration instead of letting it compete with the broker at full speed.
+ *
+ * @since 4.46.0
+ */
+public class PacedSerialExecutor implements Executor {
+
+	private static final @NotNull Logger log = LoggerFactory.getLogger(PacedSerialExecutor.class);
+
+	private final @NotNull ScheduledExecutorService executorService;
+	private final int batchSize;
+	private final long pauseMillis;
+	private final @NotNull Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final @NotNull AtomicBoolean draining = new AtomicBoolean();
+
+	public PacedSerialExecutor(
+			final @NotNull ScheduledExecutorService executorService,
+			final int batchSize,
+			final long pauseMillis) {
+
+		this.executorService = executorService;
+		this.batchSize = batchSize;
+		this.pauseMillis = pauseMillis;
+	}
+
+	@Override
+	public void execute(final @NotNull Runnable task) {
+		tasks.add(task);
+		if (draining.compareAndSet(false, true)) {
+			executorService.execute(this::drain);
+		}
+	}
+
+	private void drain() {
+		for (int i = 0; i < batchSize; i++) {
+			final Runnable task = tasks.poll();
+			if (task == null) {
+				break;
+			}
+			try {
+				task.run();
+			} catch (final Exception e) {
+				log.error("Exception thrown by paced task", e);
+			}
+		}
+		if (!tasks.isEmpty()) {
+			executorService.schedule(this::drain, pauseMillis, TimeUnit.MILLISECONDS);
+			return;
+		}
+		draining.set(false);
+		// a task added after the queue was found empty but before the flag was cleared must not be left behind
+		if (!tasks.isEmpty() && draining.compareAndSet(false, true)) {
+			executorService.execute(this::drain);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.interceptor.puback.PubackInboundInterceptor;
+import com.hivemq.extension.sdk.api.interceptor.puback.parameter.PubackInboundInput;
+import com.hivemq.extension.sdk.api.interceptor.puback.parameter.PubackInboundOutput;
+import com.hivemq.extension.sdk.api.interceptor.pubcomp.PubcompInboundInterceptor;
+import com.hivemq.extension.sdk.api.interceptor.pubcomp.parameter.PubcompInboundInput;
+import com.hivemq.extension.sdk.api.interceptor.pubcomp.parameter.PubcompInboundOutput;
+import com.hivemq.extension.sdk.api.interceptor.publish.PublishOutboundInterceptor;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishOutboundInput;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishOutboundOutput;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+
+/**
+ * Estimates the message queue size of a client between two polls.
+ * <p>
+ * Every outgoing QoS 1 or QoS 2 PUBLISH increments the message queue size of the client, every incoming PUBACK or
+ * PUBCOMP decrements it. This counts the PUBLISHes in flight to the client, not the messages waiting in its
+ * persistent queue, so the estimate is replaced by the message queue size of the REST API on every poll.
+ * Without the REST API, the count is exported as the PUBLISHes in flight and reset by the
+ * {@link ClientServicePoller} when the client is not connected.
+ * One instance is added per selected client and connection.
+ *
+ * @since 4.46.0
+ */
+public class QueueDepthInterceptor
+		implements PublishOutboundInterceptor, PubackInboundInterceptor, PubcompInboundInterceptor {
+
+	private final @NotNull ClientQueueSizeMetrics metrics;
+	private final @NotNull String clientId;
+
+	public QueueDepthInterceptor(final @NotNull ClientQueueSizeMetrics metrics, final @NotNull String clientId) {
+		this.metrics = metrics;
+		this.clientId = clientId;
+	}
+
+	@Override
+	public void onOutboundPublish(
+			final @NotNull PublishOutboundInput publishOutboundInput,
+			final @NotNull PublishOutboundOutput publishOutboundOutput) {
+
+		if (publishOutboundInput.getPublishPacket().getQos() != Qos.AT_MOST_ONCE) {
+			metrics.add(clientId, 1);
+		}
+	}
+
+	@Override
+	public void onInboundPuback(
+			final @NotNull PubackInboundInput pubackInboundInput,
+			final @NotNull PubackInboundOutput pubackInboundOutput) {
+
+		metrics.add(clientId, -1);
+	}
+
+	@Override
+	public void onInboundPubcomp(
+			final @NotNull PubcompInboundInput pubcompInboundInput,
+			final @NotNull PubcompInboundOutput pubcompInboundOutput) {
+
+		metrics.add(clientId, -1);
+	}
+}
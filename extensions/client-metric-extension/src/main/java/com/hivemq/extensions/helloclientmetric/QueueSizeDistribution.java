@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * The distribution of the message queue sizes of the clients of the last poll, exposed as percentiles and buckets.
+ * <p>
+ * During a poll the message queue sizes are recorded by a {@link Recorder} into a fixed number of logarithmic
+ * buckets: values below 8 have a bucket each, above that every power of two is divided into 8 buckets,
+ * so a bucket is at most 12.5 percent wide. The memory used is the same for any number of clients.
+ * When the poll completes, the distribution replaces the previous distribution at once. Recorders can be combined,
+ * so the clients of a poll can be recorded together with the clients that were swept over several polls.
+ * <p>
+ * The metrics under {@code com.hivemq.extensions.client-metric.distribution} are the number of clients, the
+ * 50th, 90th and 99th percentile and the maximum, and the cumulative number of clients per power of two bucket
+ * {@code bucket.le-<upper bound>}.
+ *
+ * @since 4.46.0
+ */
+public class QueueSizeDistribution {
+
+	static final @NotNull String METRIC_PREFIX = "com.hivemq.extensions.client-metric.distribution";
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	private static final int EXPORTED_POWERS_OF_TWO = 24;
+
+	private volatile @NotNull Snapshot snapshot = new Snapshot(new long[BUCKETS], 0, 0);
+
+	public QueueSizeDistribution(final @NotNull MetricRegistry metricRegistry) {
+		metricRegistry.gauge(METRIC_PREFIX + ".count", () -> () -> snapshot.count);
+		metricRegistry.gauge(METRIC_PREFIX + ".max", () -> () -> snapshot.max);
+		metricRegistry.gauge(METRIC_PREFIX + ".p50", () -> () -> snapshot.percentile(0.5));
+		metricRegistry.gauge(METRIC_PREFIX + ".p90", () -> () -> snapshot.percentile(0.9));
+		metricRegistry.gauge(METRIC_PREFIX + ".p99", () -> () -> snapshot.percentile(0.99));
+		for (int power = 0; power <= EXPORTED_POWERS_OF_TWO; power++) {
+			final long upperBound = (1L << power) - 1;
+			metricRegistry.gauge(METRIC_PREFIX + ".bucket.le-" + upperBound,
+					() -> () -> snapshot.countAtMost(upperBound));
+		}
+		metricRegistry.gauge(METRIC_PREFIX + ".bucket.le-inf", () -> () -> snapshot.count);
+	}
+
+	public static void removeMetrics(final @NotNull MetricRegistry metricRegistry) {
+		metricRegistry.removeMatching((name, metric) -> name.startsWith(METRIC_PREFIX + "."));
+	}
+
+	public @NotNull Recorder newRecorder() {
+		return new Recorder();
+	}
+
+	public long count() {
+		return snapshot.count;
+	}
+
+	public long max() {
+		return snapshot.max;
+	}
+
+	/**
+	 * @param quantile between 0 and 1.
+	 * @return the upper bound of the bucket containing the quantile, at most the maximum.
+	 */
+	public long percentile(final double quantile) {
+		return snapshot.percentile(quantile);
+	}
+
+	static int bucket(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) Math.max(0, value);
+		}
+		final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+	}
+
+	static long upperBound(final int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		final int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+		final int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		final long lowerBound = (1L << exponent) + ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+		return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * Records the message queue sizes of a poll. Not thread safe, a poll records its values one after the other.
+	 */
+	public final class Recorder {
+
+		private final @NotNull long[] counts = new long[BUCKETS];
+		private long count;
+		private long max;
+
+		private Recorder() {
+		}
+
+		public void record(final long queueSize) {
+			counts[bucket(queueSize)]++;
+			count++;
+			if (queueSize > max) {
+				max = queueSize;
+			}
+		}
+
+		/**
+		 * Records the message queue sizes of another recorder, which is not changed.
+		 */
+		public void recordAll(final @NotNull Recorder other) {
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				counts[bucket] += other.counts[bucket];
+			}
+			count += other.count;
+			if (other.max > max) {
+				max = other.max;
+			}
+		}
+
+		/**
+		 * Replaces the distribution of the previous poll with the distribution of this recorder.
+		 */
+		public void publish() {
+			snapshot = new Snapshot(counts.clone(), count, max);
+		}
+	}
+
+	private static final class Snapshot {
+
+		private final @NotNull long[] counts;
+		private final long count;
+		private final long max;
+
+		private Snapshot(final @NotNull long[] counts, final long count, final long max) {
+			this.counts = counts;
+			this.count = count;
+			this.max = max;
+		}
+
+		private long percentile(final double quantile) {
+			if (count == 0) {
+				return 0;
+			}
+			final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+			long cumulative = 0;
+			for (int bucket = 0; bucket < counts.length; bucket++) {
+				cumulative += counts[bucket];
+				if (cumulative >= rank) {
+					return Math.min(max, upperBound(bucket));
+				}
+			}
+			return max;
+		}
+
+		private long countAtMost(final long value) {
+			// the exported upper bounds are one below a power of two, so they are always the upper bound of a bucket
+			final int lastBucket = bucket(value);
+			long cumulative = 0;
+			for (int bucket = 0; bucket <= lastBucket; bucket++) {
+				cumulative += counts[bucket];
+			}
+			return cumulative;
+		}
+	}
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A fixed-size ring file of the message queue sizes of every poll, kept in the extension folder for post-mortem
+ * analysis, see {@link QueueSizeHistoryReader} for the export to CSV.
+ * <p>
+ * The file {@code client-metric-history.bin} is memory-mapped. It starts with a header of {@value #HEADER_SIZE}
+ * bytes: the magic number, the record size, the number of records and the sequence number of the next record.
+ * Each record has {@value #RECORD_SIZE} bytes: the timestamp in milliseconds, the slot of the client and the
+ * message queue size, the record with sequence number {@code n} is at index {@code n % records}.
+ * Appending a record only writes into the mapped buffer, it does not allocate and does not touch the heap.
+ * The operating system writes the pages back, so the history survives a restart of HiveMQ.
+ * <p>
+ * The sidecar file {@code client-metric-history.slots} is the dictionary of the slots:
+ * a line {@code <sequence>,<slot>,<Client ID>} is appended when a slot is first recorded for a client,
+ * it applies to all records of the slot from that sequence number on.
+ * When the history is opened, and whenever the dictionary has doubled since it was last compacted, the lines that
+ * no record refers to anymore are removed, so the dictionary does not grow while records are overwritten.
+ *
+ * @since 4.46.0
+ */
+public class QueueSizeHistory implements Closeable {
+
+	static final @NotNull String FILE_NAME = "client-metric-history.bin";
+	static final @NotNull String SLOTS_FILE_NAME = "client-metric-history.slots";
+	static final int MAGIC = 0x51534831;
+	static final int HEADER_SIZE = 32;
+	static final int RECORD_SIZE = 16;
+	static final int RECORD_SIZE_OFFSET = 4;
+	static final int RECORDS_OFFSET = 8;
+	static final int NEXT_SEQUENCE_OFFSET = 16;
+	static final int MAX_RECORDS = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+
+	private static final @NotNull Logger log = LoggerFactory.getLogger(QueueSizeHistory.class);
+	private static final int MIN_COMPACTION_LINES = 1024;
+
+	private final @NotNull MappedByteBuffer buffer;
+	private final int records;
+	private final @NotNull Path slotsFile;
+	private @NotNull Writer slotsWriter;
+	private @NotNull String[] recordedClientIds = new String[0];
+	private long nextSequence;
+	private int slotLines;
+	private int compactionLines;
+	private boolean closed;
+
+	private QueueSizeHistory(
+			final @NotNull MappedByteBuffer buffer,
+			final int records,
+			final long nextSequence,
+			final @NotNull Path slotsFile,
+			final int slotLines) throws IOException {
+
+		this.buffer = buffer;
+		this.records = records;
+		this.nextSequence = nextSequence;
+		this.slotsFile = slotsFile;
+		this.slotLines = slotLines;
+		compactionLines = compactionLines(slotLines);
+		slotsWriter = openSlotsWriter(slotsFile);
+	}
+
+	/**
+	 * Opens the history in the folder. An existing history with the same number of records is continued,
+	 * otherwise a new history is started.
+	 */
+	public static @NotNull QueueSizeHistory open(final @NotNull File folder, final int records) throws IOException {
+		if (records <= 0 || records > MAX_RECORDS) {
+			throw new IllegalArgumentException("Invalid number of history records: " + records);
+		}
+		final Path file = folder.toPath().resolve(FILE_NAME);
+		final Path slotsFile = folder.toPath().resolve(SLOTS_FILE_NAME);
+		final long size = HEADER_SIZE + (long) records * RECORD_SIZE;
+		final MappedByteBuffer buffer;
+		try (final FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			final boolean continued = channel.size() == size;
+			if (!continued) {
+				channel.truncate(0);
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			if (continued && buffer.getInt(0) == MAGIC && buffer.getInt(RECORD_SIZE_OFFSET) == RECORD_SIZE &&
+					buffer.getInt(RECORDS_OFFSET) == records && buffer.getLong(NEXT_SEQUENCE_OFFSET) >= 0) {
+				final long nextSequence = buffer.getLong(NEXT_SEQUENCE_OFFSET);
+				final int slotLines = compactSlots(slotsFile, Math.max(0, nextSequence - records));
+				log.info("Continuing the message queue size history {} at record {}.", file, nextSequence);
+				return new QueueSizeHistory(buffer, records, nextSequence, slotsFile, slotLines);
+			}
+		}
+		log.info("Starting a new message queue size history {} with {} records.", file, records);
+		Files.deleteIfExists(slotsFile);
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+		buffer.putInt(RECORDS_OFFSET, records);
+		buffer.putLong(NEXT_SEQUENCE_OFFSET, 0);
+		return new QueueSizeHistory(buffer, records, 0, slotsFile, 0);
+	}
+
+	private static @NotNull Writer openSlotsWriter(final @NotNull Path slotsFile) throws IOException {
+		return Files.newBufferedWriter(slotsFile,
+				StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Removes the lines of the slot dictionary that are superseded before the oldest record: a line is superseded if
+	 * the next line of the same slot applies from the oldest record on or earlier.
+	 *
+	 * @return the number of retained lines.
+	 */
+	static int compactSlots(final @NotNull Path slotsFile, final long oldestSequence) throws IOException {
+		if (!Files.isRegularFile(slotsFile)) {
+			return 0;
+		}
+		final List<QueueSizeHistoryReader.SlotAssignment> assignments =
+				QueueSizeHistoryReader.readSlotAssignments(slotsFile);
+		// a single pass from the last line to the first, remembering the sequence of the next line of every slot
+		final boolean[] superseded = new boolean[assignments.size()];
+		final Map<Integer, Long> nextSequences = new HashMap<>();
+		int retained = 0;
+		for (int i = assignments.size() - 1; i >= 0; i--) {
+			final QueueSizeHistoryReader.SlotAssignment assignment = assignments.get(i);
+			final Long nextSequence = nextSequences.put(assignment.slot, assignment.sequence);
+			superseded[i] = nextSequence != null && nextSequence <= oldestSequence;
+			if (!superseded[i]) {
+				retained++;
+			}
+		}
+		if (retained == assignments.size()) {
+			return retained;
+		}
+		final Path compacted = slotsFile.resolveSibling(SLOTS_FILE_NAME + ".tmp");
+		try (final Writer writer = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+			for (int i = 0; i < assignments.size(); i++) {
+				if (!superseded[i]) {
+					final QueueSizeHistoryReader.SlotAssignment assignment = assignments.get(i);
+					writeSlotAssignment(writer, assignment.sequence, assignment.slot, assignment.clientId);
+				}
+			}
+		}
+		Files.move(compacted, slotsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return retained;
+	}
+
+	private static int compactionLines(final int slotLines) {
+		return 2 * Math.max(MIN_COMPACTION_LINES, slotLines);
+	}
+
+	/**
+	 * Compacts the slot dictionary while the history is written. This happens whenever the number of lines has
+	 * doubled, so reading and rewriting the dictionary costs a constant amount per appended line.
+	 */
+	private void compactSlotsWhileAppending() throws IOException {
+		slotsWriter.close();
+		try {
+			slotLines = compactSlots(slotsFile, Math.max(0, nextSequence - records));
+		} finally {
+			slotsWriter = openSlotsWriter(slotsFile);
+		}
+		compactionLines = compactionLines(slotLines);
+	}
+
+	/**
+	 * Appends a record for every client of the store.
+	 * Only a client that was not recorded in its slot before adds a line to the slot dictionary.
+	 */
+	public synchronized void append(final @NotNull ClientQueueSizeStore store, final long timestampMillis) {
+		if (closed) {
+			return;
+		}
+		if (recordedClientIds.length < store.capacity()) {
+			recordedClientIds = new String[store.capacity()];
+		}
+		boolean slotsChanged = false;
+		try {
+			for (int slot = 0; slot < store.capacity(); slot++) {
+				final String clientId = store.clientId(slot);
+				if (clientId == null) {
+					continue;
+				}
+				if (!clientId.equals(recordedClientIds[slot])) {
+					writeSlotAssignment(slotsWriter, nextSequence, slot, clientId);
+					recordedClientIds[slot] = clientId;
+					slotLines++;
+					slotsChanged = true;
+				}
+				final int position = HEADER_SIZE + (int) (nextSequence % records) * RECORD_SIZE;
+				buffer.putLong(position, timestampMillis);
+				buffer.putInt(position + 8, slot);
+				buffer.putInt(position + 12, (int) Math.min(Integer.MAX_VALUE, store.get(slot)));
+				nextSequence++;
+			}
+			if (slotsChanged) {
+				slotsWriter.flush();
+				if (slotLines >= compactionLines) {
+					compactSlotsWhileAppending();
+				}
+			}
+		} catch (final IOException e) {
+			log.error("Could not write the slot dictionary of the message queue size history.", e);
+		} finally {
+			buffer.putLong(NEXT_SEQUENCE_OFFSET, nextSequence);
+		}
+	}
+
+	private static void writeSlotAssignment(
+			final @NotNull Writer writer,
+			final long sequence,
+			final int slot,
+			final @NotNull String clientId) throws IOException {
+
+		writer.write(Long.toString(sequence));
+		writer.write(',');
+		writer.write(Integer.toString(slot));
+		writer.write(',');
+		writer.write(QueueSizeHistoryReader.escape(clientId));
+		writer.write('\n');
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		buffer.force();
+		try {
+			slotsWriter.close();
+		} catch (final IOException e) {
+			log.error("Could not close the slot dictionary of the message queue size history.", e);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports the message queue size history written by {@link QueueSizeHistory} as CSV with the columns
+ * {@code timestamp,client_id,message_queue_size}, oldest record first.
+ * <p>
+ * It only needs the JDK, so it can be run from the extension jar while HiveMQ is running or after a crash:
+ * <pre>
+ * java -cp &lt;extension jar&gt; com.hivemq.extensions.helloclientmetric.QueueSizeHistoryReader &lt;extension folder&gt; history.csv
+ * </pre>
+ * Without the second argument the CSV is written to the standard output.
+ *
+ * @since 4.46.0
+ */
+public class QueueSizeHistoryReader {
+
+	public static void main(final @NotNull String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: QueueSizeHistoryReader <extension folder> [<csv file>]");
+			System.exit(1);
+		}
+		final File folder = new File(args[0]);
+		if (args.length == 2) {
+			try (final Writer writer = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+				exportCsv(folder, writer);
+			}
+		} else {
+			final Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+			exportCsv(folder, writer);
+			writer.flush();
+		}
+	}
+
+	public static void exportCsv(final @NotNull File folder, final @NotNull Writer writer) throws IOException {
+		final ByteBuffer buffer;
+		try (final FileChannel channel =
+				     FileChannel.open(folder.toPath().resolve(QueueSizeHistory.FILE_NAME), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.limit() < QueueSizeHistory.HEADER_SIZE || buffer.getInt(0) != QueueSizeHistory.MAGIC ||
+				buffer.getInt(QueueSizeHistory.RECORD_SIZE_OFFSET) != QueueSizeHistory.RECORD_SIZE) {
+			throw new IOException("Not a message queue size history: " + folder);
+		}
+		final int records = buffer.getInt(QueueSizeHistory.RECORDS_OFFSET);
+		if (buffer.limit() != QueueSizeHistory.HEADER_SIZE + (long) records * QueueSizeHistory.RECORD_SIZE) {
+			throw new IOException("Truncated message queue size history: " + folder);
+		}
+		final long nextSequence = buffer.getLong(QueueSizeHistory.NEXT_SEQUENCE_OFFSET);
+		final Path slotsFile = folder.toPath().resolve(QueueSizeHistory.SLOTS_FILE_NAME);
+		final List<SlotAssignment> assignments =
+				Files.isRegularFile(slotsFile) ? readSlotAssignments(slotsFile) : List.of();
+
+		writer.write("timestamp,client_id,message_queue_size\n");
+		final Map<Integer, String> clientIds = new HashMap<>();
+		int assignment = 0;
+		for (long sequence = Math.max(0, nextSequence - records); sequence < nextSequence; sequence++) {
+			while (assignment < assignments.size() && assignments.get(assignment).sequence <= sequence) {
+				clientIds.put(assignments.get(assignment).slot, assignments.get(assignment).clientId);
+				assignment++;
+			}
+			final int position =
+					QueueSizeHistory.HEADER_SIZE + (int) (sequence % records) * QueueSizeHistory.RECORD_SIZE;
+			final long timestampMillis = buffer.getLong(position);
+			final int slot = buffer.getInt(position + 8);
+			final int queueSize = buffer.getInt(position + 12);
+			final String clientId = clientIds.getOrDefault(slot, "slot-" + slot);
+			writer.write(Instant.ofEpochMilli(timestampMillis).toString());
+			writer.write(',');
+			writer.write(csvField(clientId));
+			writer.write(',');
+			writer.write(Integer.toString(queueSize));
+			writer.write('\n');
+		}
+	}
+
+	/**
+	 * Reads the lines {@code <sequence>,<slot>,<escaped Client ID>} of the slot dictionary in their order.
+	 * Incomplete lines, for example after a crash while appending, are skipped.
+	 */
+	static @NotNull List<SlotAssignment> readSlotAssignments(final @NotNull Path slotsFile) throws IOException {
+		final List<SlotAssignment> assignments = new ArrayList<>();
+		for (final String line : Files.readAllLines(slotsFile, StandardCharsets.UTF_8)) {
+			final int first = line.indexOf(',');
+			final int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+			if (second < 0) {
+				continue;
+			}
+			try {
+				assignments.add(new SlotAssignment(Long.parseLong(line.substring(0, first)),
+						Integer.parseInt(line.substring(first + 1, second)),
+						unescape(line.substring(second + 1))));
+			} catch (final NumberFormatException ignored) {
+			}
+		}
+		return assignments;
+	}
+
+	/**
+	 * Escapes backslashes and line breaks, so every Client ID fits on a single line of the slot dictionary.
+	 */
+	static @NotNull String escape(final @NotNull String clientId) {
+		if (clientId.indexOf('\\') < 0 && clientId.indexOf('\n') < 0 && clientId.indexOf('\r') < 0) {
+			return clientId;
+		}
+		return clientId.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	static @NotNull String unescape(final @NotNull String escaped) {
+		if (escaped.indexOf('\\') < 0) {
+			return escaped;
+		}
+		final StringBuilder builder = new StringBuilder(escaped.length());
+		for (int i = 0; i < escaped.length(); i++) {
+			final char c = escaped.charAt(i);
+			if (c == '\\' && i + 1 < escaped.length()) {
+				final char next = escaped.charAt(++i);
+				builder.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+			} else {
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+
+	private static @NotNull String csvField(final @NotNull String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 &&
+				value.indexOf('\r') < 0) {
+			return value;
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	static final class SlotAssignment {
+
+		final long sequence;
+		final int slot;
+		final @NotNull String clientId;
+
+		SlotAssignment(final long sequence, final int slot, final @NotNull String clientId) {
+			this.sequence = sequence;
+			this.slot = slot;
+			this.clientId = clientId;
+		}
+	}
+}
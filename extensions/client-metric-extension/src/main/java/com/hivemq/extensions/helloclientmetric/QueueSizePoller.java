@@ -0,0 +1,36 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Updates the message queue sizes of the selected clients, scheduled by the {@link AdaptivePollScheduler}.
+ *
+ * @since 4.46.0
+ */
+public interface QueueSizePoller {
+
+	/**
+	 * Starts a poll unless the previous poll is still running.
+	 *
+	 * @return a future that completes with {@code true} when all message queue sizes were updated, or with
+	 * {@code false} if the poll failed partially or was skipped.
+	 */
+	@NotNull CompletableFuture<Boolean> poll();
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The last known message queue sizes, written to the file {@code client-metric-snapshot.bin} in the extension folder
+ * when the extension stops and restored when it starts, so the metrics do not read 0 until the first poll.
+ * <p>
+ * The file contains the magic number, the time the snapshot was written and the number of clients,
+ * followed by the Client ID and the message queue size of every client.
+ * It is written to a temporary file first and then moved, so a crash never leaves a partial snapshot behind.
+ *
+ * @since 4.46.0
+ */
+public class QueueSizeSnapshot {
+
+	static final @NotNull String FILE_NAME = "client-metric-snapshot.bin";
+
+	private static final @NotNull Logger log = LoggerFactory.getLogger(QueueSizeSnapshot.class);
+	private static final int MAGIC = 0x51535331;
+
+	private QueueSizeSnapshot() {
+	}
+
+	public static void write(
+			final @NotNull File folder,
+			final @NotNull ClientQueueSizeStore store,
+			final long timestampMillis) {
+
+		final Path file = folder.toPath().resolve(FILE_NAME);
+		final Path temporaryFile = file.resolveSibling(FILE_NAME + ".tmp");
+		final int size = store.size();
+		int clients = 0;
+		try (final DataOutputStream output =
+				     new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+			output.writeInt(MAGIC);
+			output.writeLong(timestampMillis);
+			output.writeInt(size);
+			for (int slot = 0; slot < store.capacity() && clients < size; slot++) {
+				final String clientId = store.clientId(slot);
+				if (clientId != null) {
+					output.writeUTF(clientId);
+					output.writeLong(store.get(slot));
+					clients++;
+				}
+			}
+		} catch (final IOException e) {
+			log.error("Could not write the message queue size snapshot {}.", temporaryFile, e);
+			return;
+		}
+		try {
+			if (clients != size) {
+				log.warn("The clients changed while writing the message queue size snapshot, no snapshot is written.");
+				Files.delete(temporaryFile);
+				return;
+			}
+			Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.debug("Wrote the message queue sizes of {} clients to {}.", clients, file);
+		} catch (final IOException e) {
+			log.error("Could not write the message queue size snapshot {}.", file, e);
+		}
+	}
+
+	/**
+	 * Restores the message queue sizes of the selected clients from the snapshot, if it is not older than the
+	 * maximum age. An incomplete snapshot restores no client. The snapshot is deleted afterwards, so an outdated
+	 * snapshot is never restored twice.
+	 *
+	 * @return the number of restored clients, or {@code -1} if no snapshot was restored.
+	 */
+	public static int restore(
+			final @NotNull File folder,
+			final @NotNull ClientQueueSizeMetrics metrics,
+			final @NotNull ClientMetricConfiguration configuration,
+			final long nowMillis) {
+
+		final Path file = folder.toPath().resolve(FILE_NAME);
+		if (!Files.isRegularFile(file)) {
+			return -1;
+		}
+		try (final DataInputStream input =
+				     new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (input.readInt() != MAGIC) {
+				log.warn("Ignoring the message queue size snapshot {}, it has an unknown format.", file);
+				return -1;
+			}
+			final long ageMillis = nowMillis - input.readLong();
+			if (ageMillis > configuration.getSnapshotMaxAgeSeconds() * 1000) {
+				log.info("Ignoring the message queue size snapshot {}, it is {} seconds old.", file, ageMillis / 1000);
+				return -1;
+			}
+			final int clients = input.readInt();
+			// the selected clients are only registered once the whole snapshot was read
+			final List<String> clientIds = new ArrayList<>();
+			final List<Long> queueSizes = new ArrayList<>();
+			for (int i = 0; i < clients; i++) {
+				final String clientId = input.readUTF();
+				final long queueSize = input.readLong();
+				if (configuration.isSelected(clientId)) {
+					clientIds.add(clientId);
+					queueSizes.add(queueSize);
+				}
+			}
+			int restored = 0;
+			for (int i = 0; i < clientIds.size(); i++) {
+				if (metrics.register(clientIds.get(i))) {
+					metrics.update(clientIds.get(i), queueSizes.get(i));
+					restored++;
+				}
+			}
+			log.info("Restored the message queue sizes of {} clients from {}.", restored, file);
+			return restored;
+		} catch (final EOFException e) {
+			log.warn("Ignoring the message queue size snapshot {}, it is incomplete.", file);
+			return -1;
+		} catch (final IOException e) {
+			log.error("Could not read the message queue size snapshot {}.", file, e);
+			return -1;
+		} finally {
+			try {
+				Files.deleteIfExists(file);
+			} catch (final IOException e) {
+				log.warn("Could not delete the message queue size snapshot {}.", file, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.util.Objects;
+
+/**
+ * The clients with the largest message queue sizes of the last poll, exposed under stable metric names.
+ * <p>
+ * For every rank from 1 to K the metric {@code com.hivemq.extensions.client-metric.top.rank-<rank>.message-queue-size}
+ * is registered once. The Client ID at the rank is part of the name of a second metric
+ * {@code com.hivemq.extensions.client-metric.top.rank-<rank>.client.<client id>} with the same value, which is
+ * replaced when another client takes the rank. Reporters like the Prometheus extension drop gauges with string
+ * values, so the Client ID can not be the value of a metric. At most 2 * K metrics are registered at a time,
+ * regardless of the number of clients.
+ * <p>
+ * During a poll the message queue sizes are offered to a {@link Collector}, which keeps the K largest in a bounded
+ * min-heap of primitive arrays. When the poll completes, the ranking replaces the previous ranking at once.
+ *
+ * @since 4.46.0
+ */
+public class TopQueueSizes {
+
+	static final @NotNull String METRIC_PREFIX = "com.hivemq.extensions.client-metric.top";
+
+	private final int size;
+	private final @NotNull MetricRegistry metricRegistry;
+	private final @Nullable String[] clientMetricNames;
+	private volatile @NotNull Ranking ranking;
+
+	public TopQueueSizes(final int size, final @NotNull MetricRegistry metricRegistry) {
+		this.size = size;
+		this.metricRegistry = metricRegistry;
+		clientMetricNames = new String[size];
+		ranking = new Ranking(new String[0], new long[0]);
+		for (int i = 0; i < size; i++) {
+			final int rank = i;
+			metricRegistry.gauge(METRIC_PREFIX + ".rank-" + (rank + 1) + ".message-queue-size",
+					() -> () -> ranking.queueSize(rank));
+		}
+	}
+
+	public static void removeMetrics(final @NotNull MetricRegistry metricRegistry) {
+		metricRegistry.removeMatching((name, metric) -> name.startsWith(METRIC_PREFIX + "."));
+	}
+
+	public @NotNull Collector newCollector() {
+		return new Collector(size);
+	}
+
+	/**
+	 * @return the Client ID at the rank, starting at 0, or an empty string if there is no client at the rank.
+	 */
+	public @NotNull String clientId(final int rank) {
+		return ranking.clientId(rank);
+	}
+
+	public long queueSize(final int rank) {
+		return ranking.queueSize(rank);
+	}
+
+	/**
+	 * @return the name of the metric of the client at the rank, starting at 0.
+	 */
+	static @NotNull String clientMetricName(final int rank, final @NotNull String clientId) {
+		return METRIC_PREFIX + ".rank-" + (rank + 1) + ".client." + clientId;
+	}
+
+	/**
+	 * Replaces the metrics of the ranks that another client took, the other metrics are kept.
+	 */
+	private synchronized void publish(final @NotNull Ranking ranking) {
+		this.ranking = ranking;
+		for (int i = 0; i < size; i++) {
+			final int rank = i;
+			final String name =
+					rank < ranking.clientIds.length ? clientMetricName(rank, ranking.clientIds[rank]) : null;
+			final String previousName = clientMetricNames[rank];
+			if (Objects.equals(name, previousName)) {
+				continue;
+			}
+			if (previousName != null) {
+				metricRegistry.remove(previousName);
+			}
+			if (name != null) {
+				metricRegistry.gauge(name, () -> () -> this.ranking.queueSize(rank));
+			}
+			clientMetricNames[rank] = name;
+		}
+	}
+
+	/**
+	 * Collects the K largest message queue sizes of a poll. Not thread safe, a poll offers its values one after
+	 * the other.
+	 */
+	public final class Collector {
+
+		private final @NotNull String[] clientIds;
+		private final @NotNull long[] queueSizes;
+		private int count;
+
+		private Collector(final int size) {
+			clientIds = new String[size];
+			queueSizes = new long[size];
+		}
+
+		public void offer(final @NotNull String clientId, final long queueSize) {
+			if (count < queueSizes.length) {
+				clientIds[count] = clientId;
+				queueSizes[count] = queueSize;
+				siftUp(count++);
+			} else if (count > 0 && queueSize > queueSizes[0]) {
+				clientIds[0] = clientId;
+				queueSizes[0] = queueSize;
+				siftDown(0);
+			}
+		}
+
+		/**
+		 * Offers the message queue sizes of another collector, which is not changed.
+		 */
+		public void offerAll(final @NotNull Collector other) {
+			for (int i = 0; i < other.count; i++) {
+				offer(other.clientIds[i], other.queueSizes[i]);
+			}
+		}
+
+		/**
+		 * Replaces the ranking of the previous poll with the ranking of this collector.
+		 */
+		public void publish() {
+			final String[] rankedClientIds = new String[count];
+			final long[] rankedQueueSizes = new long[count];
+			// removing the minimum repeatedly fills the ranking from the last rank to the first
+			for (int i = count - 1; i >= 0; i--) {
+				rankedClientIds[i] = clientIds[0];
+				rankedQueueSizes[i] = queueSizes[0];
+				count--;
+				clientIds[0] = clientIds[count];
+				queueSizes[0] = queueSizes[count];
+				clientIds[count] = null;
+				siftDown(0);
+			}
+			TopQueueSizes.this.publish(new Ranking(rankedClientIds, rankedQueueSizes));
+		}
+
+		private void siftUp(int index) {
+			while (index > 0) {
+				final int parent = (index - 1) >>> 1;
+				if (queueSizes[parent] <= queueSizes[index]) {
+					return;
+				}
+				swap(parent, index);
+				index = parent;
+			}
+		}
+
+		private void siftDown(int index) {
+			while (true) {
+				final int left = 2 * index + 1;
+				if (left >= count) {
+					return;
+				}
+				final int right = left + 1;
+				final int smallest = right < count && queueSizes[right] < queueSizes[left] ? right : left;
+				if (queueSizes[index] <= queueSizes[smallest]) {
+					return;
+				}
+				swap(index, smallest);
+				index = smallest;
+			}
+		}
+
+		private void swap(final int i, final int j) {
+			final String clientId = clientIds[i];
+			clientIds[i] = clientIds[j];
+			clientIds[j] = clientId;
+			final long queueSize = queueSizes[i];
+			queueSizes[i] = queueSizes[j];
+			queueSizes[j] = queueSize;
+		}
+	}
+
+	private static final class Ranking {
+
+		private final @NotNull String[] clientIds;
+		private final @NotNull long[] queueSizes;
+
+		private Ranking(final @NotNull String[] clientIds, final @NotNull long[] queueSizes) {
+			this.clientIds = clientIds;
+			this.queueSizes = queueSizes;
+		}
+
+		private @NotNull String clientId(final int rank) {
+			return rank < clientIds.length ? clientIds[rank] : "";
+		}
+
+		private long queueSize(final int rank) {
+			return rank < queueSizes.length ? queueSizes[rank] : 0;
+		}
+	}
+}
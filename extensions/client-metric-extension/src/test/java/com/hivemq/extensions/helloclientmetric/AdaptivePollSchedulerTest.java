@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.MetricRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AdaptivePollSchedulerTest {
+
+	private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+	private final @NotNull ScheduledExecutorService executorService = mock(ScheduledExecutorService.class);
+	private final @NotNull List<Runnable> scheduledPolls = new ArrayList<>();
+	private final @NotNull ClientQueueSizeMetrics metrics = new ClientQueueSizeMetrics(metricRegistry, Set.of(), 16, false);
+
+	@BeforeEach
+	void setUp() {
+		when(executorService.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+			scheduledPolls.add(invocation.getArgument(0));
+			return null;
+		});
+	}
+
+	@Test
+	void poll_succeeds_rescheduledWithConfiguredInterval() {
+		final AdaptivePollScheduler scheduler = scheduler(() -> CompletableFuture.completedFuture(true));
+		scheduler.start(0);
+
+		runLastPoll();
+
+		assertEquals(2, scheduledPolls.size());
+		assertEquals(0, failures());
+		assertEquals(15_000L, intervalMillis());
+	}
+
+	@Test
+	void poll_fails_rescheduledWithDoubledInterval() {
+		final AdaptivePollScheduler scheduler = scheduler(() -> CompletableFuture.completedFuture(false));
+		scheduler.start(0);
+
+		runLastPoll();
+		runLastPoll();
+
+		assertEquals(3, scheduledPolls.size());
+		assertEquals(2, failures());
+		assertEquals(60_000L, intervalMillis());
+	}
+
+	@Test
+	void poll_pollerThrows_countedAsFailedAndRescheduled() {
+		final AdaptivePollScheduler scheduler = scheduler(() -> {
+			throw new IllegalStateException("REST API not configured");
+		});
+		scheduler.start(0);
+
+		runLastPoll();
+
+		assertEquals(2, scheduledPolls.size());
+		assertEquals(1, failures());
+		assertEquals(30_000L, intervalMillis());
+	}
+
+	@Test
+	void poll_futureCompletesExceptionally_countedAsFailedAndRescheduled() {
+		final AdaptivePollScheduler scheduler =
+				scheduler(() -> CompletableFuture.failedFuture(new IllegalStateException("unexpected")));
+		scheduler.start(0);
+
+		runLastPoll();
+
+		assertEquals(2, scheduledPolls.size());
+		assertEquals(1, failures());
+	}
+
+	@Test
+	void stop_noFurtherPollScheduled() {
+		final AdaptivePollScheduler scheduler = scheduler(() -> CompletableFuture.completedFuture(true));
+		scheduler.start(0);
+		scheduler.stop();
+
+		runLastPoll();
+
+		assertEquals(1, scheduledPolls.size());
+	}
+
+	private @NotNull AdaptivePollScheduler scheduler(final @NotNull QueueSizePoller poller) {
+		final ClientMetricConfiguration configuration = new ClientMetricConfiguration(new Properties());
+		return new AdaptivePollScheduler(poller, metrics, configuration, executorService, metricRegistry);
+	}
+
+	private void runLastPoll() {
+		scheduledPolls.get(scheduledPolls.size() - 1).run();
+	}
+
+	private long failures() {
+		return metricRegistry.counter(AdaptivePollScheduler.METRIC_PREFIX + ".failures").getCount();
+	}
+
+	private long intervalMillis() {
+		return (long) metricRegistry.getGauges().get(AdaptivePollScheduler.METRIC_PREFIX + ".interval-millis").getValue();
+	}
+}
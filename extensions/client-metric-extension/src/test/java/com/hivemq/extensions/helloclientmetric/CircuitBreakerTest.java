@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+
+	private static final long OPEN_NANOS = 1_000;
+
+	private final @NotNull CircuitBreaker circuitBreaker = new CircuitBreaker(3, OPEN_NANOS);
+
+	@Test
+	void onFailure_belowThreshold_staysClosed() {
+		circuitBreaker.onFailure(0);
+		circuitBreaker.onFailure(1);
+
+		assertTrue(circuitBreaker.allowRequest(2));
+		assertFalse(circuitBreaker.isOpen(2));
+	}
+
+	@Test
+	void onFailure_thresholdReached_opensForOpenTime() {
+		failThreeTimes(100);
+
+		assertTrue(circuitBreaker.isOpen(100));
+		assertFalse(circuitBreaker.allowRequest(100 + OPEN_NANOS - 1));
+		assertTrue(circuitBreaker.allowRequest(100 + OPEN_NANOS));
+	}
+
+	@Test
+	void onSuccess_resetsConsecutiveFailures() {
+		circuitBreaker.onFailure(0);
+		circuitBreaker.onFailure(1);
+		circuitBreaker.onSuccess();
+		circuitBreaker.onFailure(2);
+		circuitBreaker.onFailure(3);
+
+		assertTrue(circuitBreaker.allowRequest(4));
+	}
+
+	@Test
+	void trialPoll_fails_opensAgainRightAway() {
+		failThreeTimes(0);
+		final long trial = OPEN_NANOS;
+		assertTrue(circuitBreaker.allowRequest(trial));
+
+		circuitBreaker.onFailure(trial);
+
+		assertTrue(circuitBreaker.isOpen(trial));
+		assertTrue(circuitBreaker.allowRequest(trial + OPEN_NANOS));
+	}
+
+	@Test
+	void trialPoll_succeeds_closes() {
+		failThreeTimes(0);
+
+		circuitBreaker.onSuccess();
+
+		assertFalse(circuitBreaker.isOpen(1));
+		circuitBreaker.onFailure(2);
+		assertTrue(circuitBreaker.allowRequest(3));
+	}
+
+	@Test
+	void allowRequest_nanoTimeOverflow_comparedByDifference() {
+		final long beforeOverflow = Long.MAX_VALUE - OPEN_NANOS / 2;
+		failThreeTimes(beforeOverflow);
+
+		assertTrue(circuitBreaker.isOpen(beforeOverflow + 1));
+		assertTrue(circuitBreaker.allowRequest(beforeOverflow + OPEN_NANOS));
+	}
+
+	private void failThreeTimes(final long nowNanos) {
+		for (int i = 0; i < 3; i++) {
+			circuitBreaker.onFailure(nowNanos);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientMetricConfigurationTest {
+
+	@Test
+	void defaults_eventsOff_pollIntervalUsed() {
+		final ClientMetricConfiguration configuration = new ClientMetricConfiguration(new Properties());
+
+		assertFalse(configuration.isEventTracking());
+		assertEquals(15, configuration.getPollIntervalSeconds());
+		assertFalse(configuration.isSweep());
+	}
+
+	@Test
+	void eventsEnabled_reconcileIntervalUsed() {
+		final Properties properties = new Properties();
+		properties.setProperty("events.enabled", "true");
+		properties.setProperty("poll.reconcile-interval-seconds", "600");
+
+		final ClientMetricConfiguration configuration = new ClientMetricConfiguration(properties);
+
+		assertTrue(configuration.isEventTracking());
+		assertEquals(600, configuration.getPollIntervalSeconds());
+	}
+
+	@Test
+	void initialDelayZero_accepted() {
+		final Properties properties = new Properties();
+		properties.setProperty("poll.initial-delay-seconds", "0");
+
+		final ClientMetricConfiguration configuration = new ClientMetricConfiguration(properties);
+
+		assertEquals(0, configuration.getInitialDelaySeconds());
+	}
+
+	@Test
+	void negativeValues_defaultUsed() {
+		final Properties properties = new Properties();
+		properties.setProperty("poll.initial-delay-seconds", "-1");
+		properties.setProperty("poll.interval-seconds", "0");
+
+		final ClientMetricConfiguration configuration = new ClientMetricConfiguration(properties);
+
+		assertEquals(120, configuration.getInitialDelaySeconds());
+		assertEquals(15, configuration.getPollIntervalSeconds());
+	}
+
+	@Test
+	void clientServiceSource_eventsAlwaysOn() {
+		final Properties properties = new Properties();
+		properties.setProperty("source", "client-service");
+		properties.setProperty("events.enabled", "false");
+
+		final ClientMetricConfiguration configuration = new ClientMetricConfiguration(properties);
+
+		assertTrue(configuration.isEventTracking());
+		assertEquals(300, configuration.getPollIntervalSeconds());
+	}
+}
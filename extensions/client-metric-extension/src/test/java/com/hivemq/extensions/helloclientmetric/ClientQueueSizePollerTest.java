@@ -0,0 +1,336 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientQueueSizePollerTest {
+
+	private final @NotNull FleetDispatcher fleet1 = new FleetDispatcher();
+	private final @NotNull FleetDispatcher fleet2 = new FleetDispatcher();
+	private final @NotNull MockWebServer node1 = new MockWebServer();
+	private final @NotNull MockWebServer node2 = new MockWebServer();
+	private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+	private @Nullable OkHttpClient httpClient;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		node1.setDispatcher(fleet1);
+		node2.setDispatcher(fleet2);
+		node1.start();
+		node2.start();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		if (httpClient != null) {
+			httpClient.dispatcher().executorService().shutdown();
+			httpClient.connectionPool().evictAll();
+		}
+		node1.shutdown();
+		node2.shutdown();
+	}
+
+	@Test
+	void poll_clientOnTwoNodes_maximumIsUsed() throws Exception {
+		fleet1.putClient("client-a", 3);
+		fleet2.putClient("client-a", 7);
+		fleet2.putClient("client-b", 2);
+		final ClientQueueSizePoller poller = createPoller(properties("max"));
+
+		assertTrue(poll(poller));
+
+		assertEquals(7L, gaugeValue("com.hivemq.client-a.message-queue-size"));
+		assertEquals(2L, gaugeValue("com.hivemq.client-b.message-queue-size"));
+	}
+
+	@Test
+	void poll_clientOnTwoNodes_sumIsUsed() throws Exception {
+		fleet1.putClient("client-a", 3);
+		fleet2.putClient("client-a", 7);
+		final ClientQueueSizePoller poller = createPoller(properties("sum"));
+
+		assertTrue(poll(poller));
+
+		assertEquals(10L, gaugeValue("com.hivemq.client-a.message-queue-size"));
+	}
+
+	@Test
+	void poll_listingWithSeveralPages_allPagesAreRead() throws Exception {
+		for (int i = 0; i < 25; i++) {
+			fleet1.putClient("client-" + i, i);
+		}
+		fleet1.putClient("other", 1000);
+		final Properties properties = sweepProperties("max");
+		properties.setProperty("api.urls", node1.url("/api/v1/mqtt/clients").toString());
+		properties.setProperty("api.page-size", "10");
+		final ClientQueueSizePoller poller = createPoller(properties);
+
+		assertTrue(poll(poller));
+		assertTrue(poll(poller));
+
+		for (int i = 0; i < 25; i++) {
+			assertEquals((long) i, gaugeValue("com.hivemq.client-" + i + ".message-queue-size"));
+		}
+		assertNull(metricRegistry.getGauges().get("com.hivemq.other.message-queue-size"));
+		assertEquals("other", rankedClientId(1));
+		assertEquals("client-24", rankedClientId(2));
+		assertEquals(26L, gaugeValue(QueueSizeDistribution.METRIC_PREFIX + ".count"));
+	}
+
+	@Test
+	void poll_moreSelectedClientsThanDetailRequests_requestedInTurns() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			fleet1.putClient("client-" + i, i + 1);
+		}
+		final Properties properties = properties("max");
+		properties.setProperty("api.urls", node1.url("/api/v1/mqtt/clients").toString());
+		properties.setProperty("api.max-detail-requests", "2");
+		final ClientQueueSizePoller poller = createPoller(properties);
+
+		assertTrue(poll(poller));
+		assertEquals(2, fleet1.getDetailRequestCount());
+		assertEquals(1L, gaugeValue("com.hivemq.client-0.message-queue-size"));
+		assertEquals(2L, gaugeValue("com.hivemq.client-1.message-queue-size"));
+		assertEquals(0L, gaugeValue("com.hivemq.client-4.message-queue-size"));
+
+		fleet1.putClient("client-0", 10);
+		assertTrue(poll(poller));
+		assertTrue(poll(poller));
+
+		assertEquals(6, fleet1.getDetailRequestCount());
+		for (int i = 1; i < 5; i++) {
+			assertEquals((long) i + 1, gaugeValue("com.hivemq.client-" + i + ".message-queue-size"));
+		}
+		// the third poll wrapped around to client-0
+		assertEquals(10L, gaugeValue("com.hivemq.client-0.message-queue-size"));
+		assertEquals("client-0", rankedClientId(1));
+		assertEquals("client-4", rankedClientId(2));
+		assertEquals(5L, gaugeValue(QueueSizeDistribution.METRIC_PREFIX + ".count"));
+	}
+
+	@Test
+	void poll_detailRequestsInTurnsOnTwoNodes_sameClientsSummed() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			fleet1.putClient("client-" + i, 1);
+			fleet2.putClient("client-" + i, 2);
+		}
+		final Properties properties = properties("sum");
+		properties.setProperty("api.max-detail-requests", "1");
+		final ClientQueueSizePoller poller = createPoller(properties);
+
+		for (int i = 0; i < 3; i++) {
+			assertTrue(poll(poller));
+			assertEquals(i + 1, fleet1.getDetailRequestCount());
+			assertEquals(i + 1, fleet2.getDetailRequestCount());
+		}
+
+		for (int i = 0; i < 3; i++) {
+			assertEquals(3L, gaugeValue("com.hivemq.client-" + i + ".message-queue-size"));
+		}
+	}
+
+	@Test
+	void poll_unselectedClients_sweptInPartitionsWithinRequestBudget() throws Exception {
+		fleet1.putClient("client-a", 5);
+		for (int i = 0; i < 6; i++) {
+			fleet1.putClient("other-" + i, 100 + i);
+		}
+		final Properties properties = sweepProperties("max");
+		properties.setProperty("api.urls", node1.url("/api/v1/mqtt/clients").toString());
+		properties.setProperty("sweep.requests-per-poll", "2");
+		final ClientQueueSizePoller poller = createPoller(properties);
+
+		// the first poll learns the number of clients, the next 3 polls sweep 3 partitions
+		for (int i = 0; i < 4; i++) {
+			assertTrue(poll(poller));
+		}
+
+		assertEquals("other-5", rankedClientId(1));
+		assertEquals(105L, gaugeValue(TopQueueSizes.METRIC_PREFIX + ".rank-1.message-queue-size"));
+		assertEquals("client-a", rankedClientId(7));
+		assertEquals(7L, gaugeValue(QueueSizeDistribution.METRIC_PREFIX + ".count"));
+		// every unselected client was requested exactly once, the selected client once per poll
+		assertEquals(6 + 4, fleet1.getDetailRequestCount());
+		assertNull(metricRegistry.getGauges().get("com.hivemq.other-5.message-queue-size"));
+	}
+
+	@Test
+	void poll_unselectedClient_changesDistribution() throws Exception {
+		fleet1.putClient("client-a", 3);
+		fleet1.putClient("other", 5000);
+		final ClientQueueSizePoller poller = createPoller(sweepProperties("max"));
+
+		assertTrue(poll(poller));
+		assertEquals(1L, gaugeValue(QueueSizeDistribution.METRIC_PREFIX + ".bucket.le-4095"));
+		assertEquals(1L, gaugeValue(QueueSizeDistribution.METRIC_PREFIX + ".bucket.le-8191"));
+
+		assertTrue(poll(poller));
+		assertEquals(1L, gaugeValue(QueueSizeDistribution.METRIC_PREFIX + ".bucket.le-4095"));
+		assertEquals(2L, gaugeValue(QueueSizeDistribution.METRIC_PREFIX + ".bucket.le-8191"));
+		assertEquals(5000L, gaugeValue(QueueSizeDistribution.METRIC_PREFIX + ".max"));
+		assertEquals(2L, gaugeValue(QueueSizeDistribution.METRIC_PREFIX + ".count"));
+	}
+
+	@Test
+	void poll_unselectedClientOnTwoNodes_sumIsRanked() throws Exception {
+		fleet1.putClient("client-a", 5);
+		fleet1.putClient("other", 30);
+		fleet2.putClient("other", 40);
+		final ClientQueueSizePoller poller = createPoller(sweepProperties("sum"));
+
+		assertTrue(poll(poller));
+		assertTrue(poll(poller));
+
+		assertEquals("other", rankedClientId(1));
+		assertEquals(70L, gaugeValue(TopQueueSizes.METRIC_PREFIX + ".rank-1.message-queue-size"));
+		assertEquals(2L, gaugeValue(QueueSizeDistribution.METRIC_PREFIX + ".count"));
+	}
+
+	@Test
+	void poll_nodeFailsDuringSweep_partitionIsNotCounted() throws Exception {
+		fleet1.putClient("client-a", 5);
+		fleet2.putClient("other", 30);
+		final ClientQueueSizePoller poller = createPoller(sweepProperties("max"));
+		assertTrue(poll(poller));
+
+		fleet2.setFailing(true);
+		assertFalse(poll(poller));
+		assertEquals(1L, gaugeValue(QueueSizeDistribution.METRIC_PREFIX + ".count"));
+
+		fleet2.setFailing(false);
+		assertTrue(poll(poller));
+		assertEquals("other", rankedClientId(1));
+		assertEquals(2L, gaugeValue(QueueSizeDistribution.METRIC_PREFIX + ".count"));
+	}
+
+	@Test
+	void poll_sweepDisabledByDefault_onlySelectedClientsRanked() throws Exception {
+		fleet1.putClient("client-a", 5);
+		fleet1.putClient("other", 30);
+		final ClientQueueSizePoller poller = createPoller(properties("max"));
+
+		assertTrue(poll(poller));
+		assertTrue(poll(poller));
+
+		assertEquals("client-a", rankedClientId(1));
+		assertEquals(1L, gaugeValue(QueueSizeDistribution.METRIC_PREFIX + ".count"));
+		assertEquals(2, fleet1.getDetailRequestCount());
+	}
+
+	@Test
+	void poll_clientDisappears_metricIsRemoved() throws Exception {
+		fleet1.putClient("client-a", 3);
+		fleet1.putClient("client-b", 4);
+		final ClientQueueSizePoller poller = createPoller(properties("max"));
+		assertTrue(poll(poller));
+
+		fleet1.removeClient("client-b");
+		assertTrue(poll(poller));
+
+		assertEquals(3L, gaugeValue("com.hivemq.client-a.message-queue-size"));
+		assertNull(metricRegistry.getGauges().get("com.hivemq.client-b.message-queue-size"));
+	}
+
+	@Test
+	void poll_nodeFailsRepeatedly_circuitOpensAndMetricsAreKept() throws Exception {
+		fleet1.putClient("client-a", 3);
+		fleet2.putClient("client-b", 4);
+		final ClientQueueSizePoller poller = createPoller(properties("max"));
+		assertTrue(poll(poller));
+
+		fleet2.setFailing(true);
+		fleet1.putClient("client-a", 5);
+		for (int i = 0; i < 3; i++) {
+			assertFalse(poll(poller));
+		}
+		final int requestsWhileOpen = fleet2.getRequestCount();
+		assertFalse(poll(poller));
+		assertFalse(poll(poller));
+
+		assertEquals(requestsWhileOpen, fleet2.getRequestCount());
+		assertEquals(1, gaugeValue(ClientQueueSizePoller.METRIC_PREFIX + ".open-circuits"));
+		assertEquals(5L, gaugeValue("com.hivemq.client-a.message-queue-size"));
+		assertEquals(4L, gaugeValue("com.hivemq.client-b.message-queue-size"));
+	}
+
+	private @NotNull Properties properties(final @NotNull String merge) {
+		final Properties properties = new Properties();
+		properties.setProperty("api.urls",
+				node1.url("/api/v1/mqtt/clients") + "," + node2.url("/api/v1/mqtt/clients"));
+		properties.setProperty("clients.ids", "");
+		properties.setProperty("clients.prefixes", "client");
+		properties.setProperty("nodes.merge", merge);
+		properties.setProperty("nodes.failure-threshold", "3");
+		properties.setProperty("nodes.open-seconds", "600");
+		return properties;
+	}
+
+	private @NotNull Properties sweepProperties(final @NotNull String merge) {
+		final Properties properties = properties(merge);
+		properties.setProperty("sweep.enabled", "true");
+		return properties;
+	}
+
+	private @NotNull ClientQueueSizePoller createPoller(final @NotNull Properties properties) {
+		final ClientMetricConfiguration configuration = new ClientMetricConfiguration(properties);
+		httpClient = HelloClientMetricMain.createHttpClient(configuration);
+		final ClientQueueSizeMetrics metrics = new ClientQueueSizeMetrics(
+				metricRegistry, configuration.getClientIds(), configuration.getMaxClients(), false);
+		return new ClientQueueSizePoller(configuration,
+				metrics,
+				new TopQueueSizes(configuration.getTopSize(), metricRegistry),
+				new QueueSizeDistribution(metricRegistry),
+				httpClient,
+				metricRegistry);
+	}
+
+	private static boolean poll(final @NotNull ClientQueueSizePoller poller) throws Exception {
+		return poller.poll().get(10, TimeUnit.SECONDS);
+	}
+
+	private @Nullable String rankedClientId(final int rank) {
+		final String prefix = TopQueueSizes.clientMetricName(rank - 1, "");
+		for (final String name : metricRegistry.getGauges().keySet()) {
+			if (name.startsWith(prefix)) {
+				return name.substring(prefix.length());
+			}
+		}
+		return null;
+	}
+
+	private @Nullable Object gaugeValue(final @NotNull String name) {
+		final Gauge<?> gauge = metricRegistry.getGauges().get(name);
+		return gauge == null ? null : gauge.getValue();
+	}
+}
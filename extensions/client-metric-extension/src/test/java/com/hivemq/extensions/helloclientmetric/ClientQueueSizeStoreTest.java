@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientQueueSizeStoreTest {
+
+	@Test
+	void allocate_sameClientTwice_sameSlot() {
+		final ClientQueueSizeStore store = new ClientQueueSizeStore(4, false);
+
+		final int slot = store.allocate("client1");
+
+		assertEquals(slot, store.allocate("client1"));
+		assertEquals(slot, store.slot("client1"));
+		assertEquals("client1", store.clientId(slot));
+		assertEquals(1, store.size());
+	}
+
+	@Test
+	void allocate_capacityReached_noSlot() {
+		final ClientQueueSizeStore store = new ClientQueueSizeStore(2, false);
+		store.allocate("client1");
+		store.allocate("client2");
+
+		assertEquals(-1, store.allocate("client3"));
+		assertEquals(-1, store.slot("client3"));
+		assertEquals(2, store.size());
+	}
+
+	@Test
+	void release_slotIsFreedAndReused() {
+		final ClientQueueSizeStore store = new ClientQueueSizeStore(1, false);
+		final int slot = store.allocate("client1");
+		store.set(slot, 42);
+
+		assertEquals(slot, store.release("client1"));
+
+		assertNull(store.clientId(slot));
+		assertEquals(-1, store.slot("client1"));
+		assertEquals(-1, store.release("client1"));
+		assertEquals(slot, store.allocate("client2"));
+		assertEquals(0, store.get(slot));
+	}
+
+	@Test
+	void slot_collidingClientReleased_probingContinuesPastRemovedEntry() {
+		// the Client IDs have the same hash code, so they are probed one after the other
+		final ClientQueueSizeStore store = new ClientQueueSizeStore(8, false);
+		final int first = store.allocate("AaAa");
+		final int second = store.allocate("AaBB");
+		final int third = store.allocate("BBAa");
+
+		store.release("AaAa");
+
+		assertEquals(-1, store.slot("AaAa"));
+		assertEquals(second, store.slot("AaBB"));
+		assertEquals(third, store.slot("BBAa"));
+		assertEquals(-1, store.slot("BBBB"));
+		assertEquals(first, store.allocate("BBBB"));
+		assertEquals(first, store.slot("BBBB"));
+		assertEquals(second, store.slot("AaBB"));
+	}
+
+	@Test
+	void release_manyClientsComeAndGo_tableRebuiltAndAllClientsFound() {
+		final ClientQueueSizeStore store = new ClientQueueSizeStore(16, false);
+		for (int i = 0; i < 8; i++) {
+			store.set(store.allocate("permanent-" + i), i);
+		}
+
+		for (int i = 0; i < 10_000; i++) {
+			final String clientId = "transient-" + i;
+			final int slot = store.allocate(clientId);
+			assertNotEquals(-1, slot);
+			assertEquals(slot, store.slot(clientId));
+			assertEquals(slot, store.release(clientId));
+		}
+
+		assertEquals(8, store.size());
+		for (int i = 0; i < 8; i++) {
+			final int slot = store.slot("permanent-" + i);
+			assertEquals("permanent-" + i, store.clientId(slot));
+			assertEquals(i, store.get(slot));
+		}
+		assertEquals(-1, store.slot("transient-0"));
+	}
+
+	@Test
+	void fill_releaseAll_refill_allClientsFound() {
+		final ClientQueueSizeStore store = new ClientQueueSizeStore(100, false);
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 100; i++) {
+				assertNotEquals(-1, store.allocate("client-" + round + "-" + i));
+			}
+			assertEquals(-1, store.allocate("one-too-many"));
+			for (int i = 0; i < 100; i++) {
+				assertNotEquals(-1, store.release("client-" + round + "-" + i));
+			}
+			assertEquals(0, store.size());
+		}
+	}
+
+	@Test
+	void addNonNegative_heapAndOffHeap_doesNotDropBelowZero() {
+		for (final boolean offHeap : new boolean[]{false, true}) {
+			final ClientQueueSizeStore store = new ClientQueueSizeStore(2, offHeap);
+			final int slot = store.allocate("client1");
+
+			store.addNonNegative(slot, 3);
+			store.addNonNegative(slot, -5);
+			assertEquals(0, store.get(slot));
+
+			store.set(slot, 7);
+			assertEquals(7, store.getAndSet(slot, 9));
+			assertEquals(9, store.get(slot));
+		}
+	}
+
+	@Test
+	void getAndSetForClient_slotAllocatedToOtherClient_notWritten() {
+		for (final boolean offHeap : new boolean[]{false, true}) {
+			final ClientQueueSizeStore store = new ClientQueueSizeStore(1, offHeap);
+			// the slot is looked up, then released and allocated to another client before the write
+			final int slot = store.allocate("client1");
+			store.release("client1");
+			assertEquals(slot, store.allocate("client2"));
+
+			assertEquals(-1, store.getAndSet(slot, "client1", 5));
+			assertFalse(store.addNonNegative(slot, "client1", 5));
+
+			assertEquals(0, store.get(slot));
+			assertEquals(0, store.getAndSet(slot, "client2", 3));
+			assertTrue(store.addNonNegative(slot, "client2", 2));
+			assertEquals(5, store.get(slot));
+		}
+	}
+
+	@Test
+	void allocate_slotReused_valueStartsAtZeroWithNewGeneration() {
+		final ClientQueueSizeStore store = new ClientQueueSizeStore(1, false);
+		for (int i = 0; i < 70_000; i++) {
+			final int slot = store.allocate("client-" + i);
+			assertEquals(0, store.get(slot));
+			store.set(slot, i);
+			assertEquals(i, store.get(slot));
+			store.release("client-" + i);
+		}
+	}
+
+	@Test
+	void addNonNegativeForClient_concurrentReallocation_otherClientNeverChanged() throws Exception {
+		final ClientQueueSizeStore store = new ClientQueueSizeStore(1, false);
+		final AtomicBoolean stopped = new AtomicBoolean();
+		final AtomicBoolean otherClientChanged = new AtomicBoolean();
+		final Thread reallocating = new Thread(() -> {
+			while (!stopped.get()) {
+				store.allocate("client1");
+				store.release("client1");
+				final int slot = store.allocate("client2");
+				// nothing writes for client2, so every value other than 0 was written for client1
+				if (store.get(slot) != 0) {
+					otherClientChanged.set(true);
+				}
+				store.release("client2");
+			}
+		});
+		reallocating.start();
+		try {
+			for (int i = 0; i < 1_000_000; i++) {
+				final int slot = store.slot("client1");
+				if (slot >= 0) {
+					store.addNonNegative(slot, "client1", 1);
+					store.getAndSet(slot, "client1", 7);
+				}
+			}
+		} finally {
+			stopped.set(true);
+			reallocating.join();
+		}
+
+		assertFalse(otherClientChanged.get());
+	}
+}
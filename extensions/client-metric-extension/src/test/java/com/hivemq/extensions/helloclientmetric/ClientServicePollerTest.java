@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.interceptor.puback.parameter.PubackInboundInput;
+import com.hivemq.extension.sdk.api.interceptor.puback.parameter.PubackInboundOutput;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishOutboundInput;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishOutboundOutput;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
+import com.hivemq.extension.sdk.api.services.general.IterationCallback;
+import com.hivemq.extension.sdk.api.services.general.IterationContext;
+import com.hivemq.extension.sdk.api.services.session.ClientService;
+import com.hivemq.extension.sdk.api.services.session.SessionInformation;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ClientServicePollerTest {
+
+	private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+	private final @NotNull ClientService clientService = mock(ClientService.class);
+	private final @NotNull List<SessionInformation> sessions = new ArrayList<>();
+	private final @NotNull ClientMetricConfiguration configuration = createConfiguration();
+	private final @NotNull ClientQueueSizeMetrics metrics = createMetrics();
+
+	@BeforeEach
+	void setUp() {
+		when(clientService.iterateAllClients(any(), any())).thenAnswer(invocation -> {
+			final IterationCallback<SessionInformation> callback = invocation.getArgument(0);
+			final Executor executor = invocation.getArgument(1);
+			for (final SessionInformation session : sessions) {
+				executor.execute(() -> callback.iterate(mock(IterationContext.class), session));
+			}
+			return CompletableFuture.completedFuture(null);
+		});
+	}
+
+	@Test
+	void poll_selectedClients_inflightMetricsRegistered() throws Exception {
+		addSession("client-a", true);
+		addSession("other", true);
+
+		assertTrue(poll());
+
+		assertEquals(0L, gaugeValue("com.hivemq.client-a.inflight"));
+		assertNull(gaugeValue("com.hivemq.client-a.message-queue-size"));
+		assertNull(gaugeValue("com.hivemq.other.inflight"));
+	}
+
+	@Test
+	void poll_disconnectedWithPublishesInFlight_countReset() throws Exception {
+		addSession("client-a", false);
+		addSession("client-b", true);
+		final QueueDepthInterceptor interceptorA = new QueueDepthInterceptor(metrics, "client-a");
+		final QueueDepthInterceptor interceptorB = new QueueDepthInterceptor(metrics, "client-b");
+		for (int i = 0; i < 3; i++) {
+			publish(interceptorA, Qos.AT_LEAST_ONCE);
+			publish(interceptorB, Qos.AT_LEAST_ONCE);
+		}
+		// the connection of client-a ended before its PUBACKs arrived, client-b acknowledged one
+		interceptorB.onInboundPuback(mock(PubackInboundInput.class), mock(PubackInboundOutput.class));
+		assertEquals(3L, gaugeValue("com.hivemq.client-a.inflight"));
+
+		assertTrue(poll());
+
+		assertEquals(0L, gaugeValue("com.hivemq.client-a.inflight"));
+		assertEquals(2L, gaugeValue("com.hivemq.client-b.inflight"));
+	}
+
+	@Test
+	void poll_reconnectedAfterReset_resentPublishesCounted() throws Exception {
+		addSession("client-a", false);
+		final QueueDepthInterceptor interceptor = new QueueDepthInterceptor(metrics, "client-a");
+		publish(interceptor, Qos.EXACTLY_ONCE);
+		publish(interceptor, Qos.AT_MOST_ONCE);
+		assertTrue(poll());
+		assertEquals(0L, gaugeValue("com.hivemq.client-a.inflight"));
+
+		// the broker sends the unacknowledged PUBLISH again on the new connection
+		final QueueDepthInterceptor reconnected = new QueueDepthInterceptor(metrics, "client-a");
+		publish(reconnected, Qos.EXACTLY_ONCE);
+		assertEquals(1L, gaugeValue("com.hivemq.client-a.inflight"));
+		reconnected.onInboundPuback(mock(PubackInboundInput.class), mock(PubackInboundOutput.class));
+		assertEquals(0L, gaugeValue("com.hivemq.client-a.inflight"));
+	}
+
+	@Test
+	void poll_clientGone_metricRemoved() throws Exception {
+		addSession("client-a", true);
+		assertTrue(poll());
+
+		sessions.clear();
+		assertTrue(poll());
+
+		assertNull(gaugeValue("com.hivemq.client-a.inflight"));
+		assertEquals(0, metrics.size());
+	}
+
+	private boolean poll() throws Exception {
+		final ClientServicePoller poller = new ClientServicePoller(configuration,
+				metrics,
+				new TopQueueSizes(configuration.getTopSize(), metricRegistry),
+				new QueueSizeDistribution(metricRegistry),
+				clientService,
+				Runnable::run);
+		return poller.poll().get(10, TimeUnit.SECONDS);
+	}
+
+	private void addSession(final @NotNull String clientId, final boolean connected) {
+		final SessionInformation session = mock(SessionInformation.class);
+		when(session.getClientIdentifier()).thenReturn(clientId);
+		when(session.isConnected()).thenReturn(connected);
+		sessions.add(session);
+	}
+
+	private static void publish(final @NotNull QueueDepthInterceptor interceptor, final @NotNull Qos qos) {
+		final PublishPacket publishPacket = mock(PublishPacket.class);
+		when(publishPacket.getQos()).thenReturn(qos);
+		final PublishOutboundInput input = mock(PublishOutboundInput.class);
+		when(input.getPublishPacket()).thenReturn(publishPacket);
+		interceptor.onOutboundPublish(input, mock(PublishOutboundOutput.class));
+	}
+
+	private @Nullable Object gaugeValue(final @NotNull String name) {
+		final Gauge<?> gauge = metricRegistry.getGauges().get(name);
+		return gauge == null ? null : gauge.getValue();
+	}
+
+	private static @NotNull ClientMetricConfiguration createConfiguration() {
+		final Properties properties = new Properties();
+		properties.setProperty("source", "client-service");
+		properties.setProperty("clients.ids", "");
+		properties.setProperty("clients.prefixes", "client");
+		return new ClientMetricConfiguration(properties);
+	}
+
+	private @NotNull ClientQueueSizeMetrics createMetrics() {
+		return new ClientQueueSizeMetrics(metricRegistry,
+				configuration.getClientIds(),
+				configuration.getMaxClients(),
+				false,
+				ClientQueueSizeMetrics.INFLIGHT);
+	}
+}
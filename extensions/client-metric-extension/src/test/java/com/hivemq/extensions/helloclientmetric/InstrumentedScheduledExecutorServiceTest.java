@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.MetricRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The prevent-publish and the client-metric extension contain the same copy of this test,
+ * apart from the package and the indentation the copies must be kept identical.
+ */
+class InstrumentedScheduledExecutorServiceTest {
+
+	private static final @NotNull String PREFIX = "test.executor";
+
+	private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+	private final @NotNull ScheduledExecutorService delegate = mock(ScheduledExecutorService.class);
+	private final @NotNull List<Runnable> tasks = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		doAnswer(invocation -> {
+			tasks.add(invocation.getArgument(0));
+			return null;
+		}).when(delegate).execute(any());
+		when(delegate.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+			tasks.add(invocation.getArgument(0));
+			return null;
+		});
+		when(delegate.scheduleAtFixedRate(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class)))
+				.thenAnswer(invocation -> {
+					tasks.add(invocation.getArgument(0));
+					return null;
+				});
+	}
+
+	@Test
+	void execute_taskRuns_queuedUntilStartedAndTimed() {
+		final InstrumentedScheduledExecutorService executorService = createExecutorService(100);
+		final AtomicInteger runs = new AtomicInteger();
+
+		executorService.execute(runs::incrementAndGet);
+		assertEquals(1, queued());
+
+		tasks.get(0).run();
+		assertEquals(1, runs.get());
+		assertEquals(0, queued());
+		assertEquals(1, metricRegistry.timer(PREFIX + ".queue-time").getCount());
+		assertEquals(1, metricRegistry.timer(PREFIX + ".execution-time").getCount());
+		assertEquals(0, metricRegistry.counter(PREFIX + ".overdue").getCount());
+	}
+
+	@Test
+	void execute_rejected_notQueued() {
+		final InstrumentedScheduledExecutorService executorService = createExecutorService(100);
+		doThrow(new RejectedExecutionException()).when(delegate).execute(any());
+
+		assertThrows(RejectedExecutionException.class, () -> executorService.execute(() -> {}));
+
+		assertEquals(0, queued());
+	}
+
+	@Test
+	void execute_taskThrows_executionTimed() {
+		final InstrumentedScheduledExecutorService executorService = createExecutorService(100);
+
+		executorService.execute(() -> {
+			throw new IllegalStateException();
+		});
+
+		assertThrows(IllegalStateException.class, () -> tasks.get(0).run());
+		assertEquals(0, queued());
+		assertEquals(1, metricRegistry.timer(PREFIX + ".execution-time").getCount());
+	}
+
+	@Test
+	void submit_cancelledBeforeStart_leavesQueue() {
+		final InstrumentedScheduledExecutorService executorService = createExecutorService(100);
+		final AtomicInteger runs = new AtomicInteger();
+
+		final Future<?> future = executorService.submit(runs::incrementAndGet);
+		assertTrue(future.cancel(false));
+		tasks.get(0).run();
+
+		assertEquals(0, runs.get());
+		assertEquals(0, queued());
+	}
+
+	@Test
+	void schedule_startedAfterOverdueThreshold_countedAsOverdue() throws InterruptedException {
+		final InstrumentedScheduledExecutorService executorService = createExecutorService(1);
+
+		executorService.schedule(() -> {}, 0, TimeUnit.MILLISECONDS);
+		Thread.sleep(10);
+		tasks.get(0).run();
+
+		assertEquals(1, metricRegistry.counter(PREFIX + ".overdue").getCount());
+		// scheduled tasks that are not due yet are not queued
+		assertEquals(0, queued());
+	}
+
+	@Test
+	void schedule_startedBeforeOverdueThreshold_notOverdue() {
+		final InstrumentedScheduledExecutorService executorService = createExecutorService(60_000);
+
+		executorService.schedule(() -> {}, 0, TimeUnit.MILLISECONDS);
+		tasks.get(0).run();
+
+		assertEquals(0, metricRegistry.counter(PREFIX + ".overdue").getCount());
+		assertEquals(1, metricRegistry.timer(PREFIX + ".queue-time").getCount());
+	}
+
+	@Test
+	void scheduleAtFixedRate_everyRunTimed() {
+		final InstrumentedScheduledExecutorService executorService = createExecutorService(60_000);
+		final AtomicInteger runs = new AtomicInteger();
+
+		executorService.scheduleAtFixedRate(runs::incrementAndGet, 0, 1, TimeUnit.HOURS);
+		tasks.get(0).run();
+		tasks.get(0).run();
+
+		assertEquals(2, runs.get());
+		assertEquals(2, metricRegistry.timer(PREFIX + ".queue-time").getCount());
+		assertEquals(2, metricRegistry.timer(PREFIX + ".execution-time").getCount());
+		// the second run is due in an hour, so it did not wait
+		assertEquals(0, metricRegistry.counter(PREFIX + ".overdue").getCount());
+	}
+
+	@Test
+	void removeMetrics_allMetricsRemoved() {
+		final InstrumentedScheduledExecutorService executorService = createExecutorService(100);
+		metricRegistry.counter("other");
+
+		executorService.removeMetrics();
+
+		assertEquals(List.of("other"), new ArrayList<>(metricRegistry.getNames()));
+	}
+
+	private @NotNull InstrumentedScheduledExecutorService createExecutorService(final long overdueMillis) {
+		return new InstrumentedScheduledExecutorService(delegate, metricRegistry, PREFIX, overdueMillis);
+	}
+
+	private int queued() {
+		return (int) metricRegistry.getGauges().get(PREFIX + ".queued").getValue();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PacedSerialExecutorTest {
+
+	private final @NotNull ScheduledExecutorService executorService = mock(ScheduledExecutorService.class);
+	private final @NotNull List<Runnable> submitted = new ArrayList<>();
+	private final @NotNull List<Long> pauses = new ArrayList<>();
+	private final @NotNull List<Integer> ran = new ArrayList<>();
+	private final @NotNull PacedSerialExecutor executor = new PacedSerialExecutor(executorService, 2, 10);
+
+	@BeforeEach
+	void setUp() {
+		doAnswer(invocation -> {
+			submitted.add(invocation.getArgument(0));
+			return null;
+		}).when(executorService).execute(any(Runnable.class));
+		when(executorService.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+			submitted.add(invocation.getArgument(0));
+			pauses.add(invocation.getArgument(1));
+			return null;
+		});
+	}
+
+	@Test
+	void execute_moreTasksThanBatch_runInOrderWithPauses() {
+		for (int i = 0; i < 5; i++) {
+			final int task = i;
+			executor.execute(() -> ran.add(task));
+		}
+		assertEquals(1, submitted.size());
+
+		runSubmitted(0);
+		assertEquals(List.of(0, 1), ran);
+		runSubmitted(1);
+		assertEquals(List.of(0, 1, 2, 3), ran);
+		runSubmitted(2);
+
+		assertEquals(List.of(0, 1, 2, 3, 4), ran);
+		assertEquals(List.of(10L, 10L), pauses);
+		assertEquals(3, submitted.size());
+	}
+
+	@Test
+	void execute_whileDraining_noSecondDrain() {
+		executor.execute(() -> ran.add(0));
+		executor.execute(() -> ran.add(1));
+
+		assertEquals(1, submitted.size());
+		runSubmitted(0);
+		assertEquals(List.of(0, 1), ran);
+		assertTrue(pauses.isEmpty());
+	}
+
+	@Test
+	void execute_afterQueueDrained_newDrainStarted() {
+		executor.execute(() -> ran.add(0));
+		runSubmitted(0);
+
+		executor.execute(() -> ran.add(1));
+
+		assertEquals(2, submitted.size());
+		runSubmitted(1);
+		assertEquals(List.of(0, 1), ran);
+	}
+
+	@Test
+	void execute_taskThrows_followingTasksRun() {
+		executor.execute(() -> {
+			throw new IllegalStateException("callback failed");
+		});
+		executor.execute(() -> ran.add(1));
+
+		runSubmitted(0);
+
+		assertEquals(List.of(1), ran);
+	}
+
+	private void runSubmitted(final int index) {
+		submitted.get(index).run();
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.MetricRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class QueueSizeDistributionTest {
+
+	private static final int LAST_BUCKET = QueueSizeDistribution.bucket(Long.MAX_VALUE);
+
+	private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+	private final @NotNull QueueSizeDistribution distribution = new QueueSizeDistribution(metricRegistry);
+
+	@Test
+	void bucket_smallValues_ownBucket() {
+		for (int value = 0; value < 8; value++) {
+			assertEquals(value, QueueSizeDistribution.bucket(value));
+			assertEquals(value, QueueSizeDistribution.upperBound(value));
+		}
+		assertEquals(0, QueueSizeDistribution.bucket(-1));
+	}
+
+	@Test
+	void bucket_upperBound_nextValueInNextBucket() {
+		for (int bucket = 0; bucket < LAST_BUCKET; bucket++) {
+			final long upperBound = QueueSizeDistribution.upperBound(bucket);
+			assertEquals(bucket, QueueSizeDistribution.bucket(upperBound));
+			assertEquals(bucket + 1, QueueSizeDistribution.bucket(upperBound + 1));
+		}
+		assertEquals(Long.MAX_VALUE, QueueSizeDistribution.upperBound(LAST_BUCKET));
+	}
+
+	@Test
+	void bucket_powersOfTwo_dividedIntoEightBuckets() {
+		assertEquals(QueueSizeDistribution.bucket(16), QueueSizeDistribution.bucket(17));
+		assertEquals(QueueSizeDistribution.bucket(16) + 1, QueueSizeDistribution.bucket(18));
+		assertEquals(QueueSizeDistribution.bucket(1024) + 7, QueueSizeDistribution.bucket(2047));
+		assertEquals(1151, QueueSizeDistribution.upperBound(QueueSizeDistribution.bucket(1100)));
+	}
+
+	@Test
+	void publish_exportedBuckets_countClientsAtMostTheBound() {
+		final QueueSizeDistribution.Recorder recorder = distribution.newRecorder();
+		recorder.record(7);
+		recorder.record(8);
+		recorder.record(15);
+		recorder.record(16);
+		recorder.record(1L << 30);
+
+		recorder.publish();
+
+		assertEquals(0L, gaugeValue("bucket.le-3"));
+		assertEquals(1L, gaugeValue("bucket.le-7"));
+		assertEquals(3L, gaugeValue("bucket.le-15"));
+		assertEquals(4L, gaugeValue("bucket.le-31"));
+		assertEquals(4L, gaugeValue("bucket.le-16777215"));
+		assertEquals(5L, gaugeValue("bucket.le-inf"));
+		assertEquals(1L << 30, gaugeValue("max"));
+	}
+
+	@Test
+	void publish_percentiles_upperBoundOfBucketAtMostMaximum() {
+		final QueueSizeDistribution.Recorder recorder = distribution.newRecorder();
+		for (int queueSize = 1; queueSize <= 100; queueSize++) {
+			recorder.record(queueSize);
+		}
+
+		recorder.publish();
+
+		assertEquals(100, distribution.count());
+		assertEquals(51, distribution.percentile(0.5));
+		assertEquals(95, distribution.percentile(0.9));
+		assertEquals(100, distribution.percentile(0.99));
+		assertEquals(100, distribution.max());
+	}
+
+	@Test
+	void publish_noClients_zero() {
+		distribution.newRecorder().publish();
+
+		assertEquals(0, distribution.count());
+		assertEquals(0, distribution.percentile(0.99));
+		assertEquals(0L, gaugeValue("bucket.le-inf"));
+	}
+
+	@Test
+	void recordAll_otherRecorder_countsAdded() {
+		final QueueSizeDistribution.Recorder other = distribution.newRecorder();
+		other.record(1000);
+		final QueueSizeDistribution.Recorder recorder = distribution.newRecorder();
+		recorder.record(3);
+
+		recorder.recordAll(other);
+		recorder.publish();
+
+		assertEquals(2, distribution.count());
+		assertEquals(1000, distribution.max());
+		assertEquals(1L, gaugeValue("bucket.le-3"));
+		assertEquals(2L, gaugeValue("bucket.le-1023"));
+	}
+
+	private @NotNull Object gaugeValue(final @NotNull String name) {
+		return metricRegistry.getGauges().get(QueueSizeDistribution.METRIC_PREFIX + "." + name).getValue();
+	}
+}
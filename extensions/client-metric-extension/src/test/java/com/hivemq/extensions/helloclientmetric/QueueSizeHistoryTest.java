@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueueSizeHistoryTest {
+
+	@TempDir
+	@NotNull Path folder;
+
+	@Test
+	void append_exportedOldestFirst() throws IOException {
+		final ClientQueueSizeStore store = new ClientQueueSizeStore(2, false);
+		store.set(store.allocate("client1"), 3);
+		store.set(store.allocate("client2"), 5);
+
+		try (final QueueSizeHistory history = QueueSizeHistory.open(folder.toFile(), 8)) {
+			history.append(store, 0);
+			store.set(store.slot("client1"), 4);
+			history.append(store, 1000);
+		}
+
+		assertEquals(List.of(
+				"timestamp,client_id,message_queue_size",
+				"1970-01-01T00:00:00Z,client1,3",
+				"1970-01-01T00:00:00Z,client2,5",
+				"1970-01-01T00:00:01Z,client1,4",
+				"1970-01-01T00:00:01Z,client2,5"), exportCsv());
+	}
+
+	@Test
+	void open_existingHistory_continuedAndOverwritesOldestRecords() throws IOException {
+		final ClientQueueSizeStore store = new ClientQueueSizeStore(1, false);
+		store.set(store.allocate("client1"), 1);
+		try (final QueueSizeHistory history = QueueSizeHistory.open(folder.toFile(), 2)) {
+			history.append(store, 0);
+			history.append(store, 1000);
+		}
+
+		store.set(store.slot("client1"), 2);
+		try (final QueueSizeHistory history = QueueSizeHistory.open(folder.toFile(), 2)) {
+			history.append(store, 2000);
+		}
+
+		assertEquals(List.of(
+				"timestamp,client_id,message_queue_size",
+				"1970-01-01T00:00:01Z,client1,1",
+				"1970-01-01T00:00:02Z,client1,2"), exportCsv());
+	}
+
+	@Test
+	void open_differentNumberOfRecords_newHistoryStarted() throws IOException {
+		final ClientQueueSizeStore store = new ClientQueueSizeStore(1, false);
+		store.allocate("client1");
+		try (final QueueSizeHistory history = QueueSizeHistory.open(folder.toFile(), 2)) {
+			history.append(store, 0);
+		}
+
+		QueueSizeHistory.open(folder.toFile(), 4).close();
+
+		assertEquals(List.of("timestamp,client_id,message_queue_size"), exportCsv());
+		assertEquals(0, Files.size(folder.resolve(QueueSizeHistory.SLOTS_FILE_NAME)));
+	}
+
+	@Test
+	void compactSlots_linesSupersededBeforeOldestRecord_removed() throws IOException {
+		final Path slotsFile = folder.resolve(QueueSizeHistory.SLOTS_FILE_NAME);
+		Files.write(slotsFile, List.of(
+				"0,0,client-a",
+				"0,1,client-b",
+				"5,0,client-c",
+				"8,1,client-d",
+				"12,0,client-e"), StandardCharsets.UTF_8);
+
+		final int retained = QueueSizeHistory.compactSlots(slotsFile, 8);
+
+		// client-a is superseded at 5 and client-b at 8, client-c still applies to the records from 8 to 11
+		assertEquals(3, retained);
+		assertEquals(List.of("5,0,client-c", "8,1,client-d", "12,0,client-e"),
+				Files.readAllLines(slotsFile, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void compactSlots_nothingSuperseded_fileUnchanged() throws IOException {
+		final Path slotsFile = folder.resolve(QueueSizeHistory.SLOTS_FILE_NAME);
+		Files.write(slotsFile, List.of("0,0,client-a", "3,0,client-b"), StandardCharsets.UTF_8);
+
+		assertEquals(2, QueueSizeHistory.compactSlots(slotsFile, 2));
+		assertEquals(List.of("0,0,client-a", "3,0,client-b"), Files.readAllLines(slotsFile, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void append_slotReusedByManyClients_dictionaryCompactedWhileAppending() throws IOException {
+		final ClientQueueSizeStore store = new ClientQueueSizeStore(1, false);
+		try (final QueueSizeHistory history = QueueSizeHistory.open(folder.toFile(), 4)) {
+			for (int i = 0; i < 10_000; i++) {
+				store.release("client-" + (i - 1));
+				store.set(store.allocate("client-" + i), i);
+				history.append(store, i * 1000L);
+			}
+		}
+
+		final List<String> lines =
+				Files.readAllLines(folder.resolve(QueueSizeHistory.SLOTS_FILE_NAME), StandardCharsets.UTF_8);
+		assertTrue(lines.size() <= 2048, "slot dictionary has " + lines.size() + " lines");
+		final List<String> csv = exportCsv();
+		assertEquals(5, csv.size());
+		assertEquals("1970-01-01T02:46:36Z,client-9996,9996", csv.get(1));
+		assertEquals("1970-01-01T02:46:39Z,client-9999,9999", csv.get(4));
+	}
+
+	private @NotNull List<String> exportCsv() throws IOException {
+		final StringWriter writer = new StringWriter();
+		QueueSizeHistoryReader.exportCsv(folder.toFile(), writer);
+		return List.of(writer.toString().split("\n"));
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.MetricRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class QueueSizeSnapshotTest {
+
+	@TempDir
+	@NotNull Path folder;
+
+	@Test
+	void write_restore_selectedClientsRestored() {
+		QueueSizeSnapshot.write(folder.toFile(), createStore(), 1000);
+
+		final ClientQueueSizeMetrics metrics = createMetrics();
+		assertEquals(2, QueueSizeSnapshot.restore(folder.toFile(), metrics, createConfiguration(), 2000));
+
+		assertEquals(2, metrics.size());
+		assertEquals(3, metrics.get("client1"));
+		assertEquals(5, metrics.get("client2"));
+		assertFalse(metrics.isRegistered("other"));
+		assertFalse(Files.exists(folder.resolve(QueueSizeSnapshot.FILE_NAME)));
+	}
+
+	@Test
+	void restore_truncatedFile_ignoredAndDeleted() throws IOException {
+		QueueSizeSnapshot.write(folder.toFile(), createStore(), 1000);
+		final Path file = folder.resolve(QueueSizeSnapshot.FILE_NAME);
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 4);
+		}
+
+		final ClientQueueSizeMetrics metrics = createMetrics();
+		assertEquals(-1, QueueSizeSnapshot.restore(folder.toFile(), metrics, createConfiguration(), 2000));
+
+		assertEquals(0, metrics.size());
+		assertFalse(Files.exists(file));
+	}
+
+	@Test
+	void restore_unknownFormat_ignored() throws IOException {
+		Files.write(folder.resolve(QueueSizeSnapshot.FILE_NAME), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+		final ClientQueueSizeMetrics metrics = createMetrics();
+		assertEquals(-1, QueueSizeSnapshot.restore(folder.toFile(), metrics, createConfiguration(), 2000));
+
+		assertEquals(0, metrics.size());
+	}
+
+	@Test
+	void restore_olderThanMaxAge_ignored() {
+		QueueSizeSnapshot.write(folder.toFile(), createStore(), 1000);
+
+		final ClientQueueSizeMetrics metrics = createMetrics();
+		assertEquals(-1, QueueSizeSnapshot.restore(folder.toFile(), metrics, createConfiguration(), 62_000));
+
+		assertEquals(0, metrics.size());
+		assertFalse(Files.exists(folder.resolve(QueueSizeSnapshot.FILE_NAME)));
+	}
+
+	@Test
+	void restore_noSnapshot_nothingRestored() {
+		assertEquals(-1, QueueSizeSnapshot.restore(folder.toFile(), createMetrics(), createConfiguration(), 2000));
+	}
+
+	private static @NotNull ClientQueueSizeStore createStore() {
+		final ClientQueueSizeStore store = new ClientQueueSizeStore(4, false);
+		store.set(store.allocate("client1"), 3);
+		store.set(store.allocate("client2"), 5);
+		store.set(store.allocate("other"), 7);
+		return store;
+	}
+
+	private static @NotNull ClientQueueSizeMetrics createMetrics() {
+		return new ClientQueueSizeMetrics(new MetricRegistry(), Set.of(), 16, false);
+	}
+
+	private static @NotNull ClientMetricConfiguration createConfiguration() {
+		final Properties properties = new Properties();
+		properties.setProperty("clients.ids", "");
+		properties.setProperty("clients.prefixes", "client");
+		properties.setProperty("snapshot.max-age-seconds", "60");
+		return new ClientMetricConfiguration(properties);
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.prometheus.client.Collector;
+import io.prometheus.client.dropwizard.DropwizardExports;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class TopQueueSizesTest {
+
+	private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+	private final @NotNull TopQueueSizes topQueueSizes = new TopQueueSizes(3, metricRegistry);
+
+	@Test
+	void publish_moreClientsThanRanks_largestRankedDescending() {
+		final TopQueueSizes.Collector collector = topQueueSizes.newCollector();
+		collector.offer("a", 1);
+		collector.offer("b", 7);
+		collector.offer("c", 3);
+		collector.offer("d", 9);
+		collector.offer("e", 2);
+
+		collector.publish();
+
+		assertEquals("d", topQueueSizes.clientId(0));
+		assertEquals("b", topQueueSizes.clientId(1));
+		assertEquals("c", topQueueSizes.clientId(2));
+		assertEquals(9, topQueueSizes.queueSize(0));
+		assertEquals(7, topQueueSizes.queueSize(1));
+		assertEquals(3, topQueueSizes.queueSize(2));
+	}
+
+	@Test
+	void publish_tiesAtTheMinimum_earlierClientsKept() {
+		final TopQueueSizes.Collector collector = topQueueSizes.newCollector();
+		collector.offer("a", 5);
+		collector.offer("b", 5);
+		collector.offer("c", 5);
+		collector.offer("d", 5);
+		collector.offer("e", 4);
+
+		collector.publish();
+
+		assertEquals(Set.of("a", "b", "c"),
+				Set.of(topQueueSizes.clientId(0), topQueueSizes.clientId(1), topQueueSizes.clientId(2)));
+		for (int rank = 0; rank < 3; rank++) {
+			assertEquals(5, topQueueSizes.queueSize(rank));
+		}
+	}
+
+	@Test
+	void publish_tiesAboveTheMinimum_minimumReplaced() {
+		final TopQueueSizes.Collector collector = topQueueSizes.newCollector();
+		collector.offer("a", 1);
+		collector.offer("b", 8);
+		collector.offer("c", 8);
+		collector.offer("d", 8);
+
+		collector.publish();
+
+		assertEquals(Set.of("b", "c", "d"),
+				Set.of(topQueueSizes.clientId(0), topQueueSizes.clientId(1), topQueueSizes.clientId(2)));
+		assertEquals(8, topQueueSizes.queueSize(2));
+	}
+
+	@Test
+	void publish_fewerClientsThanRanks_remainingRanksEmpty() {
+		final TopQueueSizes.Collector collector = topQueueSizes.newCollector();
+		collector.offer("a", 2);
+
+		collector.publish();
+
+		assertEquals("a", topQueueSizes.clientId(0));
+		assertEquals("", topQueueSizes.clientId(1));
+		assertEquals(0, topQueueSizes.queueSize(2));
+		assertEquals(Set.of(
+				TopQueueSizes.METRIC_PREFIX + ".rank-1.message-queue-size",
+				TopQueueSizes.METRIC_PREFIX + ".rank-2.message-queue-size",
+				TopQueueSizes.METRIC_PREFIX + ".rank-3.message-queue-size",
+				TopQueueSizes.METRIC_PREFIX + ".rank-1.client.a"), metricRegistry.getNames());
+	}
+
+	@Test
+	void offerAll_otherCollector_combinedAndOtherUnchanged() {
+		final TopQueueSizes.Collector other = topQueueSizes.newCollector();
+		other.offer("x", 10);
+		other.offer("y", 1);
+		final TopQueueSizes.Collector collector = topQueueSizes.newCollector();
+		collector.offer("a", 5);
+		collector.offer("b", 3);
+
+		collector.offerAll(other);
+		collector.publish();
+
+		assertEquals("x", topQueueSizes.clientId(0));
+		assertEquals("a", topQueueSizes.clientId(1));
+		assertEquals("b", topQueueSizes.clientId(2));
+
+		other.publish();
+		assertEquals("x", topQueueSizes.clientId(0));
+		assertEquals("y", topQueueSizes.clientId(1));
+	}
+
+	@Test
+	void publish_newPoll_previousRankingReplaced() {
+		final TopQueueSizes.Collector first = topQueueSizes.newCollector();
+		first.offer("a", 5);
+		first.offer("b", 4);
+		first.publish();
+
+		final TopQueueSizes.Collector second = topQueueSizes.newCollector();
+		second.offer("c", 1);
+		second.publish();
+
+		assertEquals("c", topQueueSizes.clientId(0));
+		assertEquals("", topQueueSizes.clientId(1));
+		assertEquals(1L, metricRegistry.getGauges().get(TopQueueSizes.METRIC_PREFIX + ".rank-1.client.c").getValue());
+		assertFalse(metricRegistry.getNames().contains(TopQueueSizes.METRIC_PREFIX + ".rank-1.client.a"));
+		assertFalse(metricRegistry.getNames().contains(TopQueueSizes.METRIC_PREFIX + ".rank-2.client.b"));
+	}
+
+	@Test
+	void publish_sameClientAtRank_metricKeptWithNewValue() {
+		final TopQueueSizes.Collector first = topQueueSizes.newCollector();
+		first.offer("a", 5);
+		first.publish();
+		final Gauge<?> gauge = metricRegistry.getGauges().get(TopQueueSizes.METRIC_PREFIX + ".rank-1.client.a");
+
+		final TopQueueSizes.Collector second = topQueueSizes.newCollector();
+		second.offer("a", 8);
+		second.publish();
+
+		assertSame(gauge, metricRegistry.getGauges().get(TopQueueSizes.METRIC_PREFIX + ".rank-1.client.a"));
+		assertEquals(8L, gauge.getValue());
+	}
+
+	@Test
+	void publish_scrapedByPrometheusExporter_clientIdAndSizeExported() {
+		final TopQueueSizes.Collector collector = topQueueSizes.newCollector();
+		collector.offer("client-a", 7);
+		collector.offer("client-b", 3);
+		collector.publish();
+
+		final Map<String, Double> samples = new HashMap<>();
+		for (final Collector.MetricFamilySamples family : new DropwizardExports(metricRegistry).collect()) {
+			for (final Collector.MetricFamilySamples.Sample sample : family.samples) {
+				samples.put(sample.name, sample.value);
+			}
+		}
+
+		final String prefix = "com_hivemq_extensions_client_metric_top_";
+		assertEquals(7.0, (double) samples.get(prefix + "rank_1_client_client_a"));
+		assertEquals(3.0, (double) samples.get(prefix + "rank_2_client_client_b"));
+		assertEquals(7.0, (double) samples.get(prefix + "rank_1_message_queue_size"));
+		assertEquals(0.0, (double) samples.get(prefix + "rank_3_message_queue_size"));
+		assertEquals(5, samples.size());
+	}
+}
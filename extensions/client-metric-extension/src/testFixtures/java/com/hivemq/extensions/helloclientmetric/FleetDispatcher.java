@@ -0,0 +1,221 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.helloclientmetric;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Answers like the client endpoints of the HiveMQ REST API of one node.
+ * <p>
+ * The clients are either held in memory and added with {@link #putClient(String, long)}, or, for a
+ * {@link #synthetic(int, int)} fleet, not stored at all: the Client ID and message queue size of a client are derived
+ * from its index, every {@code selectedEvery}-th client is named {@code hot-<index>}, all others
+ * {@code client-<index>}. The client listing is paged with the cursor being the index of the first client of the page.
+ * Every response can be delayed, and every request or every {@code failEvery}-th request can be answered with 503.
+ * <p>
+ * Shared by the unit tests and the load tests.
+ */
+class FleetDispatcher extends Dispatcher {
+
+	static final @NotNull String CLIENTS_PATH = "/api/v1/mqtt/clients";
+	static final @NotNull String SELECTED_PREFIX = "hot-";
+
+	private static final @NotNull String UNSELECTED_PREFIX = "client-";
+
+	private final @NotNull Map<String, Long> queueSizes = new LinkedHashMap<>();
+	private final int syntheticClients;
+	private final int selectedEvery;
+	private final @NotNull AtomicInteger requests = new AtomicInteger();
+	private final @NotNull AtomicInteger detailRequests = new AtomicInteger();
+	private volatile boolean failing;
+	private volatile int failEvery;
+	private volatile long latencyMillis;
+
+	FleetDispatcher() {
+		this(0, 1);
+	}
+
+	private FleetDispatcher(final int syntheticClients, final int selectedEvery) {
+		this.syntheticClients = syntheticClients;
+		this.selectedEvery = selectedEvery;
+	}
+
+	static @NotNull FleetDispatcher synthetic(final int clients, final int selectedEvery) {
+		return new FleetDispatcher(clients, selectedEvery);
+	}
+
+	static long queueSize(final int index) {
+		return index % 1000;
+	}
+
+	synchronized void putClient(final @NotNull String clientId, final long queueSize) {
+		queueSizes.put(clientId, queueSize);
+	}
+
+	synchronized void removeClient(final @NotNull String clientId) {
+		queueSizes.remove(clientId);
+	}
+
+	/**
+	 * @return the number of clients of the synthetic fleet named {@code hot-<index>}.
+	 */
+	int getSelectedClients() {
+		return (syntheticClients + selectedEvery - 1) / selectedEvery;
+	}
+
+	void setFailing(final boolean failing) {
+		this.failing = failing;
+	}
+
+	void setFailEvery(final int failEvery) {
+		this.failEvery = failEvery;
+	}
+
+	void setLatencyMillis(final long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	int getRequestCount() {
+		return requests.get();
+	}
+
+	int getDetailRequestCount() {
+		return detailRequests.get();
+	}
+
+	@Override
+	public @NotNull MockResponse dispatch(final @NotNull RecordedRequest request) {
+		final int count = requests.incrementAndGet();
+		final MockResponse response = respond(request, count);
+		final long latency = latencyMillis;
+		if (latency > 0) {
+			response.setHeadersDelay(latency, TimeUnit.MILLISECONDS);
+		}
+		return response;
+	}
+
+	private @NotNull MockResponse respond(final @NotNull RecordedRequest request, final int count) {
+		final int failEvery = this.failEvery;
+		if (failing || (failEvery > 0 && count % failEvery == 0)) {
+			return new MockResponse().setResponseCode(503);
+		}
+		final HttpUrl url = request.getRequestUrl();
+		if (url == null) {
+			return new MockResponse().setResponseCode(400);
+		}
+		final String path = url.encodedPath();
+		if (path.equals(CLIENTS_PATH)) {
+			final String limit = url.queryParameter("limit");
+			final String cursor = url.queryParameter("cursor");
+			return listing(limit == null ? 2500 : Integer.parseInt(limit), cursor == null ? 0 : Integer.parseInt(cursor));
+		}
+		if (path.startsWith(CLIENTS_PATH + "/")) {
+			detailRequests.incrementAndGet();
+			final String clientId = url.pathSegments().get(url.pathSegments().size() - 1);
+			final Long queueSize = queueSize(clientId);
+			if (queueSize == null) {
+				return new MockResponse().setResponseCode(404);
+			}
+			return new MockResponse().setBody(
+					"{\"client\":{\"id\":\"" + clientId + "\",\"connected\":true,\"messageQueueSize\":" + queueSize +
+							",\"sessionExpiryInterval\":0," +
+							"\"restrictions\":{\"maxMessageSize\":268435460,\"maxQueueSize\":1000}}}");
+		}
+		return new MockResponse().setResponseCode(404);
+	}
+
+	private @NotNull MockResponse listing(final int limit, final int cursor) {
+		final List<String> clientIds = clientIds();
+		final int end = Math.min(clientIds.size(), cursor + limit);
+		final StringBuilder body = new StringBuilder(32 * Math.max(0, end - cursor) + 128).append("{\"items\":[");
+		for (int i = cursor; i < end; i++) {
+			if (i > cursor) {
+				body.append(',');
+			}
+			body.append("{\"id\":\"").append(clientIds.get(i)).append("\"}");
+		}
+		body.append(']');
+		if (end < clientIds.size()) {
+			body.append(",\"_links\":{\"next\":\"").append(CLIENTS_PATH)
+					.append("?cursor=").append(end).append("&limit=").append(limit).append("\"}");
+		}
+		body.append('}');
+		return new MockResponse().setBody(body.toString());
+	}
+
+	private @NotNull List<String> clientIds() {
+		if (syntheticClients == 0) {
+			synchronized (this) {
+				return List.copyOf(queueSizes.keySet());
+			}
+		}
+		// the synthetic clients are only named while the page is written
+		return new AbstractList<>() {
+			@Override
+			public @NotNull String get(final int index) {
+				return syntheticClientId(index);
+			}
+
+			@Override
+			public int size() {
+				return syntheticClients;
+			}
+		};
+	}
+
+	private @Nullable Long queueSize(final @NotNull String clientId) {
+		if (syntheticClients == 0) {
+			synchronized (this) {
+				return queueSizes.get(clientId);
+			}
+		}
+		final int index = syntheticIndex(clientId);
+		return index < 0 ? null : queueSize(index);
+	}
+
+	private @NotNull String syntheticClientId(final int index) {
+		return (index % selectedEvery == 0 ? SELECTED_PREFIX : UNSELECTED_PREFIX) + index;
+	}
+
+	private int syntheticIndex(final @NotNull String clientId) {
+		final String number;
+		if (clientId.startsWith(SELECTED_PREFIX)) {
+			number = clientId.substring(SELECTED_PREFIX.length());
+		} else if (clientId.startsWith(UNSELECTED_PREFIX)) {
+			number = clientId.substring(UNSELECTED_PREFIX.length());
+		} else {
+			return -1;
+		}
+		try {
+			final int index = Integer.parseInt(number);
+			return index >= 0 && index < syntheticClients && clientId.equals(syntheticClientId(index)) ? index : -1;
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+}
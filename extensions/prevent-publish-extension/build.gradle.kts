@@ -2,6 +2,7 @@ plugins {
     alias(libs.plugins.hivemq.extension)
     alias(libs.plugins.defaults)
     alias(libs.plugins.license)
+    alias(libs.plugins.jmh)
 }
 
 group = "com.hivemq.extensions"
@@ -28,6 +29,7 @@ testing {
         }
         "test"(JvmTestSuite::class) {
             dependencies {
+                compileOnly(libs.jetbrains.annotations)
                 implementation(libs.mockito)
             }
         }
@@ -43,6 +45,17 @@ testing {
     }
 }
 
+/* ******************** benchmarks ******************** */
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    profilers.add("gc")
+}
+
+dependencies {
+    jmh("com.hivemq:hivemq-extension-sdk:$version")
+}
+
 /* ******************** checks ******************** */
 
 license {
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.async.Async;
+import com.hivemq.extension.sdk.api.async.TimeoutFallback;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundInput;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundOutput;
+import com.hivemq.extension.sdk.api.packets.publish.AckReasonCode;
+import com.hivemq.extension.sdk.api.packets.publish.ModifiablePublishPacket;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
+import com.hivemq.extension.sdk.api.services.publish.PublishService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures the work done for every rejected PUBLISH: matching the rules and building the reason string.
+ * <p>
+ * The {@code intercept...} benchmarks drive {@link PreventPublishInterceptor#onInboundPublish} as HiveMQ calls it,
+ * including the metric increments and {@link PublishInboundOutput#preventPublishDelivery}. The input and the PUBLISH
+ * packet are dynamic proxies that return prepared values, calls without arguments allocate nothing on them.
+ * The output is a plain class that records the reason code.
+ * <p>
+ * Run with {@code ./gradlew jmh}, the gc profiler is enabled in the build, so {@code gc.alloc.rate.norm}
+ * shows the bytes allocated per rejection. The cached reason string and the rule matching should allocate nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RejectionPathBenchmark {
+
+    private static final String REASON_PREFIX = "It is not allowed to publish to topic: ";
+
+    @Param({"1", "16", "1024"})
+    public int topics;
+
+    private String[] topicNames;
+    private PreventPublishRules rules;
+    private ReasonStringCache reasonStringCache;
+    private int next;
+
+    private ScheduledExecutorService executorService;
+    private PublishInboundInput[] preventedInputs;
+    private PublishInboundInput[] allowedInputs;
+    private PreventPublishInterceptor interceptor;
+    private PreventPublishInterceptor preventedClientInterceptor;
+    private PreventPublishInterceptor rateLimitedInterceptor;
+    private RecordingOutput output;
+
+    @Setup
+    public void setup() {
+        topicNames = new String[topics];
+        preventedInputs = new PublishInboundInput[topics];
+        allowedInputs = new PublishInboundInput[topics];
+        for (int i = 0; i < topics; i++) {
+            topicNames[i] = "prevent/sensor-" + i + "/temperature";
+            preventedInputs[i] = input(topicNames[i]);
+            allowedInputs[i] = input("allow/sensor-" + i + "/temperature");
+        }
+        rules = PreventPublishRules.parse(List.of("topic prevent/#", "client prevent"), null);
+        reasonStringCache = new ReasonStringCache(REASON_PREFIX, 4096);
+
+        executorService = Executors.newSingleThreadScheduledExecutor();
+        final AtomicReference<PreventPublishRules> rulesReference = new AtomicReference<>(rules);
+        interceptor = interceptor(rulesReference, "client-4711");
+        preventedClientInterceptor = interceptor(rulesReference, "prevent-client-4711");
+        // one permit per hour, so apart from the first PUBLISH every PUBLISH exceeds the rate limit
+        rateLimitedInterceptor = interceptor(new AtomicReference<>(
+                PreventPublishRules.parse(List.of("rate-limit client 0.0003 1"), null)), "client-4711");
+        output = new RecordingOutput();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    private int nextIndex() {
+        final int index = next;
+        next = index + 1 == topicNames.length ? 0 : index + 1;
+        return index;
+    }
+
+    private String nextTopic() {
+        return topicNames[nextIndex()];
+    }
+
+    @Benchmark
+    public String concatenatedReason() {
+        return REASON_PREFIX + nextTopic();
+    }
+
+    @Benchmark
+    public String cachedReason() {
+        return reasonStringCache.get(nextTopic());
+    }
+
+    @Benchmark
+    public String matchTopicAndCachedReason() {
+        final String topic = nextTopic();
+        if (rules.matchTopic(topic) == null) {
+            return null;
+        }
+        return reasonStringCache.get(topic);
+    }
+
+    @Benchmark
+    public String matchClientId() {
+        return rules.matchClientId("prevent-client-4711");
+    }
+
+    @Benchmark
+    public AckReasonCode interceptRejectedByTopicRule() {
+        interceptor.onInboundPublish(preventedInputs[nextIndex()], output);
+        return output.reset();
+    }
+
+    @Benchmark
+    public AckReasonCode interceptRejectedByClientRule() {
+        preventedClientInterceptor.onInboundPublish(preventedInputs[nextIndex()], output);
+        return output.reset();
+    }
+
+    @Benchmark
+    public AckReasonCode interceptRejectedByRateLimit() {
+        rateLimitedInterceptor.onInboundPublish(allowedInputs[nextIndex()], output);
+        return output.reset();
+    }
+
+    @Benchmark
+    public AckReasonCode interceptAllowed() {
+        interceptor.onInboundPublish(allowedInputs[nextIndex()], output);
+        return output.reset();
+    }
+
+    private PreventPublishInterceptor interceptor(
+            final AtomicReference<PreventPublishRules> rulesReference,
+            final String clientId) {
+
+        final PublishService publishService = unsupported(PublishService.class);
+        return new PreventPublishInterceptor(rulesReference,
+                new PublishConflator(rulesReference, executorService, publishService, 16),
+                () -> {
+                    throw new UnsupportedOperationException("no policy lookup rule");
+                },
+                new PreventPublishMetrics(new MetricRegistry()),
+                clientId);
+    }
+
+    private static PublishInboundInput input(final String topic) {
+        final Optional<ByteBuffer> payload = Optional.empty();
+        final PublishPacket publishPacket = (PublishPacket) Proxy.newProxyInstance(
+                PublishPacket.class.getClassLoader(), new Class<?>[]{PublishPacket.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getTopic":
+                            return topic;
+                        case "getPayload":
+                            return payload;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return (PublishInboundInput) Proxy.newProxyInstance(PublishInboundInput.class.getClassLoader(),
+                new Class<?>[]{PublishInboundInput.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("getPublishPacket")) {
+                        return publishPacket;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static <T> T unsupported(final Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                }));
+    }
+
+    /**
+     * Records the reason code of the prevented delivery, the benchmarks return it so it is not optimized away.
+     */
+    private static final class RecordingOutput implements PublishInboundOutput {
+
+        private AckReasonCode reasonCode;
+
+        AckReasonCode reset() {
+            final AckReasonCode reasonCode = this.reasonCode;
+            this.reasonCode = null;
+            return reasonCode;
+        }
+
+        @Override
+        public ModifiablePublishPacket getPublishPacket() {
+            throw new UnsupportedOperationException("no conflation rule");
+        }
+
+        @Override
+        public void preventPublishDelivery() {
+            reasonCode = AckReasonCode.SUCCESS;
+        }
+
+        @Override
+        public void preventPublishDelivery(final AckReasonCode reasonCode) {
+            this.reasonCode = reasonCode;
+        }
+
+        @Override
+        public void preventPublishDelivery(final AckReasonCode reasonCode, final String reasonString) {
+            this.reasonCode = reasonCode;
+        }
+
+        @Override
+        public Async<PublishInboundOutput> async(final Duration timeout) {
+            throw new UnsupportedOperationException("no policy lookup rule");
+        }
+
+        @Override
+        public Async<PublishInboundOutput> async(final Duration timeout, final TimeoutFallback timeoutFallback) {
+            throw new UnsupportedOperationException("no policy lookup rule");
+        }
+
+        @Override
+        public Async<PublishInboundOutput> async(
+                final Duration timeout,
+                final TimeoutFallback timeoutFallback,
+                final AckReasonCode ackReasonCode,
+                final String reasonString) {
+            throw new UnsupportedOperationException("no policy lookup rule");
+        }
+    }
+}
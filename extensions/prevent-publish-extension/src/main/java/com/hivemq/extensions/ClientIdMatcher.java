@@ -0,0 +1,209 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable Aho-Corasick automaton that finds whether a Client ID contains any of a set of fragments.
+ * <p>
+ * The automaton is built once from all fragments, afterwards a Client ID is checked in a single pass over its
+ * characters, independent of the number of fragments. The states are stored in flat primitive arrays:
+ * the outgoing edges of each state are sorted by character and looked up with a binary search.
+ *
+ * @since 4.21.0
+ */
+public class ClientIdMatcher {
+
+    private static final @NotNull ClientIdMatcher EMPTY =
+            new ClientIdMatcher(new String[0], new int[]{0, 0}, new char[0], new int[0], new int[1], new int[]{-1});
+
+    private final @NotNull String[] fragments;
+    /**
+     * The edges of state {@code s} are at the indices {@code edgeStart[s]} (inclusive)
+     * to {@code edgeStart[s + 1]} (exclusive) of {@link #edgeChars} and {@link #edgeTargets}.
+     */
+    private final @NotNull int[] edgeStart;
+    private final @NotNull char[] edgeChars;
+    private final @NotNull int[] edgeTargets;
+    private final @NotNull int[] failure;
+    /**
+     * The index of a fragment that ends in the state or in any state of its failure chain, {@code -1} if there is none.
+     */
+    private final @NotNull int[] match;
+
+    private ClientIdMatcher(
+            final @NotNull String[] fragments,
+            final @NotNull int[] edgeStart,
+            final @NotNull char[] edgeChars,
+            final @NotNull int[] edgeTargets,
+            final @NotNull int[] failure,
+            final @NotNull int[] match) {
+        this.fragments = fragments;
+        this.edgeStart = edgeStart;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.failure = failure;
+        this.match = match;
+    }
+
+    public static @NotNull ClientIdMatcher empty() {
+        return EMPTY;
+    }
+
+    public static @NotNull ClientIdMatcher compile(final @NotNull Collection<String> fragments) {
+        if (fragments.isEmpty()) {
+            return EMPTY;
+        }
+
+        // build the trie of all fragments
+        final List<TreeMap<Character, Integer>> edges = new ArrayList<>();
+        final List<Integer> terminal = new ArrayList<>();
+        final List<String> distinctFragments = new ArrayList<>();
+        edges.add(new TreeMap<>());
+        terminal.add(-1);
+        for (final String fragment : fragments) {
+            if (fragment.isEmpty()) {
+                throw new IllegalArgumentException("Client ID fragments must not be empty");
+            }
+            int state = 0;
+            for (int i = 0; i < fragment.length(); i++) {
+                final char c = fragment.charAt(i);
+                Integer next = edges.get(state).get(c);
+                if (next == null) {
+                    next = edges.size();
+                    edges.add(new TreeMap<>());
+                    terminal.add(-1);
+                    edges.get(state).put(c, next);
+                }
+                state = next;
+            }
+            if (terminal.get(state) < 0) {
+                terminal.set(state, distinctFragments.size());
+                distinctFragments.add(fragment);
+            }
+        }
+
+        // flatten the edges
+        final int states = edges.size();
+        final int[] edgeStart = new int[states + 1];
+        final char[] edgeChars = new char[states - 1];
+        final int[] edgeTargets = new int[states - 1];
+        int edge = 0;
+        for (int state = 0; state < states; state++) {
+            edgeStart[state] = edge;
+            for (final Map.Entry<Character, Integer> entry : edges.get(state).entrySet()) {
+                edgeChars[edge] = entry.getKey();
+                edgeTargets[edge] = entry.getValue();
+                edge++;
+            }
+        }
+        edgeStart[states] = edge;
+
+        // compute the failure links breadth first, so the failure target of a state is always complete
+        final int[] failure = new int[states];
+        final int[] match = new int[states];
+        final int[] queue = new int[states];
+        match[0] = terminal.get(0);
+        int head = 0;
+        int tail = 0;
+        for (int e = edgeStart[0]; e < edgeStart[1]; e++) {
+            final int child = edgeTargets[e];
+            failure[child] = 0;
+            match[child] = terminal.get(child);
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            final int state = queue[head++];
+            for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+                final int child = edgeTargets[e];
+                final char c = edgeChars[e];
+                int fallback = failure[state];
+                int target;
+                while ((target = transition(edgeStart, edgeChars, edgeTargets, fallback, c)) < 0 && fallback != 0) {
+                    fallback = failure[fallback];
+                }
+                failure[child] = target < 0 ? 0 : target;
+                final int own = terminal.get(child);
+                match[child] = own >= 0 ? own : match[failure[child]];
+                queue[tail++] = child;
+            }
+        }
+        return new ClientIdMatcher(
+                distinctFragments.toArray(new String[0]), edgeStart, edgeChars, edgeTargets, failure, match);
+    }
+
+    public boolean isEmpty() {
+        return fragments.length == 0;
+    }
+
+    public int size() {
+        return fragments.length;
+    }
+
+    /**
+     * @return a fragment contained in the Client ID, or {@code null} if the Client ID contains none of the fragments.
+     */
+    public @Nullable String match(final @NotNull String clientId) {
+        if (fragments.length == 0) {
+            return null;
+        }
+        int state = 0;
+        for (int i = 0; i < clientId.length(); i++) {
+            final char c = clientId.charAt(i);
+            int next;
+            while ((next = transition(edgeStart, edgeChars, edgeTargets, state, c)) < 0 && state != 0) {
+                state = failure[state];
+            }
+            state = next < 0 ? 0 : next;
+            final int matched = match[state];
+            if (matched >= 0) {
+                return fragments[matched];
+            }
+        }
+        return null;
+    }
+
+    private static int transition(
+            final @NotNull int[] edgeStart,
+            final @NotNull char[] edgeChars,
+            final @NotNull int[] edgeTargets,
+            final int state,
+            final char c) {
+
+        int low = edgeStart[state];
+        int high = edgeStart[state + 1] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char midChar = edgeChars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Detects PUBLISHes with the same topic and payload as a PUBLISH seen within the configured window.
+ * <p>
+ * Topic and payload are hashed in place into a 64 bit fingerprint, the payload is never copied.
+ * The fingerprints are kept in a direct mapped table of fixed size. Every entry is a single {@code long} that packs
+ * the upper bits of the fingerprint with the time bucket the fingerprint was last accepted in, so the memory
+ * usage does not depend on the number of topics. A fingerprint that collides with a newer one in its slot is
+ * forgotten early, which lets a duplicate through.
+ * <p>
+ * A distinct PUBLISH is dropped if its slot holds a fingerprint from within the window whose stored tag is equal.
+ * The tag keeps the upper 40 bits of the fingerprint with one of them always set, so 39 bits are compared and a
+ * distinct PUBLISH is dropped with a probability of at most 2<sup>-39</sup> (about 1 in 550 billion).
+ * <p>
+ * Checking and recording a fingerprint is a single compare-and-set on its slot, so of several identical PUBLISHes
+ * arriving concurrently exactly one passes.
+ *
+ * @since 4.21.0
+ */
+public class DuplicatePublishFilter {
+
+    private static final int TIME_BITS = 24;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+    private static final int BUCKETS_PER_WINDOW = 16;
+    private static final long M1 = 0x9E3779B97F4A7C15L;
+    private static final long M2 = 0xC2B2AE3D27D4EB4FL;
+
+    private final long windowMillis;
+    private final long bucketNanos;
+    private final long windowBuckets;
+    private final @NotNull AtomicLongArray entries;
+    private final int mask;
+
+    /**
+     * @param entries the size of the table, rounded up to a power of two.
+     */
+    public DuplicatePublishFilter(final long windowMillis, final int entries) {
+        if (windowMillis <= 0 || entries <= 0) {
+            throw new IllegalArgumentException("Invalid duplicate window: " + windowMillis + " ms");
+        }
+        this.windowMillis = windowMillis;
+        bucketNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(windowMillis) / BUCKETS_PER_WINDOW);
+        windowBuckets = TimeUnit.MILLISECONDS.toNanos(windowMillis) / bucketNanos;
+        final int size = Integer.highestOneBit(Math.max(1, entries * 2 - 1));
+        this.entries = new AtomicLongArray(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Records the PUBLISH if it is not a duplicate.
+     *
+     * @return {@code true} if the same topic and payload were already seen within the window.
+     */
+    public boolean isDuplicate(final @NotNull String topic, final @Nullable ByteBuffer payload, final long nowNanos) {
+        final long fingerprint = fingerprint(topic, payload);
+        final int index = (int) fingerprint & mask;
+        // the lowest tag bit is always set, so an entry is never 0, which marks an empty slot
+        final long tag = (fingerprint >>> TIME_BITS) << TIME_BITS | (1L << TIME_BITS);
+        final long now = (nowNanos / bucketNanos) & TIME_MASK;
+
+        while (true) {
+            final long entry = entries.get(index);
+            if (entry != 0 && (entry & ~TIME_MASK) == tag &&
+                    ((now - (entry & TIME_MASK)) & TIME_MASK) <= windowBuckets) {
+                // the time is not refreshed, so a PUBLISH that is repeated all the time still passes once per window
+                return true;
+            }
+            if (entries.compareAndSet(index, entry, tag | now)) {
+                return false;
+            }
+        }
+    }
+
+    public boolean hasSameSettings(final @NotNull DuplicatePublishFilter other) {
+        return windowMillis == other.windowMillis && entries.length() == other.entries.length();
+    }
+
+    static long fingerprint(final @NotNull String topic, final @Nullable ByteBuffer payload) {
+        long h = topic.length() * M1;
+        for (int i = 0; i < topic.length(); i++) {
+            h = (h ^ topic.charAt(i)) * M2;
+        }
+        h = mix(h);
+        if (payload != null) {
+            // absolute reads do not change the position of the buffer that is passed on to the subscribers
+            final int start = payload.position();
+            final int end = payload.limit();
+            h ^= (end - start) * M1;
+            int i = start;
+            for (; i + Long.BYTES <= end; i += Long.BYTES) {
+                h = mix(h ^ payload.getLong(i) * M1) * M2;
+            }
+            for (; i < end; i++) {
+                h = (h ^ payload.get(i)) * M1;
+            }
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
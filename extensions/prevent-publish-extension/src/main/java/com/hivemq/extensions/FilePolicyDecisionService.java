@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link PolicyDecisionService} that stands in for a remote policy decision point, for example in tests.
+ * <p>
+ * The decisions are read from the file {@value #POLICY_FILE_NAME} in the extension folder.
+ * Every line denies the client (or every client for {@code *}) to publish to topics matching a topic filter:
+ * <pre>
+ * deny sensor-42 commands/#
+ * deny * admin/#
+ * </pre>
+ * Everything else is allowed. The decisions are completed asynchronously on the given executor,
+ * like the response of a remote service.
+ *
+ * @since 4.21.0
+ */
+public class FilePolicyDecisionService implements PolicyDecisionService {
+
+    static final @NotNull String POLICY_FILE_NAME = "policy-decisions.txt";
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(FilePolicyDecisionService.class);
+    private static final @NotNull String ANY_CLIENT = "*";
+
+    private final @NotNull Map<String, TopicFilterTrie> deniedTopicFilters;
+    private final @NotNull TopicFilterTrie deniedForAnyClient;
+    private final @NotNull Executor executor;
+
+    private FilePolicyDecisionService(
+            final @NotNull Map<String, TopicFilterTrie> deniedTopicFilters,
+            final @NotNull Executor executor) {
+        this.deniedForAnyClient = deniedTopicFilters.getOrDefault(ANY_CLIENT, TopicFilterTrie.empty());
+        this.deniedTopicFilters = deniedTopicFilters;
+        this.executor = executor;
+    }
+
+    public static @NotNull FilePolicyDecisionService read(
+            final @NotNull File extensionHomeFolder,
+            final @NotNull Executor executor) throws IOException {
+
+        final File policyFile = new File(extensionHomeFolder, POLICY_FILE_NAME);
+        final Map<String, List<String>> filters = new HashMap<>();
+        if (policyFile.isFile()) {
+            final List<String> lines = Files.readAllLines(policyFile.toPath(), StandardCharsets.UTF_8);
+            for (int i = 0; i < lines.size(); i++) {
+                final String line = lines.get(i).strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] parts = line.split("\\s+");
+                if (parts.length == 3 && "deny".equals(parts[0]) && TopicFilterTrie.isValidFilter(parts[2])) {
+                    filters.computeIfAbsent(parts[1], clientId -> new ArrayList<>()).add(parts[2]);
+                } else {
+                    log.warn("Ignoring invalid decision in line {} of {}: '{}'", i + 1, POLICY_FILE_NAME, line);
+                }
+            }
+        }
+        final Map<String, TopicFilterTrie> deniedTopicFilters = new HashMap<>();
+        filters.forEach((clientId, clientFilters) ->
+                deniedTopicFilters.put(clientId, TopicFilterTrie.compile(clientFilters)));
+        return new FilePolicyDecisionService(deniedTopicFilters, executor);
+    }
+
+    @Override
+    public @NotNull CompletableFuture<Boolean> isPublishAllowed(
+            final @NotNull String clientId,
+            final @NotNull String topic) {
+
+        return CompletableFuture.supplyAsync(() -> {
+            if (deniedForAnyClient.match(topic) != null) {
+                return false;
+            }
+            final TopicFilterTrie denied = deniedTopicFilters.get(clientId);
+            return denied == null || denied.match(topic) == null;
+        }, executor);
+    }
+}
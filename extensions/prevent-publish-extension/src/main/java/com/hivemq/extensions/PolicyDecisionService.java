@@ -0,0 +1,36 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An external service that decides whether a client may publish to a topic.
+ * <p>
+ * Implementations must not block the calling thread, the {@link PreventPublishInterceptor} calls it
+ * for every PUBLISH whose decision is not cached.
+ *
+ * @since 4.21.0
+ */
+public interface PolicyDecisionService {
+
+    /**
+     * @return a future completing with {@code true} if the client may publish to the topic.
+     */
+    @NotNull CompletableFuture<Boolean> isPublishAllowed(@NotNull String clientId, @NotNull String topic);
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Asks the {@link PolicyDecisionService} whether a client may publish to a topic and caches the decisions.
+ * <p>
+ * The cache is a direct mapped table of fixed size keyed by Client ID and topic. A lookup compares the stored
+ * strings with the ones of the PUBLISH and does not allocate, a new decision replaces whatever was stored in its
+ * slot. Decisions expire after the time to live given when they are looked up.
+ * <p>
+ * Concurrent misses for the same Client ID and topic are coalesced: only the first one asks the service, the others
+ * wait for the same pending decision. A lookup that is not answered within its timeout fails, so no pending decision
+ * is kept forever.
+ * <p>
+ * The cache hits and misses, the coalesced misses and the latency of the lookups are exported via the metric
+ * registry.
+ *
+ * @since 4.21.0
+ */
+public class PolicyLookup {
+
+    static final @NotNull String METRIC_PREFIX = "com.hivemq.extensions.prevent-publish.policy";
+
+    private final @NotNull PolicyDecisionService policyDecisionService;
+    private final @NotNull AtomicReferenceArray<Decision> decisions;
+    private final int mask;
+    private final @NotNull ConcurrentHashMap<PendingKey, CompletableFuture<Boolean>> pendingDecisions =
+            new ConcurrentHashMap<>();
+    private final @NotNull Counter cacheHits;
+    private final @NotNull Counter cacheMisses;
+    private final @NotNull Timer lookupLatency;
+    private final @NotNull Counter lookupFailures;
+    private final @NotNull Counter lookupsCoalesced;
+
+    public PolicyLookup(
+            final @NotNull PolicyDecisionService policyDecisionService,
+            final int cacheSize,
+            final @NotNull MetricRegistry metricRegistry) {
+
+        this.policyDecisionService = policyDecisionService;
+        final int size = Integer.highestOneBit(Math.max(1, cacheSize * 2 - 1));
+        decisions = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+        cacheHits = metricRegistry.counter(METRIC_PREFIX + ".cache.hits");
+        cacheMisses = metricRegistry.counter(METRIC_PREFIX + ".cache.misses");
+        lookupLatency = metricRegistry.timer(METRIC_PREFIX + ".lookup.time");
+        lookupFailures = metricRegistry.counter(METRIC_PREFIX + ".lookup.failures");
+        lookupsCoalesced = metricRegistry.counter(METRIC_PREFIX + ".lookup.coalesced");
+        metricRegistry.gauge(METRIC_PREFIX + ".cache.hit-ratio", () -> (Gauge<Double>) () -> {
+            final long hits = cacheHits.getCount();
+            final long total = hits + cacheMisses.getCount();
+            return total == 0 ? 0 : (double) hits / total;
+        });
+    }
+
+    public static void removeMetrics(final @NotNull MetricRegistry metricRegistry) {
+        metricRegistry.removeMatching((name, metric) -> name.startsWith(METRIC_PREFIX + "."));
+    }
+
+    /**
+     * @return the cached decision, or {@code null} if the decision has to be looked up.
+     */
+    public @Nullable Boolean cachedDecision(final @NotNull String clientId, final @NotNull String topic) {
+        final Decision decision = decisions.get(index(clientId, topic));
+        if (decision != null &&
+                System.nanoTime() - decision.expiresAtNanos < 0 &&
+                decision.clientId.equals(clientId) &&
+                decision.topic.equals(topic)) {
+            cacheHits.inc();
+            return decision.allowed;
+        }
+        cacheMisses.inc();
+        return null;
+    }
+
+    /**
+     * Asks the {@link PolicyDecisionService}, unless the same decision is already pending, and caches the decision
+     * for the time to live.
+     *
+     * @return a future completing with the decision, or exceptionally if the service failed, answered {@code null} or
+     *         did not answer within the timeout.
+     */
+    public @NotNull CompletableFuture<Boolean> lookup(
+            final @NotNull String clientId,
+            final @NotNull String topic,
+            final long timeoutMillis,
+            final long timeToLiveMillis) {
+
+        final PendingKey key = new PendingKey(clientId, topic);
+        final CompletableFuture<Boolean> decision = new CompletableFuture<>();
+        final CompletableFuture<Boolean> pendingDecision = pendingDecisions.putIfAbsent(key, decision);
+        if (pendingDecision != null) {
+            lookupsCoalesced.inc();
+            return pendingDecision;
+        }
+        final long start = System.nanoTime();
+        final CompletableFuture<Boolean> answer;
+        try {
+            answer = policyDecisionService.isPublishAllowed(clientId, topic);
+        } catch (final RuntimeException e) {
+            lookupFailures.inc();
+            pendingDecisions.remove(key, decision);
+            decision.completeExceptionally(e);
+            return decision;
+        }
+        answer.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((allowed, answerThrowable) -> {
+            final long now = System.nanoTime();
+            lookupLatency.update(now - start, TimeUnit.NANOSECONDS);
+            // an answer without a decision is a failed lookup, it must not stay pending or be cached
+            final Throwable throwable = answerThrowable == null && allowed == null ?
+                    new IllegalStateException("The policy decision service answered without a decision.") :
+                    answerThrowable;
+            if (throwable == null) {
+                decisions.set(index(clientId, topic), new Decision(
+                        clientId, topic, allowed, now + TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis)));
+            } else {
+                lookupFailures.inc();
+            }
+            // the decision is cached before it stops being pending, so a miss in between does not ask again
+            pendingDecisions.remove(key, decision);
+            if (throwable == null) {
+                decision.complete(allowed);
+            } else {
+                decision.completeExceptionally(throwable);
+            }
+        });
+        return decision;
+    }
+
+    private int index(final @NotNull String clientId, final @NotNull String topic) {
+        int h = clientId.hashCode() * 31 + topic.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h & mask;
+    }
+
+    private static final class PendingKey {
+
+        private final @NotNull String clientId;
+        private final @NotNull String topic;
+
+        private PendingKey(final @NotNull String clientId, final @NotNull String topic) {
+            this.clientId = clientId;
+            this.topic = topic;
+        }
+
+        @Override
+        public boolean equals(final @Nullable Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PendingKey)) {
+                return false;
+            }
+            final PendingKey that = (PendingKey) o;
+            return clientId.equals(that.clientId) && topic.equals(that.topic);
+        }
+
+        @Override
+        public int hashCode() {
+            return clientId.hashCode() * 31 + topic.hashCode();
+        }
+    }
+
+    private static final class Decision {
+
+        private final @NotNull String clientId;
+        private final @NotNull String topic;
+        private final boolean allowed;
+        private final long expiresAtNanos;
+
+        private Decision(
+                final @NotNull String clientId,
+                final @NotNull String topic,
+                final boolean allowed,
+                final long expiresAtNanos) {
+            this.clientId = clientId;
+            this.topic = topic;
+            this.allowed = allowed;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
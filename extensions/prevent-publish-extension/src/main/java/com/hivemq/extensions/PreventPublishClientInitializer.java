@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.client.ClientContext;
+import com.hivemq.extension.sdk.api.client.parameter.InitializerInput;
+import com.hivemq.extension.sdk.api.services.intializer.ClientInitializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Adds a {@link PreventPublishInterceptor} to every client as long as the active rules can affect a client.
+ * <p>
+ * Without any rule the interceptor would only cost time for every PUBLISH, so clients that connect while no rule is
+ * active get no interceptor. Their client contexts are kept, and once a reload activates the first rule
+ * {@link #rulesReloaded(PreventPublishRules)} adds the interceptor to them as well. The contexts are only weakly
+ * referenced, so clients that disconnect in the meantime are not kept.
+ * <p>
+ * Clients keep their interceptor when a reload removes all rules, as they can be added again at any time.
+ *
+ * @since 4.21.0
+ */
+public class PreventPublishClientInitializer implements ClientInitializer {
+
+    private final @NotNull AtomicReference<PreventPublishRules> rulesReference;
+    private final @NotNull Function<String, PreventPublishInterceptor> interceptorFactory;
+    private final @NotNull Map<ClientContext, String> clientsWithoutInterceptor = new WeakHashMap<>();
+
+    public PreventPublishClientInitializer(
+            final @NotNull AtomicReference<PreventPublishRules> rulesReference,
+            final @NotNull Function<String, PreventPublishInterceptor> interceptorFactory) {
+        this.rulesReference = rulesReference;
+        this.interceptorFactory = interceptorFactory;
+    }
+
+    @Override
+    public void initialize(
+            final @NotNull InitializerInput initializerInput,
+            final @NotNull ClientContext clientContext) {
+
+        final String clientId = initializerInput.getClientInformation().getClientId();
+        if (!rulesReference.get().isEmpty()) {
+            clientContext.addPublishInboundInterceptor(interceptorFactory.apply(clientId));
+            return;
+        }
+        synchronized (clientsWithoutInterceptor) {
+            // the rules can be reloaded between the check above and here, which already added the other interceptors
+            if (rulesReference.get().isEmpty()) {
+                clientsWithoutInterceptor.put(clientContext, clientId);
+                return;
+            }
+        }
+        clientContext.addPublishInboundInterceptor(interceptorFactory.apply(clientId));
+    }
+
+    /**
+     * Adds the interceptor to the clients that connected while no rule was active, if the reloaded rules are not empty.
+     */
+    public void rulesReloaded(final @NotNull PreventPublishRules rules) {
+        if (rules.isEmpty()) {
+            return;
+        }
+        final List<Map.Entry<ClientContext, String>> clients;
+        synchronized (clientsWithoutInterceptor) {
+            clients = new ArrayList<>(clientsWithoutInterceptor.entrySet());
+            clientsWithoutInterceptor.clear();
+        }
+        for (final Map.Entry<ClientContext, String> client : clients) {
+            client.getKey().addPublishInboundInterceptor(interceptorFactory.apply(client.getValue()));
+        }
+    }
+
+    int clientsWithoutInterceptor() {
+        synchronized (clientsWithoutInterceptor) {
+            return clientsWithoutInterceptor.size();
+        }
+    }
+}
@@ -16,35 +16,210 @@
 package com.hivemq.extensions;
 
 import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.async.Async;
+import com.hivemq.extension.sdk.api.async.TimeoutFallback;
 import com.hivemq.extension.sdk.api.interceptor.publish.PublishInboundInterceptor;
 import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundInput;
 import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundOutput;
 import com.hivemq.extension.sdk.api.packets.publish.AckReasonCode;
-import com.hivemq.extension.sdk.api.packets.publish.ModifiablePublishPacket;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /**
  * This is a very simple {@link PublishInboundInterceptor},
- * it changes the payload of every incoming PUBLISH with the topic 'hello/world' to 'Hello World!'.
+ * it prevents the delivery of every incoming PUBLISH whose topic or Client ID matches one of the configured
+ * {@link PreventPublishRules}.
+ * <p>
+ * One instance is added per client by the {@link PreventPublishClientInitializer}. The Client ID can not change
+ * during a connection, so the Client ID rules are only evaluated again when a new rules snapshot was loaded, not for
+ * every PUBLISH.
+ * <p>
+ * If the policy lookup is configured, the {@link PolicyLookup} decides whether the client may publish to the topic.
+ * It is only created once a policy lookup rule is active.
+ * Cached decisions are applied right away, otherwise the PUBLISH is processed asynchronously until the
+ * {@link PolicyDecisionService} answers or the timeout expires, so the calling thread is never blocked.
+ * <p>
+ * If rate limits are configured, PUBLISHes exceeding them are rejected with {@link AckReasonCode#QUOTA_EXCEEDED}.
+ * The token bucket of the client is stored in a single field of its interceptor.
+ * If duplicate detection is configured, PUBLISHes repeating the topic and payload of a recent PUBLISH are dropped.
+ * PUBLISHes to conflated topics are handed to the {@link PublishConflator}, which forwards only the latest one,
+ * unless it already holds the maximum number of topics.
  *
  * @author Yannick Weber
  * @since 4.3.1
  */
 public class PreventPublishInterceptor implements PublishInboundInterceptor {
 
+    private static final int REASON_STRING_CACHE_SIZE = 4096;
+    private static final @NotNull ReasonStringCache NOT_ALLOWED_REASONS =
+            new ReasonStringCache("It is not allowed to publish to topic: ", REASON_STRING_CACHE_SIZE);
+    private static final @NotNull ReasonStringCache NOT_AUTHORIZED_REASONS =
+            new ReasonStringCache("Not authorized to publish to topic: ", REASON_STRING_CACHE_SIZE);
+    private static final @NotNull ReasonStringCache RATE_LIMITED_REASONS =
+            new ReasonStringCache("Publish rate limit exceeded for topic: ", REASON_STRING_CACHE_SIZE);
+
+    private static final @NotNull AtomicLongFieldUpdater<PreventPublishInterceptor> RATE_LIMIT_ARRIVAL_TIME =
+            AtomicLongFieldUpdater.newUpdater(PreventPublishInterceptor.class, "rateLimitArrivalTime");
+
+    private final @NotNull AtomicReference<PreventPublishRules> rulesReference;
+    private final @NotNull PublishConflator publishConflator;
+    private final @NotNull Supplier<PolicyLookup> policyLookup;
+    private final @NotNull PreventPublishMetrics metrics;
+    private final @NotNull String clientId;
+    private volatile @Nullable ClientDecision clientDecision;
+    private volatile long rateLimitArrivalTime;
+
+    public PreventPublishInterceptor(
+            final @NotNull AtomicReference<PreventPublishRules> rulesReference,
+            final @NotNull PublishConflator publishConflator,
+            final @NotNull Supplier<PolicyLookup> policyLookup,
+            final @NotNull PreventPublishMetrics metrics,
+            final @NotNull String clientId) {
+        this.rulesReference = rulesReference;
+        this.publishConflator = publishConflator;
+        this.policyLookup = policyLookup;
+        this.metrics = metrics;
+        this.clientId = clientId;
+    }
+
     @Override
     public void onInboundPublish(
             final @NotNull PublishInboundInput publishInboundInput,
             final @NotNull PublishInboundOutput publishInboundOutput) {
 
-        final ModifiablePublishPacket publishPacket = publishInboundOutput.getPublishPacket();
-        final String clientId = publishInboundInput.getClientInformation().getClientId();
+        final PreventPublishRules rules = rulesReference.get();
         final String topic = publishInboundInput.getPublishPacket().getTopic();
 
-        if (clientId.contains("prevent") || topic.contains("prevent")) {
+        final String clientRule = matchClientRule(rules);
+        final String topicRule = clientRule == null ? rules.matchTopic(topic) : null;
+        if (clientRule != null || topicRule != null) {
+            if (clientRule != null) {
+                metrics.rejectedByClientRule(clientRule);
+            } else {
+                metrics.rejectedByTopicRule(topicRule);
+            }
             // prevent publish delivery on the output object
             //publishInboundOutput.preventPublishDelivery();
             //publishInboundOutput.preventPublishDelivery(AckReasonCode.TOPIC_NAME_INVALID);
-            publishInboundOutput.preventPublishDelivery(AckReasonCode.TOPIC_NAME_INVALID, "It is not allowed to publish to topic: " + topic);
+            publishInboundOutput.preventPublishDelivery(AckReasonCode.TOPIC_NAME_INVALID, NOT_ALLOWED_REASONS.get(topic));
+            return;
+        }
+        final PreventPublishRules.PolicyLookupSettings policyLookupSettings = rules.getPolicyLookupSettings();
+        if (policyLookupSettings != null) {
+            final Boolean allowed = policyLookup.get().cachedDecision(clientId, topic);
+            if (allowed == null) {
+                lookUpPolicy(rules, policyLookupSettings, topic, publishInboundInput, publishInboundOutput);
+                return;
+            }
+            if (!allowed) {
+                metrics.rejectedByPolicy();
+                publishInboundOutput.preventPublishDelivery(AckReasonCode.NOT_AUTHORIZED, NOT_AUTHORIZED_REASONS.get(topic));
+                return;
+            }
+        }
+        applyLimits(rules, topic, publishInboundInput, publishInboundOutput);
+    }
+
+    private void lookUpPolicy(
+            final @NotNull PreventPublishRules rules,
+            final @NotNull PreventPublishRules.PolicyLookupSettings policyLookupSettings,
+            final @NotNull String topic,
+            final @NotNull PublishInboundInput publishInboundInput,
+            final @NotNull PublishInboundOutput publishInboundOutput) {
+
+        final Async<PublishInboundOutput> async = publishInboundOutput.async(
+                Duration.ofMillis(policyLookupSettings.getTimeoutMillis()),
+                policyLookupSettings.isAllowOnTimeout() ? TimeoutFallback.SUCCESS : TimeoutFallback.FAILURE,
+                AckReasonCode.NOT_AUTHORIZED,
+                NOT_AUTHORIZED_REASONS.get(topic));
+
+        policyLookup.get().lookup(clientId, topic,
+                        policyLookupSettings.getTimeoutMillis(), policyLookupSettings.getTimeToLiveMillis())
+                .whenComplete((allowed, throwable) -> {
+                    // a failed lookup or one without a decision is treated like a lookup that timed out
+                    final boolean publishAllowed = allowed != null && throwable == null ?
+                            allowed : policyLookupSettings.isAllowOnTimeout();
+                    try {
+                        if (publishAllowed) {
+                            applyLimits(rules, topic, publishInboundInput, publishInboundOutput);
+                        } else {
+                            metrics.rejectedByPolicy();
+                            publishInboundOutput.preventPublishDelivery(AckReasonCode.NOT_AUTHORIZED, NOT_AUTHORIZED_REASONS.get(topic));
+                        }
+                    } finally {
+                        async.resume();
+                    }
+                });
+    }
+
+    private void applyLimits(
+            final @NotNull PreventPublishRules rules,
+            final @NotNull String topic,
+            final @NotNull PublishInboundInput publishInboundInput,
+            final @NotNull PublishInboundOutput publishInboundOutput) {
+
+        final boolean clientRateLimited = !tryAcquireClientPermit(rules);
+        if (clientRateLimited || !rules.tryAcquireTopicPermit(topic)) {
+            if (clientRateLimited) {
+                metrics.rejectedByClientRateLimit();
+            } else {
+                metrics.rejectedByTopicRateLimit();
+            }
+            publishInboundOutput.preventPublishDelivery(AckReasonCode.QUOTA_EXCEEDED, RATE_LIMITED_REASONS.get(topic));
+            return;
+        }
+        if (rules.isDeduplicating() &&
+                rules.isDuplicate(topic, publishInboundInput.getPublishPacket().getPayload().orElse(null))) {
+            // the publisher did nothing wrong, so the PUBLISH is acknowledged as usual, just not delivered
+            metrics.droppedAsDuplicate();
+            publishInboundOutput.preventPublishDelivery();
+            return;
+        }
+        if (rules.isConflated(topic) && publishConflator.offer(publishInboundOutput.getPublishPacket())) {
+            publishInboundOutput.preventPublishDelivery();
+        }
+    }
+
+    private @Nullable String matchClientRule(final @NotNull PreventPublishRules rules) {
+        ClientDecision clientDecision = this.clientDecision;
+        if (clientDecision == null || clientDecision.rules != rules) {
+            // concurrent publishes may both recompute the decision, they come to the same result
+            clientDecision = new ClientDecision(rules, rules.matchClientId(clientId));
+            this.clientDecision = clientDecision;
+        }
+        return clientDecision.matchedRule;
+    }
+
+    private boolean tryAcquireClientPermit(final @NotNull PreventPublishRules rules) {
+        final TokenBucketRateLimiter rateLimiter = rules.getClientRateLimiter();
+        if (rateLimiter == null) {
+            return true;
+        }
+        final long now = TokenBucketRateLimiter.now();
+        while (true) {
+            final long arrivalTime = rateLimitArrivalTime;
+            final long next = rateLimiter.nextArrivalTime(arrivalTime, now);
+            if (next == TokenBucketRateLimiter.REJECTED) {
+                return false;
+            }
+            if (RATE_LIMIT_ARRIVAL_TIME.compareAndSet(this, arrivalTime, next)) {
+                return true;
+            }
+        }
+    }
+
+    private static final class ClientDecision {
+
+        private final @NotNull PreventPublishRules rules;
+        private final @Nullable String matchedRule;
+
+        private ClientDecision(final @NotNull PreventPublishRules rules, final @Nullable String matchedRule) {
+            this.rules = rules;
+            this.matchedRule = matchedRule;
         }
     }
-}
\ No newline at end of file
+}
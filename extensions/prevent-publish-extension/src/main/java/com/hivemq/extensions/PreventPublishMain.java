@@ -17,12 +17,20 @@ package com.hivemq.extensions;
 
 import com.hivemq.extension.sdk.api.ExtensionMain;
 import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
 import com.hivemq.extension.sdk.api.parameter.*;
 import com.hivemq.extension.sdk.api.services.Services;
 import com.hivemq.extension.sdk.api.services.intializer.InitializerRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
 /**
  * This is the main class of the extension,
  * which is instantiated either during the HiveMQ start up process (if extension is enabled)
@@ -34,6 +42,15 @@ import org.slf4j.LoggerFactory;
 public class PreventPublishMain implements ExtensionMain {
 
     private static final @NotNull Logger log = LoggerFactory.getLogger(PreventPublishMain.class);
+    private static final int POLICY_CACHE_SIZE = 1 << 16;
+    private static final int MAX_CONFLATED_TOPICS = 1 << 16;
+    private static final @NotNull String EXECUTOR_METRIC_PREFIX = "com.hivemq.extensions.prevent-publish.executor";
+    private static final long EXECUTOR_OVERDUE_MILLIS = 100;
+
+    private @Nullable PreventPublishRulesWatcher rulesWatcher;
+    private @Nullable PublishConflator publishConflator;
+    private @Nullable InstrumentedScheduledExecutorService executorService;
+    private volatile @Nullable PolicyLookup policyLookup;
 
     @Override
     public void extensionStart(
@@ -41,9 +58,9 @@ public class PreventPublishMain implements ExtensionMain {
             final @NotNull ExtensionStartOutput extensionStartOutput) {
 
         try {
-            addPublishModifier();
-
             final ExtensionInformation extensionInformation = extensionStartInput.getExtensionInformation();
+            addPublishModifier(extensionInformation.getExtensionHomeFolder());
+
             log.info("Started " + extensionInformation.getName() + ":" + extensionInformation.getVersion());
 
         } catch (final Exception e) {
@@ -56,16 +73,80 @@ public class PreventPublishMain implements ExtensionMain {
             final @NotNull ExtensionStopInput extensionStopInput,
             final @NotNull ExtensionStopOutput extensionStopOutput) {
 
+        if (rulesWatcher != null) {
+            rulesWatcher.stop();
+        }
+        if (publishConflator != null) {
+            publishConflator.stop();
+        }
+        if (executorService != null) {
+            executorService.removeMetrics();
+        }
+        PolicyLookup.removeMetrics(Services.metricRegistry());
+        PreventPublishMetrics.removeMetrics(Services.metricRegistry());
+
         final ExtensionInformation extensionInformation = extensionStopInput.getExtensionInformation();
         log.info("Stopped " + extensionInformation.getName() + ":" + extensionInformation.getVersion());
     }
 
-    private void addPublishModifier() {
+    private void addPublishModifier(final @NotNull File extensionHomeFolder) throws IOException {
         final InitializerRegistry initializerRegistry = Services.initializerRegistry();
+        final InstrumentedScheduledExecutorService executorService = new InstrumentedScheduledExecutorService(
+                Services.extensionExecutorService(),
+                Services.metricRegistry(),
+                EXECUTOR_METRIC_PREFIX,
+                EXECUTOR_OVERDUE_MILLIS);
+        this.executorService = executorService;
+
+        final AtomicReference<PreventPublishRules> rulesReference =
+                new AtomicReference<>(PreventPublishRules.read(extensionHomeFolder, null));
+        final PreventPublishMetrics metrics = new PreventPublishMetrics(Services.metricRegistry());
+        final PublishConflator publishConflator = new PublishConflator(
+                rulesReference, executorService, Services.publishService(), MAX_CONFLATED_TOPICS);
+        publishConflator.start();
+        this.publishConflator = publishConflator;
+        final Supplier<PolicyLookup> policyLookup = () -> policyLookup(extensionHomeFolder, executorService);
+        if (rulesReference.get().getPolicyLookupSettings() != null) {
+            // read the policy decisions now instead of on the first PUBLISH
+            policyLookup.get();
+        }
+        final PreventPublishClientInitializer clientInitializer = new PreventPublishClientInitializer(rulesReference,
+                clientId -> new PreventPublishInterceptor(
+                        rulesReference, publishConflator, policyLookup, metrics, clientId));
 
-        final PreventPublishInterceptor preventPublishInterceptor = new PreventPublishInterceptor();
+        rulesWatcher = new PreventPublishRulesWatcher(extensionHomeFolder, rulesReference, executorService, rules -> {
+            metrics.retainRules(rules);
+            clientInitializer.rulesReloaded(rules);
+        });
+        rulesWatcher.start();
 
-        initializerRegistry.setClientInitializer(
-                (initializerInput, clientContext) -> clientContext.addPublishInboundInterceptor(preventPublishInterceptor));
+        // clients only get an interceptor while a rule is active, the initializer adds it on the reload otherwise
+        initializerRegistry.setClientInitializer(clientInitializer);
+    }
+
+    /**
+     * The policy decisions are only read and the policy metrics only registered once a rules snapshot with a policy
+     * lookup rule is active. If the rule is added by a reload, this happens on the first PUBLISH that needs a decision.
+     */
+    private @NotNull PolicyLookup policyLookup(final @NotNull File extensionHomeFolder, final @NotNull Executor executor) {
+        PolicyLookup policyLookup = this.policyLookup;
+        if (policyLookup != null) {
+            return policyLookup;
+        }
+        synchronized (this) {
+            policyLookup = this.policyLookup;
+            if (policyLookup == null) {
+                PolicyDecisionService policyDecisionService;
+                try {
+                    policyDecisionService = FilePolicyDecisionService.read(extensionHomeFolder, executor);
+                } catch (final IOException e) {
+                    log.error("Could not read the policy decisions, every lookup fails.", e);
+                    policyDecisionService = (clientId, topic) -> CompletableFuture.failedFuture(e);
+                }
+                policyLookup = new PolicyLookup(policyDecisionService, POLICY_CACHE_SIZE, Services.metricRegistry());
+                this.policyLookup = policyLookup;
+            }
+            return policyLookup;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.packets.publish.AckReasonCode;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Counts the PUBLISHes the {@link PreventPublishInterceptor} rejects, in total, per reason code and per rule.
+ * <p>
+ * The rejection counters are registered via the metric registry below {@value #METRIC_PREFIX}. PUBLISHes dropped as
+ * duplicates are acknowledged as usual and are not rejections, they are counted separately as
+ * {@value #DEDUPLICATED_METRIC}. The counters of the registry are backed by a
+ * {@link java.util.concurrent.atomic.LongAdder}, so they can be incremented from all threads without contention.
+ * The counters of the topic and Client ID rules are registered when the rule rejects its first
+ * PUBLISH, so thousands of configured rules do not register thousands of metrics that stay 0.
+ * <p>
+ * The rules can contain any character, so the counters are not named by the plain rule but by its
+ * {@link #ruleKey(String) key}. Otherwise rules like {@code prevent/+} and {@code prevent/#} would end up as the same
+ * metric once an exporter like Prometheus replaces the characters it does not allow. The counters of rules that are
+ * removed by a reload are dropped via {@link #retainRules(PreventPublishRules)}.
+ *
+ * @since 4.21.0
+ */
+public class PreventPublishMetrics {
+
+    static final @NotNull String METRIC_PREFIX = "com.hivemq.extensions.prevent-publish.rejected";
+    static final @NotNull String DEDUPLICATED_METRIC = "com.hivemq.extensions.prevent-publish.deduplicated";
+    private static final int MAX_RULE_KEY_LENGTH = 48;
+
+    private final @NotNull MetricRegistry metricRegistry;
+    private final @NotNull Counter total;
+    private final @NotNull EnumMap<AckReasonCode, Counter> reasonCodes = new EnumMap<>(AckReasonCode.class);
+    private final @NotNull ConcurrentHashMap<String, Counter> topicRules = new ConcurrentHashMap<>();
+    private final @NotNull ConcurrentHashMap<String, Counter> clientRules = new ConcurrentHashMap<>();
+    private final @NotNull Counter clientRateLimit;
+    private final @NotNull Counter topicRateLimit;
+    private final @NotNull Counter policy;
+    private final @NotNull Counter deduplicated;
+
+    public PreventPublishMetrics(final @NotNull MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        total = metricRegistry.counter(METRIC_PREFIX + ".total");
+        for (final AckReasonCode reasonCode : new AckReasonCode[]{
+                AckReasonCode.TOPIC_NAME_INVALID,
+                AckReasonCode.QUOTA_EXCEEDED,
+                AckReasonCode.NOT_AUTHORIZED}) {
+            reasonCodes.put(reasonCode, metricRegistry.counter(
+                    METRIC_PREFIX + ".reason-code." + reasonCode.name().toLowerCase(Locale.ROOT).replace('_', '-')));
+        }
+        clientRateLimit = metricRegistry.counter(METRIC_PREFIX + ".rule.rate-limit.client");
+        topicRateLimit = metricRegistry.counter(METRIC_PREFIX + ".rule.rate-limit.topic");
+        policy = metricRegistry.counter(METRIC_PREFIX + ".rule.policy");
+        deduplicated = metricRegistry.counter(DEDUPLICATED_METRIC);
+    }
+
+    public static void removeMetrics(final @NotNull MetricRegistry metricRegistry) {
+        metricRegistry.removeMatching(
+                (name, metric) -> name.startsWith(METRIC_PREFIX + ".") || name.equals(DEDUPLICATED_METRIC));
+    }
+
+    /**
+     * Builds the part of the metric name for a topic or Client ID rule: the rule with all characters apart from
+     * letters and digits replaced by {@code _}, followed by the hex hash code of the rule, so rules that only differ
+     * in the replaced characters stay distinct.
+     */
+    static @NotNull String ruleKey(final @NotNull String rule) {
+        final StringBuilder key = new StringBuilder(Math.min(rule.length(), MAX_RULE_KEY_LENGTH) + 9);
+        for (int i = 0; i < rule.length() && i < MAX_RULE_KEY_LENGTH; i++) {
+            final char c = rule.charAt(i);
+            key.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ? c : '_');
+        }
+        return key.append('_').append(String.format("%08x", rule.hashCode())).toString();
+    }
+
+    /**
+     * Removes the counters of the topic and Client ID rules that are no longer part of the rules, called after every
+     * reload of the rules file.
+     * <p>
+     * A PUBLISH that is still checked against the previous rules while they are replaced can register the counter of
+     * a removed rule again, it is dropped by the next reload.
+     */
+    public void retainRules(final @NotNull PreventPublishRules rules) {
+        retain(topicRules, "topic", rules::hasTopicRule);
+        retain(clientRules, "client", rules::hasClientRule);
+    }
+
+    public void rejectedByTopicRule(final @NotNull String topicFilter) {
+        counter(topicRules, "topic", topicFilter).inc();
+        rejected(AckReasonCode.TOPIC_NAME_INVALID);
+    }
+
+    public void rejectedByClientRule(final @NotNull String clientIdFragment) {
+        counter(clientRules, "client", clientIdFragment).inc();
+        rejected(AckReasonCode.TOPIC_NAME_INVALID);
+    }
+
+    public void rejectedByClientRateLimit() {
+        clientRateLimit.inc();
+        rejected(AckReasonCode.QUOTA_EXCEEDED);
+    }
+
+    public void rejectedByTopicRateLimit() {
+        topicRateLimit.inc();
+        rejected(AckReasonCode.QUOTA_EXCEEDED);
+    }
+
+    public void rejectedByPolicy() {
+        policy.inc();
+        rejected(AckReasonCode.NOT_AUTHORIZED);
+    }
+
+    public void droppedAsDuplicate() {
+        deduplicated.inc();
+    }
+
+    private void rejected(final @NotNull AckReasonCode reasonCode) {
+        reasonCodes.get(reasonCode).inc();
+        total.inc();
+    }
+
+    private void retain(
+            final @NotNull ConcurrentHashMap<String, Counter> counters,
+            final @NotNull String type,
+            final @NotNull Predicate<String> hasRule) {
+        for (final String rule : counters.keySet()) {
+            if (!hasRule.test(rule)) {
+                counters.remove(rule);
+                metricRegistry.remove(ruleMetricName(type, rule));
+            }
+        }
+    }
+
+    private static @NotNull String ruleMetricName(final @NotNull String type, final @NotNull String rule) {
+        return METRIC_PREFIX + ".rule." + type + "." + ruleKey(rule);
+    }
+
+    private @NotNull Counter counter(
+            final @NotNull ConcurrentHashMap<String, Counter> counters,
+            final @NotNull String type,
+            final @NotNull String rule) {
+
+        // a plain get does not lock, computeIfAbsent is only needed for the first rejection of a rule
+        final Counter counter = counters.get(rule);
+        if (counter != null) {
+            return counter;
+        }
+        return counters.computeIfAbsent(rule,
+                r -> metricRegistry.counter(ruleMetricName(type, r)));
+    }
+}
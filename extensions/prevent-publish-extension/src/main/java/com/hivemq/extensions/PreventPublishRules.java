@@ -0,0 +1,340 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The compiled, immutable set of rules the {@link PreventPublishInterceptor} checks every inbound PUBLISH against.
+ * <p>
+ * The rules are read from the file {@value #RULES_FILE_NAME} in the extension folder.
+ * Every line holds one rule, empty lines and lines starting with {@code #} are ignored:
+ * <pre>
+ * # prevent publishes to every topic below 'prevent'
+ * topic prevent/#
+ * # prevent publishes from every client whose Client ID contains 'prevent'
+ * client prevent
+ * # allow every client 100 publishes per second with bursts of up to 200 publishes
+ * rate-limit client 100 200
+ * # allow 1000 publishes per second with bursts of up to 1000 publishes per first topic level
+ * rate-limit topic 1 1000 1000
+ * # drop publishes with the same topic and payload as a publish within the last 1000 milliseconds
+ * deduplicate 1000
+ * # only forward the latest publish every 100 milliseconds for every topic below 'telemetry'
+ * conflate telemetry/#
+ * conflation-window 100
+ * # ask the policy decision service, wait at most 500 milliseconds, cache decisions for 60 seconds, deny on timeout
+ * policy-lookup 500 60000 deny
+ * </pre>
+ *
+ * @since 4.21.0
+ */
+public class PreventPublishRules {
+
+    static final @NotNull String RULES_FILE_NAME = "prevent-rules.txt";
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(PreventPublishRules.class);
+    private static final @NotNull String TOPIC_RULE = "topic";
+    private static final @NotNull String CLIENT_RULE = "client";
+    private static final @NotNull String RATE_LIMIT_RULE = "rate-limit";
+    private static final int TOPIC_RATE_LIMIT_STRIPES = 1 << 16;
+    private static final @NotNull String DEDUPLICATE_RULE = "deduplicate";
+    private static final int DEDUPLICATE_ENTRIES = 1 << 18;
+    private static final @NotNull String CONFLATE_RULE = "conflate";
+    private static final @NotNull String CONFLATION_WINDOW_RULE = "conflation-window";
+    private static final long DEFAULT_CONFLATION_WINDOW_MILLIS = 100;
+    private static final @NotNull String POLICY_LOOKUP_RULE = "policy-lookup";
+
+    private final @NotNull TopicFilterTrie topicFilters;
+    private final @NotNull ClientIdMatcher clientIdFragments;
+    private final @NotNull Set<String> topicRules;
+    private final @NotNull Set<String> clientRules;
+    private final @Nullable TokenBucketRateLimiter clientRateLimiter;
+    private final @Nullable TokenBucketRateLimiter topicRateLimiter;
+    private final int topicRateLimitLevels;
+    private final @Nullable DuplicatePublishFilter duplicatePublishFilter;
+    private final @NotNull TopicFilterTrie conflationFilters;
+    private final long conflationWindowMillis;
+    private final @Nullable PolicyLookupSettings policyLookupSettings;
+
+    private PreventPublishRules(
+            final @NotNull Collection<String> topicRules,
+            final @NotNull Collection<String> clientRules,
+            final @Nullable TokenBucketRateLimiter clientRateLimiter,
+            final @Nullable TokenBucketRateLimiter topicRateLimiter,
+            final int topicRateLimitLevels,
+            final @Nullable DuplicatePublishFilter duplicatePublishFilter,
+            final @NotNull TopicFilterTrie conflationFilters,
+            final long conflationWindowMillis,
+            final @Nullable PolicyLookupSettings policyLookupSettings) {
+        topicFilters = TopicFilterTrie.compile(topicRules);
+        clientIdFragments = ClientIdMatcher.compile(clientRules);
+        this.topicRules = Set.copyOf(topicRules);
+        this.clientRules = Set.copyOf(clientRules);
+        this.clientRateLimiter = clientRateLimiter;
+        this.topicRateLimiter = topicRateLimiter;
+        this.topicRateLimitLevels = topicRateLimitLevels;
+        this.duplicatePublishFilter = duplicatePublishFilter;
+        this.conflationFilters = conflationFilters;
+        this.conflationWindowMillis = conflationWindowMillis;
+        this.policyLookupSettings = policyLookupSettings;
+    }
+
+    /**
+     * @param previous the currently active rules, their rate limit state is kept if the rate limits did not change.
+     */
+    public static @NotNull PreventPublishRules read(
+            final @NotNull File extensionHomeFolder,
+            final @Nullable PreventPublishRules previous) throws IOException {
+
+        final File rulesFile = new File(extensionHomeFolder, RULES_FILE_NAME);
+        if (!rulesFile.isFile()) {
+            log.warn("Rules file {} not found, no publishes will be prevented.", rulesFile.getAbsolutePath());
+            return parse(List.of(), previous);
+        }
+        return parse(Files.readAllLines(rulesFile.toPath(), StandardCharsets.UTF_8), previous);
+    }
+
+    public static @NotNull PreventPublishRules parse(
+            final @NotNull List<String> lines,
+            final @Nullable PreventPublishRules previous) {
+
+        final List<String> topicFilters = new ArrayList<>();
+        final List<String> clientIdFragments = new ArrayList<>();
+        TokenBucketRateLimiter clientRateLimiter = null;
+        TokenBucketRateLimiter topicRateLimiter = null;
+        int topicRateLimitLevels = 0;
+        DuplicatePublishFilter duplicatePublishFilter = null;
+        final List<String> conflationFilters = new ArrayList<>();
+        long conflationWindowMillis = DEFAULT_CONFLATION_WINDOW_MILLIS;
+        PolicyLookupSettings policyLookupSettings = null;
+
+        for (int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final int separator = line.indexOf(' ');
+            final String type = separator < 0 ? line : line.substring(0, separator);
+            final String value = separator < 0 ? "" : line.substring(separator + 1).strip();
+            final String[] arguments = value.split("\\s+");
+
+            if (TOPIC_RULE.equals(type) && TopicFilterTrie.isValidFilter(value)) {
+                topicFilters.add(value);
+            } else if (CLIENT_RULE.equals(type) && !value.isEmpty()) {
+                clientIdFragments.add(value);
+            } else if (RATE_LIMIT_RULE.equals(type) && isValidRateLimit(arguments)) {
+                if (CLIENT_RULE.equals(arguments[0])) {
+                    clientRateLimiter = new TokenBucketRateLimiter(
+                            Double.parseDouble(arguments[1]), Integer.parseInt(arguments[2]), 0);
+                } else {
+                    topicRateLimitLevels = Integer.parseInt(arguments[1]);
+                    topicRateLimiter = new TokenBucketRateLimiter(Double.parseDouble(arguments[2]),
+                            Integer.parseInt(arguments[3]), TOPIC_RATE_LIMIT_STRIPES);
+                }
+            } else if (DEDUPLICATE_RULE.equals(type) && isPositiveLong(value)) {
+                duplicatePublishFilter = new DuplicatePublishFilter(Long.parseLong(value), DEDUPLICATE_ENTRIES);
+            } else if (CONFLATE_RULE.equals(type) && TopicFilterTrie.isValidFilter(value)) {
+                conflationFilters.add(value);
+            } else if (CONFLATION_WINDOW_RULE.equals(type) && isPositiveLong(value)) {
+                conflationWindowMillis = Long.parseLong(value);
+            } else if (POLICY_LOOKUP_RULE.equals(type) && arguments.length == 3 &&
+                    isPositiveLong(arguments[0]) && isPositiveLong(arguments[1]) &&
+                    ("allow".equals(arguments[2]) || "deny".equals(arguments[2]))) {
+                policyLookupSettings = new PolicyLookupSettings(
+                        Long.parseLong(arguments[0]), Long.parseLong(arguments[1]), "allow".equals(arguments[2]));
+            } else {
+                log.warn("Ignoring invalid rule in line {} of {}: '{}'", i + 1, RULES_FILE_NAME, line);
+            }
+        }
+        // keep the state of the shared buckets, otherwise every reload would allow a new burst
+        if (topicRateLimiter != null && previous != null && previous.topicRateLimiter != null &&
+                previous.topicRateLimitLevels == topicRateLimitLevels &&
+                previous.topicRateLimiter.hasSameSettings(topicRateLimiter)) {
+            topicRateLimiter = previous.topicRateLimiter;
+        }
+        if (duplicatePublishFilter != null && previous != null && previous.duplicatePublishFilter != null &&
+                previous.duplicatePublishFilter.hasSameSettings(duplicatePublishFilter)) {
+            duplicatePublishFilter = previous.duplicatePublishFilter;
+        }
+        final PreventPublishRules rules = new PreventPublishRules(topicFilters,
+                clientIdFragments, clientRateLimiter, topicRateLimiter, topicRateLimitLevels,
+                duplicatePublishFilter, TopicFilterTrie.compile(conflationFilters), conflationWindowMillis,
+                policyLookupSettings);
+        log.debug("Compiled {} topic filter rules and {} Client ID rules.",
+                rules.topicFilters.size(), rules.clientIdFragments.size());
+        return rules;
+    }
+
+    private static boolean isValidRateLimit(final @NotNull String[] arguments) {
+        try {
+            if (arguments.length == 3 && CLIENT_RULE.equals(arguments[0])) {
+                return TokenBucketRateLimiter.isValid(Double.parseDouble(arguments[1]), Integer.parseInt(arguments[2]));
+            }
+            if (arguments.length == 4 && TOPIC_RULE.equals(arguments[0])) {
+                return Integer.parseInt(arguments[1]) > 0 &&
+                        TokenBucketRateLimiter.isValid(Double.parseDouble(arguments[2]), Integer.parseInt(arguments[3]));
+            }
+        } catch (final NumberFormatException ignored) {
+        }
+        return false;
+    }
+
+    private static boolean isPositiveLong(final @NotNull String value) {
+        try {
+            return Long.parseLong(value) > 0;
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the topic filter rule matching the topic, or {@code null} if publishes to the topic are allowed.
+     */
+    public @Nullable String matchTopic(final @NotNull String topic) {
+        return topicFilters.match(topic);
+    }
+
+    /**
+     * @return the Client ID rule matching the Client ID, or {@code null} if publishes from the client are allowed.
+     */
+    public @Nullable String matchClientId(final @NotNull String clientId) {
+        return clientIdFragments.match(clientId);
+    }
+
+    /**
+     * @return {@code true} if there is no rule at all, so no PUBLISH of any client is affected.
+     */
+    public boolean isEmpty() {
+        return topicFilters.isEmpty() && clientIdFragments.isEmpty() && clientRateLimiter == null &&
+                topicRateLimiter == null && duplicatePublishFilter == null && conflationFilters.isEmpty() &&
+                policyLookupSettings == null;
+    }
+
+    /**
+     * @return whether the topic filter is one of the topic rules.
+     */
+    public boolean hasTopicRule(final @NotNull String topicFilter) {
+        return topicRules.contains(topicFilter);
+    }
+
+    /**
+     * @return whether the Client ID fragment is one of the Client ID rules.
+     */
+    public boolean hasClientRule(final @NotNull String clientIdFragment) {
+        return clientRules.contains(clientIdFragment);
+    }
+
+    /**
+     * @return the rate limiter for the buckets of the single clients, or {@code null} if clients are not rate limited.
+     */
+    public @Nullable TokenBucketRateLimiter getClientRateLimiter() {
+        return clientRateLimiter;
+    }
+
+    /**
+     * Takes a permit from the bucket of the topic prefix.
+     *
+     * @return {@code false} if the rate limit of the topic prefix is exceeded, {@code true} otherwise.
+     */
+    public boolean tryAcquireTopicPermit(final @NotNull String topic) {
+        final TokenBucketRateLimiter topicRateLimiter = this.topicRateLimiter;
+        if (topicRateLimiter == null) {
+            return true;
+        }
+        // hash the prefix in place instead of creating a substring for every publish
+        int hash = 0;
+        int levels = 1;
+        for (int i = 0; i < topic.length(); i++) {
+            final char c = topic.charAt(i);
+            if (c == '/' && ++levels > topicRateLimitLevels) {
+                break;
+            }
+            hash = 31 * hash + c;
+        }
+        return topicRateLimiter.tryAcquire(hash);
+    }
+
+    /**
+     * Records the PUBLISH for the duplicate detection.
+     *
+     * @return {@code true} if the same topic and payload were already published within the duplicate window.
+     */
+    public boolean isDuplicate(final @NotNull String topic, final @Nullable ByteBuffer payload) {
+        final DuplicatePublishFilter duplicatePublishFilter = this.duplicatePublishFilter;
+        return duplicatePublishFilter != null && duplicatePublishFilter.isDuplicate(topic, payload, System.nanoTime());
+    }
+
+    public boolean isDeduplicating() {
+        return duplicatePublishFilter != null;
+    }
+
+    /**
+     * @return {@code true} if only the latest PUBLISH per conflation window is forwarded for the topic.
+     */
+    public boolean isConflated(final @NotNull String topic) {
+        return conflationFilters.match(topic) != null;
+    }
+
+    public long getConflationWindowMillis() {
+        return conflationWindowMillis;
+    }
+
+    /**
+     * @return the settings of the policy lookup, or {@code null} if the policy decision service is not asked.
+     */
+    public @Nullable PolicyLookupSettings getPolicyLookupSettings() {
+        return policyLookupSettings;
+    }
+
+    public static final class PolicyLookupSettings {
+
+        private final long timeoutMillis;
+        private final long timeToLiveMillis;
+        private final boolean allowOnTimeout;
+
+        private PolicyLookupSettings(final long timeoutMillis, final long timeToLiveMillis, final boolean allowOnTimeout) {
+            this.timeoutMillis = timeoutMillis;
+            this.timeToLiveMillis = timeToLiveMillis;
+            this.allowOnTimeout = allowOnTimeout;
+        }
+
+        public long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+
+        public long getTimeToLiveMillis() {
+            return timeToLiveMillis;
+        }
+
+        public boolean isAllowOnTimeout() {
+            return allowOnTimeout;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Watches the rules file in the extension folder and swaps in a newly compiled {@link PreventPublishRules}
+ * snapshot whenever it changes.
+ * <p>
+ * The file is read and compiled on the extension executor, the publishing threads only ever see complete
+ * snapshots through a single volatile read of the {@link AtomicReference} and never wait for a reload.
+ * If the changed file can not be read the previous rules stay active. The reload listener is called with every newly
+ * compiled snapshot after it was swapped in.
+ *
+ * @since 4.21.0
+ */
+public class PreventPublishRulesWatcher {
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(PreventPublishRulesWatcher.class);
+    private static final long POLL_INTERVAL_MILLIS = 1000;
+
+    private final @NotNull File extensionHomeFolder;
+    private final @NotNull AtomicReference<PreventPublishRules> rulesReference;
+    private final @NotNull ScheduledExecutorService executorService;
+    private final @NotNull Consumer<PreventPublishRules> reloadListener;
+    private @Nullable WatchService watchService;
+    private @Nullable ScheduledFuture<?> pollFuture;
+
+    public PreventPublishRulesWatcher(
+            final @NotNull File extensionHomeFolder,
+            final @NotNull AtomicReference<PreventPublishRules> rulesReference,
+            final @NotNull ScheduledExecutorService executorService) {
+        this(extensionHomeFolder, rulesReference, executorService, rules -> {});
+    }
+
+    public PreventPublishRulesWatcher(
+            final @NotNull File extensionHomeFolder,
+            final @NotNull AtomicReference<PreventPublishRules> rulesReference,
+            final @NotNull ScheduledExecutorService executorService,
+            final @NotNull Consumer<PreventPublishRules> reloadListener) {
+        this.extensionHomeFolder = extensionHomeFolder;
+        this.rulesReference = rulesReference;
+        this.executorService = executorService;
+        this.reloadListener = reloadListener;
+    }
+
+    public void start() throws IOException {
+        final WatchService watchService = FileSystems.getDefault().newWatchService();
+        extensionHomeFolder.toPath().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        this.watchService = watchService;
+        // polling without blocking coalesces the several events an editor usually produces into a single reload
+        pollFuture = executorService.scheduleWithFixedDelay(
+                this::poll, POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (pollFuture != null) {
+            pollFuture.cancel(false);
+        }
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (final IOException e) {
+                log.debug("Could not close the watch service of the rules file.", e);
+            }
+        }
+    }
+
+    private void poll() {
+        final WatchService watchService = this.watchService;
+        if (watchService == null) {
+            return;
+        }
+        boolean changed = false;
+        try {
+            WatchKey key;
+            while ((key = watchService.poll()) != null) {
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW ||
+                            PreventPublishRules.RULES_FILE_NAME.equals(((Path) event.context()).toString())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+            }
+        } catch (final ClosedWatchServiceException e) {
+            return;
+        }
+        if (changed) {
+            reload();
+        }
+    }
+
+    private void reload() {
+        final File rulesFile = new File(extensionHomeFolder, PreventPublishRules.RULES_FILE_NAME);
+        if (!rulesFile.isFile()) {
+            log.warn("Rules file {} was removed, keeping the previous rules.", rulesFile.getAbsolutePath());
+            return;
+        }
+        try {
+            final long start = System.nanoTime();
+            final PreventPublishRules rules = PreventPublishRules.read(extensionHomeFolder, rulesReference.get());
+            rulesReference.set(rules);
+            reloadListener.accept(rules);
+            log.info("Reloaded rules from {} in {} ms.",
+                    rulesFile.getAbsolutePath(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (final Exception e) {
+            log.error("Could not reload rules from {}, keeping the previous rules.", rulesFile.getAbsolutePath(), e);
+        }
+    }
+}
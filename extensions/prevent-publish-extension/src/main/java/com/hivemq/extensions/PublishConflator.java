@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
+import com.hivemq.extension.sdk.api.services.builder.Builders;
+import com.hivemq.extension.sdk.api.services.publish.Publish;
+import com.hivemq.extension.sdk.api.services.publish.PublishService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Holds only the latest PUBLISH per topic and forwards it once per conflation window.
+ * <p>
+ * The {@link PreventPublishInterceptor} hands every PUBLISH to a conflated topic to {@link #offer(PublishPacket)}
+ * and prevents its delivery. A single task on the extension executor publishes the latest PUBLISH of every topic
+ * that received one during the window via the {@link PublishService}, so intermediate values are never fanned out
+ * to the subscribers. The window is read from the current {@link PreventPublishRules} before each flush.
+ * <p>
+ * At most the configured number of topics are pending at a time, so a client publishing to ever new topics can not
+ * grow the memory usage without bound. PUBLISHes to further topics are not conflated but delivered right away.
+ * A flush that fails is logged and the next flush is scheduled anyway.
+ *
+ * @since 4.21.0
+ */
+public class PublishConflator {
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(PublishConflator.class);
+
+    private final @NotNull AtomicReference<PreventPublishRules> rulesReference;
+    private final @NotNull ScheduledExecutorService executorService;
+    private final @NotNull PublishService publishService;
+    private final int maxPendingTopics;
+    private final @NotNull Function<PublishPacket, Publish> copy;
+    private final @NotNull ConcurrentHashMap<String, Publish> latestPublishes = new ConcurrentHashMap<>();
+    private final @NotNull AtomicBoolean overflowLogged = new AtomicBoolean();
+    private volatile boolean stopped;
+    private volatile @Nullable ScheduledFuture<?> flushFuture;
+
+    public PublishConflator(
+            final @NotNull AtomicReference<PreventPublishRules> rulesReference,
+            final @NotNull ScheduledExecutorService executorService,
+            final @NotNull PublishService publishService,
+            final int maxPendingTopics) {
+        this(rulesReference, executorService, publishService, maxPendingTopics, PublishConflator::copy);
+    }
+
+    PublishConflator(
+            final @NotNull AtomicReference<PreventPublishRules> rulesReference,
+            final @NotNull ScheduledExecutorService executorService,
+            final @NotNull PublishService publishService,
+            final int maxPendingTopics,
+            final @NotNull Function<PublishPacket, Publish> copy) {
+        this.rulesReference = rulesReference;
+        this.executorService = executorService;
+        this.publishService = publishService;
+        this.maxPendingTopics = maxPendingTopics;
+        this.copy = copy;
+    }
+
+    public void start() {
+        scheduleFlush();
+    }
+
+    public void stop() {
+        stopped = true;
+        final ScheduledFuture<?> flushFuture = this.flushFuture;
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+        }
+        // do not lose the latest values of the last window
+        flush();
+    }
+
+    /**
+     * Replaces the pending PUBLISH of the topic.
+     *
+     * @return {@code false} if the maximum number of pending topics is reached and the PUBLISH has to be delivered
+     *         as usual, {@code true} if it was taken over.
+     */
+    public boolean offer(final @NotNull PublishPacket publishPacket) {
+        final String topic = publishPacket.getTopic();
+        // concurrent offers for new topics may exceed the maximum by the number of publishing threads
+        if (latestPublishes.size() >= maxPendingTopics && !latestPublishes.containsKey(topic)) {
+            if (overflowLogged.compareAndSet(false, true)) {
+                log.warn("More than {} conflated topics are pending, further topics are delivered without conflation.",
+                        maxPendingTopics);
+            }
+            return false;
+        }
+        latestPublishes.put(topic, copy.apply(publishPacket));
+        return true;
+    }
+
+    /**
+     * The payload is copied, as the buffer belongs to the incoming PUBLISH.
+     */
+    private static @NotNull Publish copy(final @NotNull PublishPacket publishPacket) {
+        final ByteBuffer payload = publishPacket.getPayload()
+                .map(buffer -> ByteBuffer.allocate(buffer.remaining()).put(buffer.duplicate()).flip())
+                .orElse(ByteBuffer.allocate(0));
+        return Builders.publish().fromPublish(publishPacket).payload(payload).build();
+    }
+
+    private void scheduleFlush() {
+        if (stopped) {
+            return;
+        }
+        final long windowMillis = rulesReference.get().getConflationWindowMillis();
+        flushFuture = executorService.schedule(() -> {
+            try {
+                flush();
+            } catch (final Exception e) {
+                log.error("Could not publish the conflated messages, trying again in the next window.", e);
+            } finally {
+                scheduleFlush();
+            }
+        }, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        if (latestPublishes.isEmpty()) {
+            overflowLogged.set(false);
+            return;
+        }
+        int published = 0;
+        // removing while iterating hands every PUBLISH out exactly once, even if it is replaced concurrently
+        final Iterator<Map.Entry<String, Publish>> iterator = latestPublishes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Publish> entry = iterator.next();
+            if (latestPublishes.remove(entry.getKey(), entry.getValue())) {
+                publishService.publish(entry.getValue()).whenComplete((ignored, throwable) -> {
+                    if (throwable != null) {
+                        log.warn("Could not publish conflated message to topic {}.", entry.getKey(), throwable);
+                    }
+                });
+                published++;
+            }
+        }
+        log.trace("Published {} conflated messages.", published);
+    }
+}
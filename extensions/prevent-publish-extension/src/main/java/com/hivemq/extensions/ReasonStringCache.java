@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded cache of the reason strings for one kind of rejection, keyed by topic.
+ * <p>
+ * A client flooding the broker usually publishes to a handful of topics, so after the first rejection the reason
+ * string for a topic is taken from the cache instead of being concatenated again for every rejected PUBLISH.
+ * The cache is a direct mapped table of fixed size, a topic simply replaces the entry in its slot.
+ *
+ * @since 4.21.0
+ */
+public class ReasonStringCache {
+
+    private final @NotNull String prefix;
+    private final @NotNull AtomicReferenceArray<Entry> entries;
+    private final int mask;
+
+    /**
+     * @param size the number of cached reason strings, rounded up to a power of two.
+     */
+    public ReasonStringCache(final @NotNull String prefix, final int size) {
+        this.prefix = prefix;
+        final int capacity = Integer.highestOneBit(Math.max(1, size * 2 - 1));
+        entries = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return the prefix followed by the topic.
+     */
+    public @NotNull String get(final @NotNull String topic) {
+        int h = topic.hashCode();
+        h ^= h >>> 16;
+        final int index = h & mask;
+        final Entry entry = entries.get(index);
+        if (entry != null && entry.topic.equals(topic)) {
+            return entry.reasonString;
+        }
+        final String reasonString = prefix + topic;
+        entries.set(index, new Entry(topic, reasonString));
+        return reasonString;
+    }
+
+    private static final class Entry {
+
+        private final @NotNull String topic;
+        private final @NotNull String reasonString;
+
+        private Entry(final @NotNull String topic, final @NotNull String reasonString) {
+            this.topic = topic;
+            this.reasonString = reasonString;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A token bucket rate limiter that stores the state of a bucket in a single {@code long}.
+ * <p>
+ * Instead of a token count and a refill timestamp every bucket only stores the theoretical arrival time of the
+ * next permit (generic cell rate algorithm). A permit is granted as long as this time is at most
+ * {@code burst - 1} emission intervals in the future. This makes a bucket update a single compare-and-set.
+ * <p>
+ * Buckets are either owned by the caller, see {@link #nextArrivalTime(long, long)},
+ * or shared in a fixed number of stripes that keys are hashed to, see {@link #tryAcquire(int)}.
+ * Keys that hash to the same stripe share a bucket.
+ *
+ * @since 4.21.0
+ */
+public class TokenBucketRateLimiter {
+
+    public static final long REJECTED = -1;
+
+    private static final long ORIGIN_NANOS = System.nanoTime();
+    /**
+     * Bounds how far the arrival time of a bucket may lie ahead of now (about 73 years), so the time arithmetic
+     * never overflows.
+     */
+    private static final long MAX_BURST_NANOS = Long.MAX_VALUE / 4;
+
+    private final double permitsPerSecond;
+    private final int burst;
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final @NotNull AtomicLongArray stripes;
+    private final int stripeMask;
+
+    /**
+     * @param stripes the number of shared buckets, rounded up to a power of two, or 0 if only caller owned buckets
+     *                are used.
+     */
+    public TokenBucketRateLimiter(final double permitsPerSecond, final int burst, final int stripes) {
+        if (!isValid(permitsPerSecond, burst) || stripes < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid rate limit: " + permitsPerSecond + " permits per second, burst " + burst);
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        emissionIntervalNanos = emissionIntervalNanos(permitsPerSecond);
+        burstToleranceNanos = Math.multiplyExact(emissionIntervalNanos, burst - 1);
+        final int stripeCount = stripes == 0 ? 0 : Integer.highestOneBit(Math.max(1, stripes * 2 - 1));
+        this.stripes = new AtomicLongArray(stripeCount);
+        stripeMask = stripeCount - 1;
+    }
+
+    /**
+     * @return {@code true} if the rate and burst are positive and a full burst takes at most about 73 years to refill.
+     */
+    public static boolean isValid(final double permitsPerSecond, final int burst) {
+        // written as a negation, so NaN is rejected as well
+        if (!(permitsPerSecond > 0) || burst < 1) {
+            return false;
+        }
+        return emissionIntervalNanos(permitsPerSecond) <= MAX_BURST_NANOS / burst;
+    }
+
+    private static long emissionIntervalNanos(final double permitsPerSecond) {
+        return Math.max(1, (long) (1_000_000_000L / permitsPerSecond));
+    }
+
+    /**
+     * @return the current time in the time base of the buckets, always greater than 0.
+     */
+    public static long now() {
+        return System.nanoTime() - ORIGIN_NANOS + 1;
+    }
+
+    /**
+     * Tries to take a permit from a caller owned bucket.
+     *
+     * @param arrivalTime the current state of the bucket, 0 for a full bucket.
+     * @param now         the current time, see {@link #now()}.
+     * @return the new state of the bucket, or {@link #REJECTED} if the bucket has no permit left.
+     */
+    public long nextArrivalTime(final long arrivalTime, final long now) {
+        final long start = Math.max(arrivalTime, now);
+        if (start - now > burstToleranceNanos) {
+            return REJECTED;
+        }
+        return start + emissionIntervalNanos;
+    }
+
+    /**
+     * Tries to take a permit from the shared bucket the key hash maps to.
+     */
+    public boolean tryAcquire(final int keyHash) {
+        final int index = spread(keyHash) & stripeMask;
+        final long now = now();
+        while (true) {
+            final long arrivalTime = stripes.get(index);
+            final long next = nextArrivalTime(arrivalTime, now);
+            if (next == REJECTED) {
+                return false;
+            }
+            if (stripes.compareAndSet(index, arrivalTime, next)) {
+                return true;
+            }
+        }
+    }
+
+    public boolean hasSameSettings(final @NotNull TokenBucketRateLimiter other) {
+        return permitsPerSecond == other.permitsPerSecond &&
+                burst == other.burst &&
+                stripes.length() == other.stripes.length();
+    }
+
+    private static int spread(int h) {
+        // murmur3 finalizer, so keys that only differ in a few bits do not end up in neighbouring stripes
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
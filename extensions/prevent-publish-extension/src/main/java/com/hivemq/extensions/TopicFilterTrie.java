@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable set of MQTT topic filters compiled into a trie with one node per topic level.
+ * <p>
+ * Matching a topic walks the trie level by level, so the cost depends on the depth of the topic
+ * and not on the number of filters. Child levels are kept in open addressing tables that are probed
+ * with the level's character range directly, so matching does not allocate.
+ * <p>
+ * The usual MQTT rules apply: {@code +} matches exactly one level, {@code #} matches the parent level
+ * and everything below, and filters starting with a wildcard do not match topics starting with {@code $}.
+ *
+ * @since 4.21.0
+ */
+public class TopicFilterTrie {
+
+    private static final @NotNull TopicFilterTrie EMPTY = new TopicFilterTrie(new Node(), 0);
+
+    private final @NotNull Node root;
+    private final int size;
+
+    private TopicFilterTrie(final @NotNull Node root, final int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public static @NotNull TopicFilterTrie empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Compiles the given topic filters. The filters must be valid, see {@link #isValidFilter(String)}.
+     */
+    public static @NotNull TopicFilterTrie compile(final @NotNull Collection<String> filters) {
+        if (filters.isEmpty()) {
+            return EMPTY;
+        }
+        final NodeBuilder rootBuilder = new NodeBuilder();
+        int size = 0;
+        for (final String filter : filters) {
+            if (!isValidFilter(filter)) {
+                throw new IllegalArgumentException("Invalid topic filter: " + filter);
+            }
+            if (rootBuilder.add(filter, 0)) {
+                size++;
+            }
+        }
+        return new TopicFilterTrie(rootBuilder.build(), size);
+    }
+
+    public static boolean isValidFilter(final @NotNull String filter) {
+        if (filter.isEmpty()) {
+            return false;
+        }
+        int levelStart = 0;
+        while (true) {
+            final int levelEnd = levelEnd(filter, levelStart);
+            final int levelLength = levelEnd - levelStart;
+            for (int i = levelStart; i < levelEnd; i++) {
+                final char c = filter.charAt(i);
+                if ((c == '+' || c == '#') && levelLength != 1) {
+                    return false;
+                }
+            }
+            if (levelLength == 1 && filter.charAt(levelStart) == '#' && levelEnd != filter.length()) {
+                return false;
+            }
+            if (levelEnd == filter.length()) {
+                return true;
+            }
+            levelStart = levelEnd + 1;
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the first filter matching the topic, or {@code null} if no filter matches.
+     */
+    public @Nullable String match(final @NotNull String topic) {
+        if (size == 0) {
+            return null;
+        }
+        final boolean wildcardsAtRoot = topic.isEmpty() || topic.charAt(0) != '$';
+        return match(root, topic, 0, wildcardsAtRoot);
+    }
+
+    private static @Nullable String match(
+            final @NotNull Node node,
+            final @NotNull String topic,
+            final int levelStart,
+            final boolean wildcards) {
+
+        if (wildcards && node.multiLevelFilter != null) {
+            return node.multiLevelFilter;
+        }
+        if (levelStart < 0) {
+            return node.filter;
+        }
+        final int levelEnd = levelEnd(topic, levelStart);
+        final int nextLevelStart = levelEnd == topic.length() ? -1 : levelEnd + 1;
+
+        final Node child = node.child(topic, levelStart, levelEnd);
+        if (child != null) {
+            final String matched = match(child, topic, nextLevelStart, true);
+            if (matched != null) {
+                return matched;
+            }
+        }
+        if (wildcards && node.singleLevel != null) {
+            return match(node.singleLevel, topic, nextLevelStart, true);
+        }
+        return null;
+    }
+
+    private static int levelEnd(final @NotNull String topic, final int levelStart) {
+        final int separator = topic.indexOf('/', levelStart);
+        return separator < 0 ? topic.length() : separator;
+    }
+
+    private static int hash(final @NotNull String s, final int start, final int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Node {
+
+        private static final @NotNull String[] NO_LEVELS = new String[0];
+        private static final @NotNull Node[] NO_CHILDREN = new Node[0];
+
+        private @NotNull String[] levels = NO_LEVELS;
+        private @NotNull Node[] children = NO_CHILDREN;
+        private @Nullable Node singleLevel;
+        private @Nullable String multiLevelFilter;
+        private @Nullable String filter;
+
+        private @Nullable Node child(final @NotNull String topic, final int start, final int end) {
+            final String[] levels = this.levels;
+            if (levels.length == 0) {
+                return null;
+            }
+            final int length = end - start;
+            final int mask = levels.length - 1;
+            int i = hash(topic, start, end) & mask;
+            while (true) {
+                final String level = levels[i];
+                if (level == null) {
+                    return null;
+                }
+                if (level.length() == length && topic.regionMatches(start, level, 0, length)) {
+                    return children[i];
+                }
+                i = (i + 1) & mask;
+            }
+        }
+    }
+
+    private static final class NodeBuilder {
+
+        private final @NotNull Map<String, NodeBuilder> children = new HashMap<>();
+        private @Nullable NodeBuilder singleLevel;
+        private @Nullable String multiLevelFilter;
+        private @Nullable String filter;
+
+        private boolean add(final @NotNull String filter, final int levelStart) {
+            final int levelEnd = levelEnd(filter, levelStart);
+            final String level = filter.substring(levelStart, levelEnd);
+
+            if ("#".equals(level)) {
+                if (multiLevelFilter != null) {
+                    return false;
+                }
+                multiLevelFilter = filter;
+                return true;
+            }
+            final NodeBuilder child;
+            if ("+".equals(level)) {
+                if (singleLevel == null) {
+                    singleLevel = new NodeBuilder();
+                }
+                child = singleLevel;
+            } else {
+                child = children.computeIfAbsent(level, l -> new NodeBuilder());
+            }
+            if (levelEnd == filter.length()) {
+                if (child.filter != null) {
+                    return false;
+                }
+                child.filter = filter;
+                return true;
+            }
+            return child.add(filter, levelEnd + 1);
+        }
+
+        private @NotNull Node build() {
+            final Node node = new Node();
+            node.filter = filter;
+            node.multiLevelFilter = multiLevelFilter;
+            if (singleLevel != null) {
+                node.singleLevel = singleLevel.build();
+            }
+            if (!children.isEmpty()) {
+                // keep the load factor at or below 0.5 so probe sequences stay short
+                final int capacity = Integer.highestOneBit(children.size() * 2 - 1) << 1;
+                final String[] levels = new String[capacity];
+                final Node[] nodes = new Node[capacity];
+                for (final Map.Entry<String, NodeBuilder> entry : children.entrySet()) {
+                    final String level = entry.getKey();
+                    int i = hash(level, 0, level.length()) & (capacity - 1);
+                    while (levels[i] != null) {
+                        i = (i + 1) & (capacity - 1);
+                    }
+                    levels[i] = level;
+                    nodes[i] = entry.getValue().build();
+                }
+                node.levels = levels;
+                node.children = nodes;
+            }
+            return node;
+        }
+    }
+}
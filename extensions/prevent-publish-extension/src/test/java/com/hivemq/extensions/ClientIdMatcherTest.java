@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientIdMatcherTest {
+
+    @Test
+    void match_fragmentAnywhereInClientId_matches() {
+        final ClientIdMatcher matcher = ClientIdMatcher.compile(List.of("prevent"));
+
+        assertEquals("prevent", matcher.match("prevent"));
+        assertEquals("prevent", matcher.match("prevent-client"));
+        assertEquals("prevent", matcher.match("client-prevent"));
+        assertEquals("prevent", matcher.match("a-prevent-b"));
+        assertNull(matcher.match("preven"));
+        assertNull(matcher.match("Prevent"));
+        assertNull(matcher.match(""));
+    }
+
+    @Test
+    void match_partialMatchFallsBack_followsFailureLinks() {
+        final ClientIdMatcher matcher = ClientIdMatcher.compile(List.of("abcd", "bce"));
+
+        assertEquals("bce", matcher.match("xabcex"));
+        assertEquals("abcd", matcher.match("ababcd"));
+        assertNull(matcher.match("abcbcd"));
+    }
+
+    @Test
+    void match_fragmentIsSuffixOfAnother_shorterOneFoundThroughFailureChain() {
+        final ClientIdMatcher matcher = ClientIdMatcher.compile(List.of("sensor-42", "or"));
+
+        assertEquals("or", matcher.match("sensor-41"));
+        assertEquals("or", matcher.match("sensor-42"));
+        assertNull(matcher.match("senso-42"));
+    }
+
+    @Test
+    void match_repeatedCharacters_matches() {
+        final ClientIdMatcher matcher = ClientIdMatcher.compile(List.of("aab"));
+
+        assertEquals("aab", matcher.match("aaaab"));
+        assertNull(matcher.match("abab"));
+    }
+
+    @Test
+    void match_manyFragments_allFound() {
+        final List<String> fragments = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            fragments.add("device-" + i + "-");
+        }
+        final ClientIdMatcher matcher = ClientIdMatcher.compile(fragments);
+
+        assertEquals(1000, matcher.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("device-" + i + "-", matcher.match("fleet/device-" + i + "-gateway"));
+        }
+        assertNull(matcher.match("fleet/device-1000-gateway"));
+    }
+
+    @Test
+    void compile_duplicateFragments_countedOnce() {
+        final ClientIdMatcher matcher = ClientIdMatcher.compile(List.of("a", "a", "b"));
+
+        assertEquals(2, matcher.size());
+    }
+
+    @Test
+    void compile_noFragments_matchesNothing() {
+        final ClientIdMatcher matcher = ClientIdMatcher.compile(List.of());
+
+        assertTrue(matcher.isEmpty());
+        assertNull(matcher.match("client"));
+    }
+
+    @Test
+    void compile_emptyFragment_throws() {
+        assertThrows(IllegalArgumentException.class, () -> ClientIdMatcher.compile(List.of("a", "")));
+    }
+}
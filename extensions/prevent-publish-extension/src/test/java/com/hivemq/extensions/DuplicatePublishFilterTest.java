@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DuplicatePublishFilterTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void isDuplicate_sameTopicAndPayloadWithinWindow_duplicate() {
+        final DuplicatePublishFilter filter = new DuplicatePublishFilter(1000, 1024);
+
+        assertFalse(filter.isDuplicate("a", payload("1"), 0));
+        assertTrue(filter.isDuplicate("a", payload("1"), 999 * MILLIS));
+    }
+
+    @Test
+    void isDuplicate_afterWindow_notDuplicate() {
+        final DuplicatePublishFilter filter = new DuplicatePublishFilter(1000, 1024);
+
+        assertFalse(filter.isDuplicate("a", payload("1"), 0));
+        assertFalse(filter.isDuplicate("a", payload("1"), 1100 * MILLIS));
+        assertTrue(filter.isDuplicate("a", payload("1"), 1200 * MILLIS));
+    }
+
+    @Test
+    void isDuplicate_repeatedAllTheTime_passesOncePerWindow() {
+        final DuplicatePublishFilter filter = new DuplicatePublishFilter(1000, 1024);
+
+        int passed = 0;
+        for (long millis = 0; millis < 10_000; millis += 10) {
+            if (!filter.isDuplicate("a", payload("1"), millis * MILLIS)) {
+                passed++;
+            }
+        }
+
+        assertTrue(passed >= 9 && passed <= 10, "passed " + passed);
+    }
+
+    @Test
+    void isDuplicate_differentPayloadOrTopic_notDuplicate() {
+        final DuplicatePublishFilter filter = new DuplicatePublishFilter(1000, 1024);
+
+        assertFalse(filter.isDuplicate("a", payload("1"), 0));
+        assertFalse(filter.isDuplicate("a", payload("2"), 0));
+        assertFalse(filter.isDuplicate("b", payload("1"), 0));
+        assertFalse(filter.isDuplicate("a", null, 0));
+        assertTrue(filter.isDuplicate("a", null, 0));
+    }
+
+    @Test
+    void isDuplicate_slotTakenByOtherPublish_firstIsEvicted() {
+        // a single slot, so every PUBLISH evicts the previous one
+        final DuplicatePublishFilter filter = new DuplicatePublishFilter(1000, 1);
+
+        assertFalse(filter.isDuplicate("a", payload("1"), 0));
+        assertFalse(filter.isDuplicate("b", payload("1"), 0));
+        assertFalse(filter.isDuplicate("a", payload("1"), 0));
+        assertTrue(filter.isDuplicate("a", payload("1"), 0));
+    }
+
+    @Test
+    void isDuplicate_manyDistinctPublishes_noneDropped() {
+        final DuplicatePublishFilter filter = new DuplicatePublishFilter(1000, 1 << 10);
+
+        for (int i = 0; i < 100_000; i++) {
+            assertFalse(filter.isDuplicate("sensor/" + (i % 100), payload(Integer.toString(i)), 0));
+        }
+    }
+
+    @Test
+    void isDuplicate_payloadPositionNotChanged() {
+        final DuplicatePublishFilter filter = new DuplicatePublishFilter(1000, 1024);
+        final ByteBuffer payload = payload("a longer payload with more than eight bytes");
+        payload.position(2);
+
+        filter.isDuplicate("a", payload, 0);
+
+        assertEquals(2, payload.position());
+        assertTrue(filter.isDuplicate("a", payload, 0));
+    }
+
+    @Test
+    void isDuplicate_concurrentIdenticalPublishes_exactlyOnePasses() throws Exception {
+        final int threads = 8;
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 100; round++) {
+                final DuplicatePublishFilter filter = new DuplicatePublishFilter(1000, 1024);
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Future<Boolean>> results = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    results.add(executorService.submit(() -> {
+                        start.await();
+                        return filter.isDuplicate("a", payload("1"), 0);
+                    }));
+                }
+                start.countDown();
+                int passed = 0;
+                for (final Future<Boolean> result : results) {
+                    if (!result.get()) {
+                        passed++;
+                    }
+                }
+                assertEquals(1, passed);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void hasSameSettings() {
+        final DuplicatePublishFilter filter = new DuplicatePublishFilter(1000, 1024);
+
+        assertTrue(filter.hasSameSettings(new DuplicatePublishFilter(1000, 1024)));
+        assertFalse(filter.hasSameSettings(new DuplicatePublishFilter(2000, 1024)));
+        assertFalse(filter.hasSameSettings(new DuplicatePublishFilter(1000, 4096)));
+    }
+
+    private static @NotNull ByteBuffer payload(final @NotNull String payload) {
+        return ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.codahale.metrics.MetricRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PolicyLookupTest {
+
+    private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+    private final @NotNull PolicyDecisionService policyDecisionService = mock(PolicyDecisionService.class);
+    private final @NotNull PolicyLookup policyLookup = new PolicyLookup(policyDecisionService, 16, metricRegistry);
+
+    @Test
+    void lookup_answered_decisionCached() throws Exception {
+        when(policyDecisionService.isPublishAllowed("client", "a")).thenReturn(CompletableFuture.completedFuture(false));
+
+        assertNull(policyLookup.cachedDecision("client", "a"));
+        assertFalse(policyLookup.lookup("client", "a", 1000, 60_000).get());
+
+        assertEquals(false, policyLookup.cachedDecision("client", "a"));
+        assertNull(policyLookup.cachedDecision("client", "b"));
+        assertNull(policyLookup.cachedDecision("other", "a"));
+        assertEquals(1, metricRegistry.counter(PolicyLookup.METRIC_PREFIX + ".cache.hits").getCount());
+        assertEquals(3, metricRegistry.counter(PolicyLookup.METRIC_PREFIX + ".cache.misses").getCount());
+    }
+
+    @Test
+    void lookup_timeToLiveExpired_decisionNotCached() throws Exception {
+        when(policyDecisionService.isPublishAllowed("client", "a")).thenReturn(CompletableFuture.completedFuture(true));
+
+        policyLookup.lookup("client", "a", 1000, 1).get();
+        Thread.sleep(5);
+
+        assertNull(policyLookup.cachedDecision("client", "a"));
+    }
+
+    @Test
+    void lookup_concurrentMissesForSameKey_serviceAskedOnce() throws Exception {
+        final CompletableFuture<Boolean> answer = new CompletableFuture<>();
+        when(policyDecisionService.isPublishAllowed("client", "a")).thenReturn(answer);
+
+        final CompletableFuture<Boolean> first = policyLookup.lookup("client", "a", 1000, 60_000);
+        final CompletableFuture<Boolean> second = policyLookup.lookup("client", "a", 1000, 60_000);
+        answer.complete(true);
+
+        assertSame(first, second);
+        assertTrue(second.get());
+        verify(policyDecisionService, times(1)).isPublishAllowed("client", "a");
+        assertEquals(1, metricRegistry.counter(PolicyLookup.METRIC_PREFIX + ".lookup.coalesced").getCount());
+    }
+
+    @Test
+    void lookup_afterPendingDecisionCompleted_serviceAskedAgain() throws Exception {
+        when(policyDecisionService.isPublishAllowed("client", "a")).thenReturn(CompletableFuture.completedFuture(true));
+
+        policyLookup.lookup("client", "a", 1000, 1).get();
+        policyLookup.lookup("client", "a", 1000, 1).get();
+
+        verify(policyDecisionService, times(2)).isPublishAllowed("client", "a");
+    }
+
+    @Test
+    void lookup_differentKeys_notCoalesced() {
+        when(policyDecisionService.isPublishAllowed("client", "a")).thenReturn(new CompletableFuture<>());
+        when(policyDecisionService.isPublishAllowed("client", "b")).thenReturn(new CompletableFuture<>());
+
+        policyLookup.lookup("client", "a", 1000, 60_000);
+        policyLookup.lookup("client", "b", 1000, 60_000);
+
+        verify(policyDecisionService).isPublishAllowed("client", "a");
+        verify(policyDecisionService).isPublishAllowed("client", "b");
+    }
+
+    @Test
+    void lookup_serviceFails_failureNotCached() {
+        when(policyDecisionService.isPublishAllowed("client", "a"))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("unavailable")));
+
+        final CompletableFuture<Boolean> decision = policyLookup.lookup("client", "a", 1000, 60_000);
+
+        assertThrows(ExecutionException.class, decision::get);
+        assertNull(policyLookup.cachedDecision("client", "a"));
+        assertEquals(1, metricRegistry.counter(PolicyLookup.METRIC_PREFIX + ".lookup.failures").getCount());
+    }
+
+    @Test
+    void lookup_serviceAnswersNull_failedAndNoLongerPending() {
+        when(policyDecisionService.isPublishAllowed("client", "a")).thenReturn(CompletableFuture.completedFuture(null));
+
+        final CompletableFuture<Boolean> decision = policyLookup.lookup("client", "a", 1000, 60_000);
+
+        assertThrows(ExecutionException.class, decision::get);
+        assertNull(policyLookup.cachedDecision("client", "a"));
+        assertEquals(1, metricRegistry.counter(PolicyLookup.METRIC_PREFIX + ".lookup.failures").getCount());
+        assertNotSame(decision, policyLookup.lookup("client", "a", 1000, 60_000));
+    }
+
+    @Test
+    void lookup_serviceThrows_failedDecision() {
+        when(policyDecisionService.isPublishAllowed("client", "a")).thenThrow(new IllegalStateException("unavailable"));
+
+        final CompletableFuture<Boolean> decision = policyLookup.lookup("client", "a", 1000, 60_000);
+
+        assertTrue(decision.isCompletedExceptionally());
+    }
+
+    @Test
+    void lookup_serviceDoesNotAnswer_failsAfterTimeoutAndIsNoLongerPending() throws Exception {
+        when(policyDecisionService.isPublishAllowed("client", "a")).thenReturn(new CompletableFuture<>());
+
+        final CompletableFuture<Boolean> first = policyLookup.lookup("client", "a", 10, 60_000);
+
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> first.get(1, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof TimeoutException);
+        policyLookup.lookup("client", "a", 10, 60_000);
+        verify(policyDecisionService, times(2)).isPublishAllowed("client", "a");
+    }
+}
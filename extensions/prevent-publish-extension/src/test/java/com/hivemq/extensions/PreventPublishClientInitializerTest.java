@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.client.ClientContext;
+import com.hivemq.extension.sdk.api.client.parameter.ClientInformation;
+import com.hivemq.extension.sdk.api.client.parameter.InitializerInput;
+import com.hivemq.extension.sdk.api.services.publish.PublishService;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PreventPublishClientInitializerTest {
+
+    private final @NotNull AtomicReference<PreventPublishRules> rulesReference =
+            new AtomicReference<>(PreventPublishRules.parse(List.of(), null));
+    private final @NotNull List<String> interceptedClientIds = new ArrayList<>();
+    private final @NotNull PreventPublishClientInitializer clientInitializer =
+            new PreventPublishClientInitializer(rulesReference, this::interceptor);
+
+    @Test
+    void initialize_ruleActive_interceptorAdded() {
+        rulesReference.set(PreventPublishRules.parse(List.of("topic prevent/#"), null));
+
+        final ClientContext clientContext = initialize("client-1");
+
+        verify(clientContext).addPublishInboundInterceptor(any());
+        assertEquals(List.of("client-1"), interceptedClientIds);
+    }
+
+    @Test
+    void initialize_noRule_noInterceptor() {
+        final ClientContext clientContext = initialize("client-1");
+
+        verify(clientContext, never()).addPublishInboundInterceptor(any());
+        assertEquals(1, clientInitializer.clientsWithoutInterceptor());
+    }
+
+    @Test
+    void rulesReloaded_firstRule_interceptorAddedToClientsWithout() {
+        final ClientContext clientContext1 = initialize("client-1");
+        final ClientContext clientContext2 = initialize("client-2");
+
+        rulesReference.set(PreventPublishRules.parse(List.of("client prevent"), null));
+        clientInitializer.rulesReloaded(rulesReference.get());
+
+        verify(clientContext1).addPublishInboundInterceptor(any());
+        verify(clientContext2).addPublishInboundInterceptor(any());
+        assertEquals(0, clientInitializer.clientsWithoutInterceptor());
+        interceptedClientIds.sort(null);
+        assertEquals(List.of("client-1", "client-2"), interceptedClientIds);
+    }
+
+    @Test
+    void rulesReloaded_stillNoRule_noInterceptor() {
+        final ClientContext clientContext = initialize("client-1");
+
+        clientInitializer.rulesReloaded(PreventPublishRules.parse(List.of("# only a comment"), null));
+
+        verify(clientContext, never()).addPublishInboundInterceptor(any());
+        assertEquals(1, clientInitializer.clientsWithoutInterceptor());
+    }
+
+    @Test
+    void isEmpty_everyKindOfRule_notEmpty() {
+        for (final String rule : List.of("topic a", "client a", "rate-limit client 1 1", "rate-limit topic 1 1 1",
+                "deduplicate 1000", "conflate a/#", "policy-lookup 500 60000 deny")) {
+            assertFalse(PreventPublishRules.parse(List.of(rule), null).isEmpty(), rule);
+        }
+        assertTrue(PreventPublishRules.parse(List.of("conflation-window 50"), null).isEmpty());
+    }
+
+    private @NotNull ClientContext initialize(final @NotNull String clientId) {
+        final ClientInformation clientInformation = mock(ClientInformation.class);
+        when(clientInformation.getClientId()).thenReturn(clientId);
+        final InitializerInput initializerInput = mock(InitializerInput.class);
+        when(initializerInput.getClientInformation()).thenReturn(clientInformation);
+        final ClientContext clientContext = mock(ClientContext.class);
+        clientInitializer.initialize(initializerInput, clientContext);
+        return clientContext;
+    }
+
+    private @NotNull PreventPublishInterceptor interceptor(final @NotNull String clientId) {
+        interceptedClientIds.add(clientId);
+        return new PreventPublishInterceptor(rulesReference,
+                new PublishConflator(
+                        rulesReference, mock(ScheduledExecutorService.class), mock(PublishService.class), 16),
+                () -> new PolicyLookup(mock(PolicyDecisionService.class), 16, new MetricRegistry()),
+                new PreventPublishMetrics(new MetricRegistry()),
+                clientId);
+    }
+}
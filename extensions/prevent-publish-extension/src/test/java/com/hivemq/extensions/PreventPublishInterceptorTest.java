@@ -0,0 +1,234 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.async.Async;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundInput;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundOutput;
+import com.hivemq.extension.sdk.api.packets.publish.AckReasonCode;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
+import com.hivemq.extension.sdk.api.services.publish.PublishService;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PreventPublishInterceptorTest {
+
+    private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+    private final @NotNull AtomicReference<PreventPublishRules> rulesReference =
+            new AtomicReference<>(PreventPublishRules.parse(List.of("client prevent", "topic blocked/#"), null));
+
+    @Test
+    void onInboundPublish_clientRuleMatches_everyTopicIsRejected() {
+        final PreventPublishInterceptor interceptor = interceptor("prevent-42");
+
+        final PublishInboundOutput output1 = publish(interceptor, "a/b");
+        final PublishInboundOutput output2 = publish(interceptor, "c");
+
+        verify(output1).preventPublishDelivery(
+                AckReasonCode.TOPIC_NAME_INVALID, "It is not allowed to publish to topic: a/b");
+        verify(output2).preventPublishDelivery(
+                AckReasonCode.TOPIC_NAME_INVALID, "It is not allowed to publish to topic: c");
+    }
+
+    @Test
+    void onInboundPublish_clientRuleDoesNotMatch_onlyTopicRuleRejects() {
+        final PreventPublishInterceptor interceptor = interceptor("client-1");
+
+        final PublishInboundOutput allowed = publish(interceptor, "a/b");
+        final PublishInboundOutput rejected = publish(interceptor, "blocked/b");
+
+        verify(allowed, never()).preventPublishDelivery(any(), any());
+        verify(rejected).preventPublishDelivery(
+                AckReasonCode.TOPIC_NAME_INVALID, "It is not allowed to publish to topic: blocked/b");
+    }
+
+    @Test
+    void onInboundPublish_rulesReloaded_clientRuleIsEvaluatedAgain() {
+        final PreventPublishInterceptor interceptor = interceptor("prevent-42");
+        publish(interceptor, "a");
+
+        rulesReference.set(PreventPublishRules.parse(List.of("client other"), rulesReference.get()));
+        final PublishInboundOutput allowed = publish(interceptor, "a");
+        rulesReference.set(PreventPublishRules.parse(List.of("client 42"), rulesReference.get()));
+        final PublishInboundOutput rejected = publish(interceptor, "a");
+
+        verify(allowed, never()).preventPublishDelivery(any(), any());
+        verify(rejected).preventPublishDelivery(
+                AckReasonCode.TOPIC_NAME_INVALID, "It is not allowed to publish to topic: a");
+    }
+
+    @Test
+    void onInboundPublish_noPolicyLookupRule_policyLookupNotCreated() {
+        final AtomicInteger policyLookups = new AtomicInteger();
+        final PreventPublishInterceptor interceptor = new PreventPublishInterceptor(rulesReference,
+                new PublishConflator(
+                        rulesReference, mock(ScheduledExecutorService.class), mock(PublishService.class), 16),
+                () -> {
+                    policyLookups.incrementAndGet();
+                    return new PolicyLookup((c, t) -> CompletableFuture.completedFuture(true), 16, metricRegistry);
+                },
+                new PreventPublishMetrics(metricRegistry),
+                "client-1");
+
+        publish(interceptor, "a");
+        assertEquals(0, policyLookups.get());
+
+        rulesReference.set(PreventPublishRules.parse(List.of("policy-lookup 500 60000 deny"), rulesReference.get()));
+        publish(interceptor, "a");
+        assertTrue(policyLookups.get() > 0);
+    }
+
+    @Test
+    void onInboundPublish_policyDenies_rejectedAsynchronouslyAndResumed() {
+        rulesReference.set(PreventPublishRules.parse(List.of("policy-lookup 500 60000 allow"), rulesReference.get()));
+        final CompletableFuture<Boolean> answer = new CompletableFuture<>();
+        final PreventPublishInterceptor interceptor = interceptor("client-1", (c, t) -> answer);
+        final Async<PublishInboundOutput> async = async();
+
+        final PublishInboundOutput output = publish(interceptor, "a", async);
+        verify(output).async(any(), any(), any(), any());
+        verify(async, never()).resume();
+
+        answer.complete(false);
+
+        verify(output).preventPublishDelivery(AckReasonCode.NOT_AUTHORIZED, "Not authorized to publish to topic: a");
+        verify(async).resume();
+        assertEquals(1, count("rejected.rule.policy"));
+    }
+
+    @Test
+    void onInboundPublish_policyAllows_notRejectedAndResumed() {
+        rulesReference.set(PreventPublishRules.parse(List.of("policy-lookup 500 60000 deny"), rulesReference.get()));
+        final PreventPublishInterceptor interceptor =
+                interceptor("client-1", (c, t) -> CompletableFuture.completedFuture(true));
+        final Async<PublishInboundOutput> async = async();
+
+        final PublishInboundOutput output = publish(interceptor, "a", async);
+
+        verify(output, never()).preventPublishDelivery(any(), any());
+        verify(async).resume();
+    }
+
+    @Test
+    void onInboundPublish_policyAnswersWithoutDecision_treatedLikeTimeoutAndResumed() {
+        rulesReference.set(PreventPublishRules.parse(List.of("policy-lookup 500 60000 deny"), rulesReference.get()));
+        final PreventPublishInterceptor interceptor =
+                interceptor("client-1", (c, t) -> CompletableFuture.completedFuture(null));
+        final Async<PublishInboundOutput> async = async();
+
+        final PublishInboundOutput output = publish(interceptor, "a", async);
+
+        verify(output).preventPublishDelivery(AckReasonCode.NOT_AUTHORIZED, "Not authorized to publish to topic: a");
+        verify(async).resume();
+    }
+
+    @Test
+    void onInboundPublish_clientRateLimitExceeded_rejectedWithQuotaExceeded() {
+        rulesReference.set(PreventPublishRules.parse(List.of("rate-limit client 0.001 1"), rulesReference.get()));
+        final PreventPublishInterceptor interceptor = interceptor("client-1");
+
+        final PublishInboundOutput allowed = publish(interceptor, "a");
+        final PublishInboundOutput rejected = publish(interceptor, "a");
+
+        verify(allowed, never()).preventPublishDelivery(any(), any());
+        verify(rejected).preventPublishDelivery(
+                AckReasonCode.QUOTA_EXCEEDED, "Publish rate limit exceeded for topic: a");
+        assertEquals(1, count("rejected.rule.rate-limit.client"));
+        assertEquals(1, count("rejected.reason-code.quota-exceeded"));
+    }
+
+    @Test
+    void onInboundPublish_duplicate_droppedWithoutRejection() {
+        rulesReference.set(PreventPublishRules.parse(List.of("deduplicate 60000"), rulesReference.get()));
+        final PreventPublishInterceptor interceptor = interceptor("client-1");
+
+        final PublishInboundOutput first = publish(interceptor, "a");
+        final PublishInboundOutput duplicate = publish(interceptor, "a");
+        final PublishInboundOutput otherTopic = publish(interceptor, "b");
+
+        verify(first, never()).preventPublishDelivery();
+        verify(duplicate).preventPublishDelivery();
+        verify(duplicate, never()).preventPublishDelivery(any(), any());
+        verify(otherTopic, never()).preventPublishDelivery();
+        assertEquals(1, count("deduplicated"));
+        assertEquals(0, count("rejected.total"));
+    }
+
+    private @NotNull PreventPublishInterceptor interceptor(final @NotNull String clientId) {
+        return interceptor(clientId, mock(PolicyDecisionService.class));
+    }
+
+    private @NotNull PreventPublishInterceptor interceptor(
+            final @NotNull String clientId,
+            final @NotNull PolicyDecisionService policyDecisionService) {
+
+        final PolicyLookup policyLookup = new PolicyLookup(policyDecisionService, 16, metricRegistry);
+        return new PreventPublishInterceptor(rulesReference,
+                new PublishConflator(
+                        rulesReference, mock(ScheduledExecutorService.class), mock(PublishService.class), 16),
+                () -> policyLookup,
+                new PreventPublishMetrics(metricRegistry),
+                clientId);
+    }
+
+    private long count(final @NotNull String name) {
+        return metricRegistry.counter("com.hivemq.extensions.prevent-publish." + name).getCount();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static @NotNull Async<PublishInboundOutput> async() {
+        return mock(Async.class);
+    }
+
+    private static @NotNull PublishInboundOutput publish(
+            final @NotNull PreventPublishInterceptor interceptor,
+            final @NotNull String topic) {
+
+        return publish(interceptor, topic, async());
+    }
+
+    private static @NotNull PublishInboundOutput publish(
+            final @NotNull PreventPublishInterceptor interceptor,
+            final @NotNull String topic,
+            final @NotNull Async<PublishInboundOutput> async) {
+
+        final PublishPacket publishPacket = mock(PublishPacket.class);
+        when(publishPacket.getTopic()).thenReturn(topic);
+        when(publishPacket.getPayload()).thenReturn(Optional.empty());
+        final PublishInboundInput input = mock(PublishInboundInput.class);
+        when(input.getPublishPacket()).thenReturn(publishPacket);
+        final PublishInboundOutput output = mock(PublishInboundOutput.class);
+        when(output.async(any(), any(), any(), any())).thenReturn(async);
+        interceptor.onInboundPublish(input, output);
+        return output;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.codahale.metrics.MetricRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PreventPublishMetricsTest {
+
+    private final @NotNull MetricRegistry metricRegistry = new MetricRegistry();
+    private final @NotNull PreventPublishMetrics metrics = new PreventPublishMetrics(metricRegistry);
+
+    @Test
+    void rejected_countedInTotalPerReasonCodeAndPerRule() {
+        metrics.rejectedByTopicRule("a/#");
+        metrics.rejectedByTopicRule("a/#");
+        metrics.rejectedByClientRule("prevent");
+        metrics.rejectedByClientRateLimit();
+        metrics.rejectedByTopicRateLimit();
+        metrics.rejectedByPolicy();
+
+        assertEquals(6, count("rejected.total"));
+        assertEquals(3, count("rejected.reason-code.topic-name-invalid"));
+        assertEquals(2, count("rejected.reason-code.quota-exceeded"));
+        assertEquals(1, count("rejected.reason-code.not-authorized"));
+        assertEquals(2, count("rejected.rule.topic." + PreventPublishMetrics.ruleKey("a/#")));
+        assertEquals(1, count("rejected.rule.client." + PreventPublishMetrics.ruleKey("prevent")));
+        assertEquals(1, count("rejected.rule.rate-limit.client"));
+        assertEquals(1, count("rejected.rule.rate-limit.topic"));
+        assertEquals(1, count("rejected.rule.policy"));
+    }
+
+    @Test
+    void droppedAsDuplicate_notCountedAsRejected() {
+        metrics.droppedAsDuplicate();
+        metrics.droppedAsDuplicate();
+
+        assertEquals(2, count("deduplicated"));
+        assertEquals(0, count("rejected.total"));
+        assertFalse(metricRegistry.getNames().contains(PreventPublishMetrics.METRIC_PREFIX + ".reason-code.success"));
+    }
+
+    @Test
+    void ruleCounters_onlyRegisteredOnFirstRejection() {
+        assertFalse(metricRegistry.getNames().contains(topicRuleMetric("a/#")));
+
+        metrics.rejectedByTopicRule("a/#");
+
+        assertTrue(metricRegistry.getNames().contains(topicRuleMetric("a/#")));
+    }
+
+    @Test
+    void ruleCounters_rulesDifferingInReplacedCharacters_distinctAfterSanitizing() {
+        metrics.rejectedByTopicRule("prevent/+");
+        metrics.rejectedByTopicRule("prevent/#");
+        metrics.rejectedByTopicRule("prevent/#");
+
+        // the replacement Prometheus applies to metric names
+        final String plus = topicRuleMetric("prevent/+").replaceAll("[^a-zA-Z0-9:_]", "_");
+        final String hash = topicRuleMetric("prevent/#").replaceAll("[^a-zA-Z0-9:_]", "_");
+        assertNotEquals(plus, hash);
+        assertEquals(1, metricRegistry.counter(topicRuleMetric("prevent/+")).getCount());
+        assertEquals(2, metricRegistry.counter(topicRuleMetric("prevent/#")).getCount());
+    }
+
+    @Test
+    void ruleKey_longRule_truncatedAndOnlyLettersDigitsAndUnderscores() {
+        final String key = PreventPublishMetrics.ruleKey("a/b c.d-" + "x".repeat(100));
+
+        assertTrue(key.matches("[A-Za-z0-9_]+"));
+        assertTrue(key.startsWith("a_b_c_d_x"));
+        assertTrue(key.length() < 60);
+    }
+
+    @Test
+    void retainRules_removedRules_countersDropped() {
+        metrics.rejectedByTopicRule("a/#");
+        metrics.rejectedByTopicRule("b/#");
+        metrics.rejectedByClientRule("prevent");
+
+        metrics.retainRules(PreventPublishRules.parse(List.of("topic a/#", "client other"), null));
+
+        assertTrue(metricRegistry.getNames().contains(topicRuleMetric("a/#")));
+        assertFalse(metricRegistry.getNames().contains(topicRuleMetric("b/#")));
+        assertFalse(metricRegistry.getNames().contains(
+                PreventPublishMetrics.METRIC_PREFIX + ".rule.client." + PreventPublishMetrics.ruleKey("prevent")));
+        assertEquals(3, count("rejected.total"));
+
+        // a rule that is added again starts counting from 0
+        metrics.retainRules(PreventPublishRules.parse(List.of("topic a/#", "topic b/#"), null));
+        metrics.rejectedByTopicRule("b/#");
+        assertEquals(1, metricRegistry.counter(topicRuleMetric("b/#")).getCount());
+    }
+
+    @Test
+    void removeMetrics_allMetricsRemoved() {
+        metricRegistry.counter("other.metric");
+        metrics.rejectedByTopicRule("a/#");
+        metrics.droppedAsDuplicate();
+
+        PreventPublishMetrics.removeMetrics(metricRegistry);
+
+        assertEquals(1, metricRegistry.getNames().size());
+        assertTrue(metricRegistry.getNames().contains("other.metric"));
+    }
+
+    private static @NotNull String topicRuleMetric(final @NotNull String topicFilter) {
+        return PreventPublishMetrics.METRIC_PREFIX + ".rule.topic." + PreventPublishMetrics.ruleKey(topicFilter);
+    }
+
+    private long count(final @NotNull String name) {
+        return metricRegistry.counter("com.hivemq.extensions.prevent-publish." + name).getCount();
+    }
+}
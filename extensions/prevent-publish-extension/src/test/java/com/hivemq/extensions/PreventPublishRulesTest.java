@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PreventPublishRulesTest {
+
+    @TempDir
+    File extensionHomeFolder;
+
+    @Test
+    void parse_validRules_allCompiled() {
+        final PreventPublishRules rules = PreventPublishRules.parse(List.of(
+                "# comment",
+                "",
+                "topic prevent/#",
+                "client prevent",
+                "rate-limit client 100 200",
+                "rate-limit topic 1 1000 1000",
+                "deduplicate 1000",
+                "conflate telemetry/#",
+                "conflation-window 250",
+                "policy-lookup 500 60000 deny"), null);
+
+        assertEquals("prevent/#", rules.matchTopic("prevent/a"));
+        assertEquals("prevent", rules.matchClientId("client-prevent"));
+        assertNotNull(rules.getClientRateLimiter());
+        assertTrue(rules.tryAcquireTopicPermit("a/b"));
+        assertTrue(rules.isDeduplicating());
+        assertTrue(rules.isConflated("telemetry/temperature"));
+        assertEquals(250, rules.getConflationWindowMillis());
+        final PreventPublishRules.PolicyLookupSettings policyLookupSettings = rules.getPolicyLookupSettings();
+        assertNotNull(policyLookupSettings);
+        assertEquals(500, policyLookupSettings.getTimeoutMillis());
+        assertEquals(60000, policyLookupSettings.getTimeToLiveMillis());
+        assertFalse(policyLookupSettings.isAllowOnTimeout());
+    }
+
+    @Test
+    void parse_invalidRules_ignored() {
+        final PreventPublishRules rules = PreventPublishRules.parse(List.of(
+                "topic a/#/b",
+                "topic",
+                "client",
+                "unknown prevent",
+                "rate-limit client 0 10",
+                "rate-limit client ten 10",
+                "rate-limit client 10",
+                "rate-limit topic 0 10 10",
+                "rate-limit topic 1 10 0",
+                "rate-limit everything 10 10",
+                "rate-limit client NaN 10",
+                "rate-limit client 0.000000001 2147483647",
+                "rate-limit topic 1 0.000000001 2147483647",
+                "deduplicate -1",
+                "deduplicate soon",
+                "conflate a#",
+                "conflation-window 0",
+                "policy-lookup 500 60000 maybe",
+                "policy-lookup 500 deny"), null);
+
+        assertNull(rules.matchTopic("a/x/b"));
+        assertNull(rules.matchClientId("unknown prevent"));
+        assertNull(rules.getClientRateLimiter());
+        assertTrue(rules.tryAcquireTopicPermit("a"));
+        assertFalse(rules.isDeduplicating());
+        assertFalse(rules.isConflated("a#"));
+        assertEquals(100, rules.getConflationWindowMillis());
+        assertNull(rules.getPolicyLookupSettings());
+    }
+
+    @Test
+    void parse_invalidRuleBetweenValidRules_validRulesKept() {
+        final PreventPublishRules rules =
+                PreventPublishRules.parse(List.of("topic a/#", "topic b/#/c", "topic c/+"), null);
+
+        assertEquals("a/#", rules.matchTopic("a/b"));
+        assertEquals("c/+", rules.matchTopic("c/d"));
+        assertNull(rules.matchTopic("b/x/c"));
+    }
+
+    @Test
+    void parse_deduplicateUnchanged_seenPublishesKept() {
+        final PreventPublishRules rules = PreventPublishRules.parse(List.of("deduplicate 60000"), null);
+        assertFalse(rules.isDuplicate("a", null));
+
+        final PreventPublishRules reloaded = PreventPublishRules.parse(List.of("deduplicate 60000", "topic b"), rules);
+        final PreventPublishRules changed = PreventPublishRules.parse(List.of("deduplicate 30000"), reloaded);
+
+        assertTrue(reloaded.isDuplicate("a", null));
+        assertFalse(changed.isDuplicate("a", null));
+    }
+
+    @Test
+    void read_noRulesFile_nothingPrevented() throws Exception {
+        final PreventPublishRules rules = PreventPublishRules.read(extensionHomeFolder, null);
+
+        assertNull(rules.matchTopic("a"));
+        assertNull(rules.matchClientId("a"));
+    }
+
+    @Test
+    void read_rulesFile_parsed() throws Exception {
+        Files.write(new File(extensionHomeFolder, PreventPublishRules.RULES_FILE_NAME).toPath(),
+                List.of("topic prevent/#", "client prevent"), StandardCharsets.UTF_8);
+
+        final PreventPublishRules rules = PreventPublishRules.read(extensionHomeFolder, null);
+
+        assertEquals("prevent/#", rules.matchTopic("prevent"));
+        assertEquals("prevent", rules.matchClientId("prevent"));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PreventPublishRulesWatcherTest {
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private final @NotNull ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    private final @NotNull AtomicReference<PreventPublishRules> reloaded = new AtomicReference<>();
+    private @Nullable PreventPublishRulesWatcher watcher;
+
+    @TempDir
+    File extensionHomeFolder;
+
+    @AfterEach
+    void tearDown() {
+        if (watcher != null) {
+            watcher.stop();
+        }
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void start_rulesFileChanged_newRulesSwappedIn() throws Exception {
+        writeRules("topic a/#");
+        final AtomicReference<PreventPublishRules> rulesReference = start();
+
+        writeRules("topic b/#");
+
+        assertTrue(awaitRules(rulesReference, "b/#"));
+        assertNull(rulesReference.get().matchTopic("a/b"));
+    }
+
+    @Test
+    void start_rulesFileChanged_reloadListenerCalledWithNewRules() throws Exception {
+        writeRules("topic a/#");
+        final AtomicReference<PreventPublishRules> rulesReference = start();
+
+        writeRules("topic b/#");
+
+        assertTrue(awaitRules(rulesReference, "b/#"));
+        assertSame(rulesReference.get(), reloaded.get());
+    }
+
+    @Test
+    void start_otherFileChanged_rulesNotReloaded() throws Exception {
+        writeRules("topic a/#");
+        final AtomicReference<PreventPublishRules> rulesReference = start();
+        final PreventPublishRules rules = rulesReference.get();
+
+        Files.write(new File(extensionHomeFolder, "other.txt").toPath(), List.of("x"), StandardCharsets.UTF_8);
+        Thread.sleep(2500);
+
+        assertSame(rules, rulesReference.get());
+    }
+
+    @Test
+    void start_topicRateLimitUnchanged_bucketStateKept() throws Exception {
+        writeRules("rate-limit topic 1 0.001 1");
+        final AtomicReference<PreventPublishRules> rulesReference = start();
+        assertTrue(rulesReference.get().tryAcquireTopicPermit("a/b"));
+
+        writeRules("rate-limit topic 1 0.001 1", "topic b/#");
+
+        assertTrue(awaitRules(rulesReference, "b/#"));
+        assertFalse(rulesReference.get().tryAcquireTopicPermit("a/c"));
+    }
+
+    private @NotNull AtomicReference<PreventPublishRules> start() throws Exception {
+        final AtomicReference<PreventPublishRules> rulesReference =
+                new AtomicReference<>(PreventPublishRules.read(extensionHomeFolder, null));
+        final PreventPublishRulesWatcher watcher =
+                new PreventPublishRulesWatcher(extensionHomeFolder, rulesReference, executorService, reloaded::set);
+        watcher.start();
+        this.watcher = watcher;
+        return rulesReference;
+    }
+
+    private void writeRules(final @NotNull String... lines) throws Exception {
+        Files.write(new File(extensionHomeFolder, PreventPublishRules.RULES_FILE_NAME).toPath(),
+                List.of(lines), StandardCharsets.UTF_8);
+    }
+
+    private static boolean awaitRules(
+            final @NotNull AtomicReference<PreventPublishRules> rulesReference,
+            final @NotNull String topicFilter) throws InterruptedException {
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (System.nanoTime() - deadline < 0) {
+            if (topicFilter.equals(rulesReference.get().matchTopic(topicFilter.replace("#", "x")))) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
+import com.hivemq.extension.sdk.api.services.publish.Publish;
+import com.hivemq.extension.sdk.api.services.publish.PublishService;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PublishConflatorTest {
+
+    private final @NotNull AtomicReference<PreventPublishRules> rulesReference =
+            new AtomicReference<>(PreventPublishRules.parse(List.of("conflation-window 250"), null));
+    private final @NotNull ScheduledExecutorService executorService = mock(ScheduledExecutorService.class);
+    private final @NotNull PublishService publishService = mock(PublishService.class);
+    private final @NotNull List<Runnable> scheduledFlushes = new ArrayList<>();
+    private final @NotNull List<Long> scheduledDelays = new ArrayList<>();
+    private final @NotNull List<String> published = new ArrayList<>();
+    private int failingPublishes;
+
+    @BeforeEach
+    void setUp() {
+        when(executorService.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+            scheduledFlushes.add(invocation.getArgument(0));
+            scheduledDelays.add(invocation.getArgument(1));
+            return null;
+        });
+        when(publishService.publish(any())).thenAnswer(invocation -> {
+            if (failingPublishes > 0) {
+                failingPublishes--;
+                throw new IllegalStateException("publish service not available");
+            }
+            published.add(((Publish) invocation.getArgument(0)).getTopic());
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    @Test
+    void flush_severalPublishesPerTopic_onlyLatestPublished() {
+        final PublishConflator conflator = conflator(16);
+        conflator.start();
+
+        conflator.offer(packet("a"));
+        final PublishPacket latest = packet("a");
+        conflator.offer(latest);
+        conflator.offer(packet("b"));
+        runNextFlush();
+
+        assertEquals(2, published.size());
+        assertTrue(published.contains("a@" + System.identityHashCode(latest)));
+    }
+
+    @Test
+    void flush_nothingOffered_nothingPublishedAndRescheduled() {
+        final PublishConflator conflator = conflator(16);
+        conflator.start();
+
+        runNextFlush();
+        runNextFlush();
+
+        assertTrue(published.isEmpty());
+        assertEquals(3, scheduledFlushes.size());
+    }
+
+    @Test
+    void flush_windowChanged_nextFlushUsesNewWindow() {
+        final PublishConflator conflator = conflator(16);
+        conflator.start();
+
+        rulesReference.set(PreventPublishRules.parse(List.of("conflation-window 1000"), rulesReference.get()));
+        runNextFlush();
+
+        assertEquals(List.of(250L, 1000L), scheduledDelays);
+    }
+
+    @Test
+    void flush_publishFails_nextFlushStillScheduled() {
+        final PublishConflator conflator = conflator(16);
+        conflator.start();
+        failingPublishes = 1;
+        conflator.offer(packet("a"));
+
+        runNextFlush();
+        conflator.offer(packet("b"));
+        runNextFlush();
+
+        assertEquals(3, scheduledFlushes.size());
+        assertEquals(1, published.size());
+        assertTrue(published.get(0).startsWith("b@"));
+    }
+
+    @Test
+    void offer_maximumPendingTopics_furtherTopicsNotTakenOver() {
+        final PublishConflator conflator = conflator(2);
+        conflator.start();
+
+        assertTrue(conflator.offer(packet("a")));
+        assertTrue(conflator.offer(packet("b")));
+        assertFalse(conflator.offer(packet("c")));
+        assertTrue(conflator.offer(packet("a")));
+        runNextFlush();
+
+        assertTrue(conflator.offer(packet("c")));
+    }
+
+    @Test
+    void stop_pendingPublishes_publishedAndNotRescheduled() {
+        final PublishConflator conflator = conflator(16);
+        conflator.start();
+        conflator.offer(packet("a"));
+
+        conflator.stop();
+        runNextFlush();
+
+        assertEquals(1, published.size());
+        assertEquals(1, scheduledFlushes.size());
+    }
+
+    private @NotNull PublishConflator conflator(final int maxPendingTopics) {
+        return new PublishConflator(
+                rulesReference, executorService, publishService, maxPendingTopics, PublishConflatorTest::copyOf);
+    }
+
+    private void runNextFlush() {
+        scheduledFlushes.get(scheduledFlushes.size() - 1).run();
+    }
+
+    private static @NotNull PublishPacket packet(final @NotNull String topic) {
+        final PublishPacket publishPacket = mock(PublishPacket.class);
+        when(publishPacket.getTopic()).thenReturn(topic);
+        return publishPacket;
+    }
+
+    /**
+     * Tags the copy with the identity of the packet, so the test can tell which PUBLISH of a topic was published.
+     */
+    private static @NotNull Publish copyOf(final @NotNull PublishPacket publishPacket) {
+        final Publish publish = mock(Publish.class);
+        when(publish.getTopic()).thenReturn(publishPacket.getTopic() + "@" + System.identityHashCode(publishPacket));
+        return publish;
+    }
+}
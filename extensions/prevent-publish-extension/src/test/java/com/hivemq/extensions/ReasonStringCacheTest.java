@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ReasonStringCacheTest {
+
+    @Test
+    void get_prefixFollowedByTopic() {
+        final ReasonStringCache cache = new ReasonStringCache("Not allowed: ", 16);
+
+        assertEquals("Not allowed: a/b", cache.get("a/b"));
+        assertEquals("Not allowed: ", cache.get(""));
+    }
+
+    @Test
+    void get_sameTopicAgain_cachedInstanceReturned() {
+        final ReasonStringCache cache = new ReasonStringCache("Not allowed: ", 16);
+
+        assertSame(cache.get("a/b"), cache.get("a/b"));
+    }
+
+    @Test
+    void get_topicsCollideInSlot_laterTopicReplacesEarlier() {
+        // a single slot, so every topic replaces the previous one
+        final ReasonStringCache cache = new ReasonStringCache("Not allowed: ", 1);
+        final String first = cache.get("a");
+
+        assertEquals("Not allowed: b", cache.get("b"));
+        final String again = cache.get("a");
+
+        assertEquals(first, again);
+        assertNotSame(first, again);
+    }
+}
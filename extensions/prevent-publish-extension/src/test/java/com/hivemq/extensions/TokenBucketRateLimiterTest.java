@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketRateLimiterTest {
+
+    private static final long INTERVAL_NANOS = 100_000_000;
+
+    @Test
+    void nextArrivalTime_fullBucket_burstGrantedThenRejected() {
+        final TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 3, 0);
+        final long now = 1000;
+
+        long state = 0;
+        for (int i = 0; i < 3; i++) {
+            state = limiter.nextArrivalTime(state, now);
+            assertEquals(now + (i + 1) * INTERVAL_NANOS, state);
+        }
+        assertEquals(TokenBucketRateLimiter.REJECTED, limiter.nextArrivalTime(state, now));
+    }
+
+    @Test
+    void nextArrivalTime_oneInterval_onePermitRefilled() {
+        final TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 3, 0);
+        long state = 0;
+        for (int i = 0; i < 3; i++) {
+            state = limiter.nextArrivalTime(state, 1000);
+        }
+
+        final long later = 1000 + INTERVAL_NANOS;
+        state = limiter.nextArrivalTime(state, later);
+
+        assertTrue(state != TokenBucketRateLimiter.REJECTED);
+        assertEquals(TokenBucketRateLimiter.REJECTED, limiter.nextArrivalTime(state, later));
+        assertEquals(TokenBucketRateLimiter.REJECTED, limiter.nextArrivalTime(state, later + INTERVAL_NANOS - 1));
+        assertTrue(limiter.nextArrivalTime(state, later + INTERVAL_NANOS) != TokenBucketRateLimiter.REJECTED);
+    }
+
+    @Test
+    void nextArrivalTime_idleLongerThanBurst_burstNotExceeded() {
+        final TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 2, 0);
+        long state = limiter.nextArrivalTime(0, 1000);
+
+        // the bucket refills to the burst, never above it
+        final long muchLater = 1000 + 100 * INTERVAL_NANOS;
+        int granted = 0;
+        while ((state = limiter.nextArrivalTime(state, muchLater)) != TokenBucketRateLimiter.REJECTED) {
+            granted++;
+        }
+
+        assertEquals(2, granted);
+    }
+
+    @Test
+    void tryAcquire_sameKey_sharesBucket() {
+        final TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(0.001, 2, 16);
+
+        assertTrue(limiter.tryAcquire(42));
+        assertTrue(limiter.tryAcquire(42));
+        assertFalse(limiter.tryAcquire(42));
+    }
+
+    @Test
+    void tryAcquire_differentStripes_ownBuckets() {
+        final TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(0.001, 1, 1 << 16);
+
+        int granted = 0;
+        for (int key = 0; key < 100; key++) {
+            if (limiter.tryAcquire(key)) {
+                granted++;
+            }
+        }
+
+        // keys hashing to the same stripe may share a bucket, but most keys get their own
+        assertTrue(granted > 90, "granted " + granted);
+    }
+
+    @Test
+    void isValid_burstToleranceOverflows_rejected() {
+        assertTrue(TokenBucketRateLimiter.isValid(1, Integer.MAX_VALUE));
+        assertTrue(TokenBucketRateLimiter.isValid(1e-9, 2));
+        assertFalse(TokenBucketRateLimiter.isValid(1e-9, Integer.MAX_VALUE));
+        assertFalse(TokenBucketRateLimiter.isValid(1e-12, 1));
+        assertFalse(TokenBucketRateLimiter.isValid(Double.NaN, 1));
+        assertFalse(TokenBucketRateLimiter.isValid(0, 1));
+        assertFalse(TokenBucketRateLimiter.isValid(1, 0));
+    }
+
+    @Test
+    void constructor_burstToleranceOverflows_throws() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucketRateLimiter(1e-9, Integer.MAX_VALUE, 0));
+    }
+
+    @Test
+    void nextArrivalTime_largestValidBurst_noOverflow() {
+        final TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, Integer.MAX_VALUE, 0);
+
+        long state = 0;
+        for (int i = 0; i < 1000; i++) {
+            state = limiter.nextArrivalTime(state, 1000);
+            assertTrue(state > 0);
+        }
+    }
+
+    @Test
+    void hasSameSettings() {
+        final TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 3, 16);
+
+        assertTrue(limiter.hasSameSettings(new TokenBucketRateLimiter(10, 3, 16)));
+        assertFalse(limiter.hasSameSettings(new TokenBucketRateLimiter(10, 4, 16)));
+        assertFalse(limiter.hasSameSettings(new TokenBucketRateLimiter(11, 3, 16)));
+        assertFalse(limiter.hasSameSettings(new TokenBucketRateLimiter(10, 3, 64)));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TopicFilterTrieTest {
+
+    @Test
+    void match_exactFilter_onlySameTopicMatches() {
+        final TopicFilterTrie trie = TopicFilterTrie.compile(List.of("a/b"));
+
+        assertEquals("a/b", trie.match("a/b"));
+        assertNull(trie.match("a"));
+        assertNull(trie.match("a/b/c"));
+        assertNull(trie.match("a/bc"));
+        assertNull(trie.match("a/b/"));
+    }
+
+    @Test
+    void match_multiLevelWildcard_matchesParentAndAllLevelsBelow() {
+        final TopicFilterTrie trie = TopicFilterTrie.compile(List.of("sport/#"));
+
+        assertEquals("sport/#", trie.match("sport"));
+        assertEquals("sport/#", trie.match("sport/"));
+        assertEquals("sport/#", trie.match("sport/tennis/player1"));
+        assertNull(trie.match("sports"));
+        assertNull(trie.match("other/sport"));
+    }
+
+    @Test
+    void match_singleLevelWildcard_matchesExactlyOneLevel() {
+        final TopicFilterTrie trie = TopicFilterTrie.compile(List.of("sport/+/player1"));
+
+        assertEquals("sport/+/player1", trie.match("sport/tennis/player1"));
+        assertEquals("sport/+/player1", trie.match("sport//player1"));
+        assertNull(trie.match("sport/player1"));
+        assertNull(trie.match("sport/tennis/court/player1"));
+    }
+
+    @Test
+    void match_singleLevelWildcardAtEnd_matchesEmptyLevelButNotParent() {
+        final TopicFilterTrie trie = TopicFilterTrie.compile(List.of("sport/+"));
+
+        assertEquals("sport/+", trie.match("sport/"));
+        assertEquals("sport/+", trie.match("sport/tennis"));
+        assertNull(trie.match("sport"));
+        assertNull(trie.match("sport/tennis/player1"));
+    }
+
+    @Test
+    void match_wildcardsAtRoot_doNotMatchDollarTopics() {
+        final TopicFilterTrie trie = TopicFilterTrie.compile(List.of("#", "+/monitor"));
+
+        assertNull(trie.match("$SYS/broker/uptime"));
+        assertNull(trie.match("$SYS/monitor"));
+        assertEquals("#", trie.match("a/b"));
+        assertEquals("#", trie.match("/"));
+    }
+
+    @Test
+    void match_dollarFilter_matchesDollarTopics() {
+        final TopicFilterTrie trie = TopicFilterTrie.compile(List.of("$SYS/#", "$SYS/+/uptime"));
+
+        assertEquals("$SYS/#", trie.match("$SYS/broker/uptime"));
+        assertEquals("$SYS/#", trie.match("$SYS"));
+        assertNull(trie.match("SYS/broker"));
+    }
+
+    @Test
+    void match_dollarTopicBelowRoot_wildcardsMatch() {
+        final TopicFilterTrie trie = TopicFilterTrie.compile(List.of("a/+", "b/#"));
+
+        assertEquals("a/+", trie.match("a/$b"));
+        assertEquals("b/#", trie.match("b/$c/d"));
+    }
+
+    @Test
+    void match_exactPathFails_backtracksToWildcard() {
+        final TopicFilterTrie trie = TopicFilterTrie.compile(List.of("a/b/c", "a/+/d"));
+
+        assertEquals("a/+/d", trie.match("a/b/d"));
+        assertEquals("a/b/c", trie.match("a/b/c"));
+        assertNull(trie.match("a/b/e"));
+    }
+
+    @Test
+    void match_manySiblings_allFound() {
+        final List<String> filters = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            filters.add("fleet/vehicle-" + i + "/#");
+        }
+        final TopicFilterTrie trie = TopicFilterTrie.compile(filters);
+
+        assertEquals(1000, trie.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("fleet/vehicle-" + i + "/#", trie.match("fleet/vehicle-" + i + "/position"));
+        }
+        assertNull(trie.match("fleet/vehicle-1000/position"));
+    }
+
+    @Test
+    void compile_duplicateFilters_countedOnce() {
+        final TopicFilterTrie trie = TopicFilterTrie.compile(List.of("a/#", "a/#", "a/+", "a/+"));
+
+        assertEquals(2, trie.size());
+    }
+
+    @Test
+    void compile_empty_matchesNothing() {
+        final TopicFilterTrie trie = TopicFilterTrie.compile(List.of());
+
+        assertTrue(trie.isEmpty());
+        assertNull(trie.match("a"));
+        assertNull(trie.match(""));
+    }
+
+    @Test
+    void compile_invalidFilter_throws() {
+        assertThrows(IllegalArgumentException.class, () -> TopicFilterTrie.compile(List.of("a/#/b")));
+    }
+
+    @Test
+    void isValidFilter_wildcardPlacement() {
+        assertTrue(TopicFilterTrie.isValidFilter("#"));
+        assertTrue(TopicFilterTrie.isValidFilter("+"));
+        assertTrue(TopicFilterTrie.isValidFilter("+/+/#"));
+        assertTrue(TopicFilterTrie.isValidFilter("/"));
+        assertFalse(TopicFilterTrie.isValidFilter(""));
+        assertFalse(TopicFilterTrie.isValidFilter("a/#/b"));
+        assertFalse(TopicFilterTrie.isValidFilter("a#"));
+        assertFalse(TopicFilterTrie.isValidFilter("a/b+"));
+        assertFalse(TopicFilterTrie.isValidFilter("#/"));
+    }
+}